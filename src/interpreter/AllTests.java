@@ -4,6 +4,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import optimizer.OptimizerTest;
 import parser.ParserTest;
 
 /**
@@ -15,7 +16,20 @@ import parser.ParserTest;
 @SuiteClasses({
 	tree.TreeTest.class,
 	tokenizer.TokenizerTest.class,
-	ParserTest.class
+	ParserTest.class,
+	OptimizerTest.class,
+	InterpreterTest.class,
+	MemoryRenderTargetTest.class,
+	DrawingAreaTest.class,
+	SegmentGridTest.class,
+	DisplayListTest.class,
+	SimplifyingRenderTargetTest.class,
+	TileRasterizerTest.class,
+	PolylineTest.class,
+	PngExportTest.class,
+	TimelineTest.class,
+	PlaybackTest.class,
+	BatchRenderTest.class
 })
 public class AllTests {
 
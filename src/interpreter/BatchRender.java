@@ -0,0 +1,514 @@
+package interpreter;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import parser.Parser;
+import tokenizer.Token;
+import tree.Tree;
+
+/**
+ * Renders many Logo programs to PNG images from the command line, with
+ * no display. Usage:
+ * <pre>
+ * java interpreter.BatchRender [-o directory] [-j jobs] [-t seconds] [-s WIDTHxHEIGHT] [-m directory] [-d] [-x scale] [-k megabytes] [-c megabytes] [-p iterations] source...
+ * </pre>
+ * Each source is a <code>.logo</code> file, a directory (searched for
+ * <code>.logo</code> files), or a glob such as <code>gallery/*&#47;*.logo</code>.
+ * Programs are rendered concurrently, at most <code>jobs</code> at a time
+ * (by default, one per processor), and a program still running after
+ * <code>seconds</code> is stopped, keeping what it has drawn so far. Each
+ * image is written next to its program, or to the given directory. A
+ * table of parse, execution and raster times and segment counts is
+ * printed at the end. With <code>-m</code>, each drawing is kept in a
+ * memory-mapped file in the given directory instead of on the heap,
+ * for programs that draw more than the heap can hold. With <code>-d</code>,
+ * each drawing is simplified as it is made (see
+ * <code>SimplifyingRenderTarget</code>), and the table also shows how
+ * many commands that removed. With <code>-x</code>, each image is drawn
+ * that many times larger (or smaller) than the drawing, and written a
+ * strip at a time (see <code>PngExport</code>), so that it need not fit
+ * in memory; the raster time then includes writing the image. A program
+ * that recurses too deeply for the Java stack is run again from the
+ * start with its Logo calls on an explicit stack (see
+ * <code>StackMachine</code>) of at most the megabytes given with
+ * <code>-k</code>, 256 by default; <code>-k 0</code> reports it instead.
+ * With <code>-c</code>, the drawings of relative procedures are cached
+ * (see <code>GeometryCache</code>) in at most the megabytes given; the
+ * table shows how many calls were replayed from the cache and how many
+ * were drawn. Replayed lines agree with drawn ones only to within
+ * rounding, so nothing is cached unless asked for. Likewise, only with
+ * <code>-p</code> does a <code>repeat</code> loop that only moves, turns
+ * and draws run on all processors (see <code>ParallelRepeat</code>), if
+ * it has at least the iterations given; its poses agree with those of
+ * the loop run on one processor only to within rounding.
+ */
+public class BatchRender {
+    private int width = 600;
+    private int height = 600;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private long timeoutMillis = 60000;
+    private Path outputDirectory;
+    private Path spillDirectory;
+    private boolean simplify;
+    private double scale = 1;
+    private long stackBudget = Interpreter.DEFAULT_STACK_BUDGET;
+    private long cacheBudget;
+    private int parallelThreshold;
+
+    /**
+     * What happened to one program.
+     */
+    static final class Job {
+        final Path source;
+        Path image;
+        String status = "ok";
+        long parseNanos;
+        long executeNanos;
+        long rasterNanos;
+        int segments;
+        long removed;
+        long cacheHits;
+        long cacheMisses;
+
+        Job(Path source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * Renders the programs named on the command line.
+     *
+     * @param args The options and sources, as described above.
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        BatchRender batch = new BatchRender();
+        List<String> sources = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-o".equals(args[i])) batch.setOutputDirectory(Paths.get(args[++i]));
+                else if ("-j".equals(args[i])) batch.setJobs(Integer.parseInt(args[++i]));
+                else if ("-t".equals(args[i])) batch.setTimeout((long) (Double.parseDouble(args[++i]) * 1000));
+                else if ("-m".equals(args[i])) batch.setSpillDirectory(Paths.get(args[++i]));
+                else if ("-d".equals(args[i])) batch.setSimplify(true);
+                else if ("-x".equals(args[i])) batch.setScale(Double.parseDouble(args[++i]));
+                else if ("-k".equals(args[i])) batch.setStackBudget((long) (Double.parseDouble(args[++i]) * (1 << 20)));
+                else if ("-c".equals(args[i])) batch.setCacheBudget((long) (Double.parseDouble(args[++i]) * (1 << 20)));
+                else if ("-p".equals(args[i])) batch.setParallelThreshold(Integer.parseInt(args[++i]));
+                else if ("-s".equals(args[i])) {
+                    String[] size = args[++i].split("x");
+                    batch.setSize(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+                }
+                else sources.add(args[i]);
+            }
+            if (sources.isEmpty()) {
+                System.err.println("Usage: java interpreter.BatchRender [-o directory] [-j jobs] "
+                                   + "[-t seconds] [-s WIDTHxHEIGHT] [-m directory] [-d] [-x scale] [-k megabytes] "
+                                   + "[-c megabytes] [-p iterations] source...");
+                System.exit(2);
+            }
+            List<Job> results = batch.renderAll(findPrograms(sources));
+            printSummary(results, System.out);
+            for (Job job : results) {
+                if (!"ok".equals(job.status)) System.exit(1);
+            }
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Sets the size of the images.
+     *
+     * @param width The width, in pixels.
+     * @param height The height, in pixels.
+     */
+    void setSize(int width, int height) {
+        if (width <= 0 || height <= 0) throw new RuntimeException("Bad image size " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Sets how many programs may be rendered at the same time.
+     *
+     * @param jobs The largest number of programs running at once.
+     */
+    void setJobs(int jobs) {
+        if (jobs <= 0) throw new RuntimeException("Bad number of jobs " + jobs);
+        this.jobs = jobs;
+    }
+
+    /**
+     * Sets how long a program may run before it is stopped.
+     *
+     * @param millis The time limit in milliseconds, or 0 for none.
+     */
+    void setTimeout(long millis) {
+        timeoutMillis = millis;
+    }
+
+    /**
+     * Sets where the images are written.
+     *
+     * @param directory The directory, or <code>null</code> to write each
+     *        image next to its program.
+     */
+    void setOutputDirectory(Path directory) {
+        outputDirectory = directory;
+    }
+
+    /**
+     * Sets where drawings are kept while they are made.
+     *
+     * @param directory The directory of the memory-mapped files, or
+     *        <code>null</code> to keep the drawings on the heap.
+     */
+    void setSpillDirectory(Path directory) {
+        spillDirectory = directory;
+    }
+
+    /**
+     * Sets whether drawings are simplified as they are made.
+     *
+     * @param simplify <code>true</code> to merge and drop lines that
+     *        would not change the image.
+     */
+    void setSimplify(boolean simplify) {
+        this.simplify = simplify;
+    }
+
+    /**
+     * Sets how much larger than the drawings the images are.
+     *
+     * @param scale How many pixels of an image a pixel of its drawing
+     *        covers.
+     */
+    void setScale(double scale) {
+        if (!(scale > 0)) throw new RuntimeException("Bad scale " + scale);
+        this.scale = scale;
+    }
+
+    /**
+     * Sets how much memory a program that recurses too deeply for the Java
+     * stack may use for its Logo calls when it is run again.
+     *
+     * @param bytes The memory budget for Logo call frames, or 0 not to
+     *        run such programs again.
+     */
+    void setStackBudget(long bytes) {
+        if (bytes < 0) throw new RuntimeException("Bad stack budget " + bytes);
+        stackBudget = bytes;
+    }
+
+    /**
+     * Sets how much memory the drawings of relative procedures may take
+     * in each program's cache.
+     *
+     * @param bytes The memory budget for cached drawings, or 0 for no
+     *        cache.
+     */
+    void setCacheBudget(long bytes) {
+        if (bytes < 0) throw new RuntimeException("Bad cache budget " + bytes);
+        cacheBudget = bytes;
+    }
+
+    /**
+     * Sets how many iterations a rigid <code>repeat</code> loop needs to
+     * be run on all processors.
+     *
+     * @param iterations The smallest count run in parallel, or 0 to run
+     *        every loop on one processor.
+     */
+    void setParallelThreshold(int iterations) {
+        if (iterations < 0) throw new RuntimeException("Bad parallel threshold " + iterations);
+        parallelThreshold = iterations;
+    }
+
+    /**
+     * Finds the programs named by files, directories and globs, in a
+     * fixed order and without duplicates.
+     *
+     * @param sources The names.
+     * @return The program files.
+     * @throws IOException If a directory cannot be read.
+     */
+    static List<Path> findPrograms(List<String> sources) throws IOException {
+        Set<Path> programs = new LinkedHashSet<Path>();
+        for (String source : sources) {
+            int wild = firstWildcard(source);
+            List<Path> found = new ArrayList<Path>();
+            if (wild >= 0) {
+                int slash = Math.max(source.lastIndexOf('/', wild), source.lastIndexOf('\\', wild));
+                Path base = Paths.get(slash < 0 ? "." : source.substring(0, slash + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + source.substring(slash + 1));
+                for (Path file : walk(base)) {
+                    if (matcher.matches(base.relativize(file))) found.add(file);
+                }
+            }
+            else {
+                Path path = Paths.get(source);
+                if (Files.isDirectory(path)) {
+                    for (Path file : walk(path)) {
+                        if (file.getFileName().toString().endsWith(".logo")) found.add(file);
+                    }
+                }
+                else if (Files.isRegularFile(path)) {
+                    found.add(path);
+                }
+                else {
+                    throw new IOException("No such file: " + source);
+                }
+            }
+            Collections.sort(found);
+            programs.addAll(found);
+        }
+        return new ArrayList<Path>(programs);
+    }
+
+    /**
+     * Returns the position of the first glob character in a name.
+     */
+    private static int firstWildcard(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if ("*?[{".indexOf(name.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Lists all the files under a directory.
+     */
+    private static List<Path> walk(Path directory) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) files.addAll(walk(entry));
+                else if (Files.isRegularFile(entry)) files.add(entry);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Renders the programs, several at a time.
+     *
+     * @param programs The program files.
+     * @return What happened to each program, in the same order.
+     */
+    List<Job> renderAll(List<Path> programs) {
+        ExecutorService workers = Executors.newFixedThreadPool(jobs);
+        final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        try {
+            List<Future<Job>> futures = new ArrayList<Future<Job>>();
+            for (final Path program : programs) {
+                futures.add(workers.submit(new Callable<Job>() {
+                    @Override
+                    public Job call() {
+                        return render(program, watchdog);
+                    }
+                }));
+            }
+            List<Job> results = new ArrayList<Job>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted");
+                }
+                catch (ExecutionException e) {
+                    Job failed = new Job(programs.get(i));
+                    failed.status = "failed: " + e.getCause();
+                    results.add(failed);
+                }
+            }
+            return results;
+        }
+        finally {
+            workers.shutdownNow();
+            watchdog.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses, runs and rasterizes one program, and writes its image. A
+     * program that fails to parse produces no image; a program that fails
+     * while running, or runs out of time, produces an image of what it
+     * drew before it stopped.
+     *
+     * @param program The program file.
+     * @param watchdog Stops programs that run too long, or
+     *        <code>null</code> for no time limit.
+     * @return What happened.
+     */
+    Job render(Path program, ScheduledExecutorService watchdog) {
+        Job job = new Job(program);
+        long start = System.nanoTime();
+        Tree<Token> ast;
+        try {
+            String text = new String(Files.readAllBytes(program), StandardCharsets.UTF_8);
+            Parser parser = new Parser(text + '\n');
+            if (!parser.isProgram()) {
+                job.status = "not a program";
+                return job;
+            }
+            ast = parser.stack.peek();
+        }
+        catch (IOException e) {
+            job.status = "unreadable: " + e.getMessage();
+            return job;
+        }
+        catch (RuntimeException e) {
+            job.status = "syntax: " + e.getMessage();
+            return job;
+        }
+        finally {
+            job.parseNanos = System.nanoTime() - start;
+        }
+
+        MemoryRenderTarget target = new MemoryRenderTarget(width, height, spillDirectory);
+        SimplifyingRenderTarget simplifier = simplify ? new SimplifyingRenderTarget(target) : null;
+        final Interpreter interpreter = new Interpreter(simplifier != null ? simplifier : target);
+        interpreter.initialize();
+        interpreter.setGeometryCacheBudget(cacheBudget);
+        interpreter.setParallelRepeatThreshold(parallelThreshold);
+        ScheduledFuture<?> alarm = null;
+        if (watchdog != null && timeoutMillis > 0) {
+            alarm = watchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    interpreter.stopDrawing();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        start = System.nanoTime();
+        try {
+            try {
+                interpreter.interpret(ast);
+            }
+            catch (StackOverflowError e) {
+                if (stackBudget == 0) throw e;
+                // start again, with the calls on the heap
+                if (simplifier != null) simplifier.clear();
+                else target.clear();
+                interpreter.initialize();
+                interpreter.setStackBudget(stackBudget);
+                interpreter.interpret(ast);
+            }
+        }
+        catch (RuntimeException e) {
+            job.status = "error: " + e.getMessage();
+        }
+        catch (StackOverflowError e) {
+            job.status = "error: recursion too deep";
+        }
+        finally {
+            job.executeNanos = System.nanoTime() - start;
+            if (alarm != null) alarm.cancel(false);
+        }
+        if (interpreter.isStopped()) job.status = "timed out";
+
+        String name = program.getFileName().toString();
+        if (name.endsWith(".logo")) name = name.substring(0, name.length() - ".logo".length());
+        Path directory = outputDirectory != null ? outputDirectory : program.toAbsolutePath().getParent();
+        job.image = directory.resolve(name + ".png");
+
+        start = System.nanoTime();
+        if (simplifier != null) job.removed = simplifier.getRemovedCount();
+        job.segments = target.getLineCount();
+        GeometryCache cache = interpreter.getGeometryCache();
+        if (cache != null) {
+            job.cacheHits = cache.getHits();
+            job.cacheMisses = cache.getMisses();
+        }
+        try {
+            Files.createDirectories(directory);
+            if (scale != 1) {
+                target.exportPng(job.image, scale);
+                job.rasterNanos = System.nanoTime() - start;
+                return job;
+            }
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            target.paint(image);
+            job.rasterNanos = System.nanoTime() - start;
+            ImageIO.write(image, "png", job.image.toFile());
+        }
+        catch (IOException e) {
+            job.status = "unwritable: " + e.getMessage();
+        }
+        finally {
+            target.clear();
+        }
+        return job;
+    }
+
+    /**
+     * Prints a table of what happened to each program, with totals.
+     *
+     * @param results The jobs.
+     * @param out Where to print the table.
+     */
+    static void printSummary(List<Job> results, PrintStream out) {
+        String format = "%-40s %10s %10s %10s %10s %10s %10s %10s  %s%n";
+        out.printf(format, "file", "parse ms", "exec ms", "segments", "removed", "cache hits", "cache miss",
+                   "raster ms", "status");
+        long parse = 0, execute = 0, raster = 0, segments = 0, removed = 0, hits = 0, misses = 0;
+        int ok = 0;
+        for (Job job : results) {
+            out.printf(format, job.source, millis(job.parseNanos), millis(job.executeNanos),
+                       job.segments, job.removed, job.cacheHits, job.cacheMisses, millis(job.rasterNanos),
+                       job.status);
+            parse += job.parseNanos;
+            execute += job.executeNanos;
+            raster += job.rasterNanos;
+            segments += job.segments;
+            removed += job.removed;
+            hits += job.cacheHits;
+            misses += job.cacheMisses;
+            if ("ok".equals(job.status)) ok++;
+        }
+        out.printf(format, "total (" + ok + " of " + results.size() + " ok)", millis(parse), millis(execute),
+                   segments, removed, hits, misses, millis(raster), "");
+    }
+
+    /**
+     * Formats a time in milliseconds.
+     */
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,181 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for BatchRender, rendering small programs in a temporary directory.
+ */
+public class BatchRenderTest {
+    private Path directory;
+    private BatchRender batch;
+
+    /**
+     * Creates an empty directory for the programs and their images.
+     *
+     * @throws IOException If the directory cannot be created.
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("logo");
+        batch = new BatchRender();
+        batch.setSize(100, 80);
+        batch.setJobs(2);
+    }
+
+    /**
+     * Deletes the directory and everything in it.
+     *
+     * @throws IOException If something cannot be deleted.
+     */
+    @After
+    public void tearDown() throws IOException {
+        delete(directory);
+    }
+
+    /**
+     * Test method for {@link interpreter.BatchRender#findPrograms(java.util.List)}.
+     *
+     * @throws IOException If a file cannot be written.
+     */
+    @Test
+    public void testFindPrograms() throws IOException {
+        Path a = write("a.logo", "forward 1\n");
+        Path b = write("sub/b.logo", "forward 1\n");
+        write("sub/notes.txt", "not a program\n");
+        assertEquals(Arrays.asList(a, b), BatchRender.findPrograms(Arrays.asList(directory.toString())));
+        assertEquals(Arrays.asList(b, a),
+                     BatchRender.findPrograms(Arrays.asList(directory + "/*/*.logo", a.toString(), b.toString())));
+    }
+
+    /**
+     * Test method for {@link interpreter.BatchRender#renderAll(java.util.List)}.
+     *
+     * @throws IOException If a file cannot be written.
+     */
+    @Test
+    public void testRenderAll() throws IOException {
+        Path square = write("square.logo", "repeat 4 {\nforward 20\nright 90\n}\n");
+        Path broken = write("broken.logo", "forward\n");
+        Path failing = write("failing.logo", "forward 5\nset a 1 / 0\n");
+        Path endless = write("endless.logo", "while 1 < 2 {\nright 1\n}\n");
+        batch.setTimeout(200);
+        List<BatchRender.Job> results = batch.renderAll(Arrays.asList(square, broken, failing, endless));
+
+        assertEquals("ok", results.get(0).status);
+        assertEquals(4, results.get(0).segments);
+        assertTrue(Files.size(directory.resolve("square.png")) > 0);
+        assertTrue(results.get(1).status.startsWith("syntax"));
+        assertFalse(Files.exists(directory.resolve("broken.png")));
+        assertEquals("error: Divided by 0!", results.get(2).status);
+        assertEquals(1, results.get(2).segments);
+        assertEquals("timed out", results.get(3).status);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BatchRender.printSummary(results, new PrintStream(bytes));
+        String table = bytes.toString();
+        assertTrue(table.contains("square.logo"));
+        assertTrue(table.contains("total (1 of 4 ok)"));
+    }
+
+    /**
+     * Test method for {@link interpreter.BatchRender#setSimplify(boolean)}.
+     *
+     * @throws IOException If a file cannot be written.
+     */
+    @Test
+    public void testSimplify() throws IOException {
+        Path square = write("square.logo", "repeat 8 {\nforward 10\nforward 10\nright 90\n}\n");
+        batch.setSimplify(true);
+        List<BatchRender.Job> results = batch.renderAll(Arrays.asList(square));
+        assertEquals("ok", results.get(0).status);
+        assertEquals(4, results.get(0).segments);
+        assertEquals(12, results.get(0).removed);
+        assertTrue(Files.size(directory.resolve("square.png")) > 0);
+    }
+
+    /**
+     * Test method for {@link interpreter.BatchRender#setCacheBudget(long)}.
+     *
+     * @throws IOException If a file cannot be written.
+     */
+    @Test
+    public void testCache() throws IOException {
+        Path stars = write("stars.logo", "repeat 10 {\ndo star 30\nright 36\n}\n"
+                                         + "def star len {\nrepeat 5 {\nforward len\nright 144\n}\n}\n");
+        // nothing is cached unless asked for
+        List<BatchRender.Job> results = batch.renderAll(Arrays.asList(stars));
+        assertEquals("ok", results.get(0).status);
+        assertEquals(50, results.get(0).segments);
+        assertEquals(0, results.get(0).cacheHits);
+
+        batch.setCacheBudget(Interpreter.DEFAULT_GEOMETRY_CACHE_BUDGET);
+        results = batch.renderAll(Arrays.asList(stars));
+        assertEquals(50, results.get(0).segments);
+        assertEquals(9, results.get(0).cacheHits);
+        assertEquals(1, results.get(0).cacheMisses);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BatchRender.printSummary(results, new PrintStream(bytes));
+        assertTrue(bytes.toString().contains("cache hits"));
+    }
+
+    /**
+     * Test method for {@link interpreter.BatchRender#setStackBudget(long)}.
+     *
+     * @throws IOException If a file cannot be written.
+     */
+    @Test
+    public void testDeepRecursion() throws IOException {
+        Path deep = write("deep.logo", "do down 200000\ndef down k {\nif k > 0 {\ndo down k - 1\nforward 1\n}\n}\n");
+        List<BatchRender.Job> results = batch.renderAll(Arrays.asList(deep));
+        assertEquals("ok", results.get(0).status);
+        assertEquals(200000, results.get(0).segments);
+
+        batch.setStackBudget(0);
+        results = batch.renderAll(Arrays.asList(deep));
+        assertEquals("error: recursion too deep", results.get(0).status);
+    }
+
+    /**
+     * Writes a program in the temporary directory.
+     *
+     * @param name The name of the file, relative to the directory.
+     * @param text The contents of the file.
+     * @return The file.
+     * @throws IOException If the file cannot be written.
+     */
+    private Path write(String name, String text) throws IOException {
+        Path file = directory.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     *
+     * @param path The file or directory.
+     * @throws IOException If something cannot be deleted.
+     */
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) delete(entry);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
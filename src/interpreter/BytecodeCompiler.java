@@ -0,0 +1,957 @@
+package interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import interpreter.ConditionNode.EqualNode;
+import interpreter.ConditionNode.GreaterNode;
+import interpreter.ConditionNode.LessNode;
+import interpreter.ExpressionNode.AddNode;
+import interpreter.ExpressionNode.DivideNode;
+import interpreter.ExpressionNode.GetXNode;
+import interpreter.ExpressionNode.GetYNode;
+import interpreter.ExpressionNode.GlobalVariableNode;
+import interpreter.ExpressionNode.LocalVariableNode;
+import interpreter.ExpressionNode.MultiplyNode;
+import interpreter.ExpressionNode.NegateNode;
+import interpreter.ExpressionNode.NumberNode;
+import interpreter.ExpressionNode.ScopedVariableNode;
+import interpreter.ExpressionNode.SubtractNode;
+import interpreter.Node.BlockNode;
+import interpreter.Node.CallNode;
+import interpreter.Node.ColorNameNode;
+import interpreter.Node.ColorNode;
+import interpreter.Node.ErrorNode;
+import interpreter.Node.FaceNode;
+import interpreter.Node.ForwardNode;
+import interpreter.Node.GlobalSetNode;
+import interpreter.Node.HomeNode;
+import interpreter.Node.IfNode;
+import interpreter.Node.JumpNode;
+import interpreter.Node.LeftNode;
+import interpreter.Node.LocalSetNode;
+import interpreter.Node.PenDownNode;
+import interpreter.Node.PenUpNode;
+import interpreter.Node.ProcedureNode;
+import interpreter.Node.RepeatNode;
+import interpreter.Node.RightNode;
+import interpreter.Node.ScopedSetNode;
+import interpreter.Node.WhileNode;
+
+/**
+ * Second execution tier: translates the body of a hot procedure into a
+ * hidden JVM class, a subclass of <code>CompiledProcedure</code>. The
+ * generated code makes exactly the same Turtle calls, in the same order and
+ * with the same arguments, as the tree interpreter would, so both tiers
+ * produce identical drawings; but the JVM can inline and optimize it.
+ * <p>
+ * Only what ships with the JDK is used. The class file is written by hand,
+ * with version 49 so that no stack map frames are needed, and is loaded with
+ * <code>Lookup.defineHiddenClass</code> into this package. A procedure that
+ * cannot be compiled (for instance, because its body is too big for a JVM
+ * method) simply stays in the tree interpreter; a class that the JVM
+ * rejects, though, is a bug here, and is not hidden.
+ */
+class BytecodeCompiler {
+    private static final String INTERPRETER = "interpreter/Interpreter";
+    private static final String TURTLE = "interpreter/Turtle";
+    private static final String PROCEDURE = "interpreter/Node$ProcedureNode";
+    private static final String COMPILED = "interpreter/CompiledProcedure";
+
+    private static final int ICONST_0 = 3, DCONST_0 = 14, DCONST_1 = 15, BIPUSH = 16,
+            SIPUSH = 17, LDC_W = 19, LDC2_W = 20, ILOAD = 21, DLOAD = 24, ALOAD = 25,
+            DALOAD = 49, AALOAD = 50, BALOAD = 51, ISTORE = 54, DSTORE = 57, ASTORE = 58,
+            DASTORE = 82, BASTORE = 84, POP = 87, DUP = 89, DADD = 99, DSUB = 103, DMUL = 107,
+            DDIV = 111, DNEG = 119, IINC = 132, I2D = 135, D2I = 142, DCMPL = 151, DCMPG = 152,
+            IFEQ = 153, IFNE = 154, IFGE = 156, IFLE = 158, GOTO = 167, RETURN = 177,
+            GETFIELD = 180, INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184,
+            WIDE = 196;
+
+    private static int classCount = 0;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final Code code = new Code();
+    private final List<ProcedureNode> callees = new ArrayList<ProcedureNode>();
+    private final Map<ProcedureNode, Integer> calleeIndex = new HashMap<ProcedureNode, Integer>();
+    private final ProcedureNode procedure;
+    private final int[] localVar;
+    private final int[] definedVar;
+    private int nextVar;
+    private Label returnLabel;
+
+    private static final int THIS = 0, INTERP = 1, FRAME = 2, TURTLE_VAR = 3;
+
+    /**
+     * Thrown when a procedure cannot be compiled: it uses something this
+     * compiler leaves to the tree interpreter, or is too big for a class
+     * file.
+     */
+    private static final class Uncompilable extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Uncompilable(String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * Compiles the given procedure.
+     *
+     * @param procedure The procedure to be compiled.
+     * @return The compiled procedure, or <code>null</code> if this procedure
+     *         cannot be compiled.
+     * @throws LinkageError If the JVM rejects the class generated.
+     */
+    static CompiledProcedure compile(ProcedureNode procedure) {
+        try {
+            return new BytecodeCompiler(procedure).define();
+        }
+        catch (Uncompilable e) {
+            return null;
+        }
+        catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Cannot load the compiled " + procedure.name + ": " + e, e);
+        }
+    }
+
+    /**
+     * Prepares to compile one procedure, assigning a JVM local to each of
+     * its slots, plus a flag for each local that is not a parameter.
+     *
+     * @param procedure The procedure to be compiled.
+     */
+    private BytecodeCompiler(ProcedureNode procedure) {
+        this.procedure = procedure;
+        localVar = new int[procedure.frameSize];
+        definedVar = new int[procedure.frameSize];
+        nextVar = TURTLE_VAR + 1;
+        for (int slot = 0; slot < procedure.frameSize; slot++) {
+            localVar[slot] = nextVar;
+            nextVar += 2;
+            definedVar[slot] = -1;
+        }
+        for (int slot = 0; slot < procedure.frameSize; slot++) {
+            if (!isParameter(slot)) definedVar[slot] = nextVar++;
+        }
+    }
+
+    /**
+     * Generates, loads and instantiates the class for the procedure.
+     *
+     * @return The compiled procedure.
+     * @throws ReflectiveOperationException if the class cannot be instantiated.
+     */
+    private CompiledProcedure define() throws ReflectiveOperationException {
+        generateRun();
+        String className;
+        synchronized (BytecodeCompiler.class) {
+            className = "interpreter/CompiledProcedure$" + (++classCount);
+        }
+        byte[] bytes = classFile(className);
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        Class<?> compiledClass = lookup.lookupClass();
+        ProcedureNode[] linked = callees.toArray(new ProcedureNode[callees.size()]);
+        return (CompiledProcedure) compiledClass.getDeclaredConstructor(ProcedureNode[].class)
+                                                .newInstance((Object) linked);
+    }
+
+    /**
+     * Generates the body of the <code>run</code> method.
+     */
+    private void generateRun() {
+        returnLabel = new Label();
+        load(ALOAD, INTERP);
+        invoke(INVOKEVIRTUAL, INTERPRETER, "getTurtle", "()L" + TURTLE + ";", 0);
+        store(ASTORE, TURTLE_VAR, 1);
+        for (int slot = 0; slot < procedure.frameSize; slot++) {
+            if (isParameter(slot)) {
+                load(ALOAD, FRAME);
+                pushInt(slot);
+                code.op(DALOAD, 0);
+            }
+            else {
+                code.op(DCONST_0, 2);
+                code.op(ICONST_0, 1);
+                store(ISTORE, definedVar[slot], 1);
+            }
+            store(DSTORE, localVar[slot], 2);
+        }
+        statement(procedure.body);
+        code.place(returnLabel);
+        code.op(RETURN, 0);
+    }
+
+    // ------------------------ statements
+
+    /**
+     * Generates code for a statement. The operand stack is empty before
+     * and after.
+     *
+     * @param node The statement.
+     */
+    private void statement(Node node) {
+        if (node instanceof BlockNode) {
+            for (Node child : ((BlockNode) node).statements) {
+                checkStopped();
+                statement(child);
+            }
+        }
+        else if (node instanceof PenUpNode) {
+            turtleCall("penup", "()V", null);
+        }
+        else if (node instanceof PenDownNode) {
+            turtleCall("pendown", "()V", null);
+        }
+        else if (node instanceof HomeNode) {
+            turtleCall("home", "()V", null);
+        }
+        else if (node instanceof ForwardNode) {
+            turtleCall("forward", "(D)V", ((ForwardNode) node).distance);
+        }
+        else if (node instanceof LeftNode) {
+            turtleCall("left", "(D)V", ((LeftNode) node).angle);
+        }
+        else if (node instanceof RightNode) {
+            turtleCall("right", "(D)V", ((RightNode) node).angle);
+        }
+        else if (node instanceof FaceNode) {
+            turtleCall("face", "(D)V", ((FaceNode) node).angle);
+        }
+        else if (node instanceof JumpNode) {
+            load(ALOAD, TURTLE_VAR);
+            expression(((JumpNode) node).x);
+            expression(((JumpNode) node).y);
+            invoke(INVOKEVIRTUAL, TURTLE, "setPosition", "(DD)V", -5);
+        }
+        else if (node instanceof ColorNameNode) {
+            load(ALOAD, TURTLE_VAR);
+            loadString(((ColorNameNode) node).colorName);
+            invoke(INVOKEVIRTUAL, TURTLE, "color", "(Ljava/lang/String;)V", -2);
+        }
+        else if (node instanceof ColorNode) {
+            ColorNode color = (ColorNode) node;
+            load(ALOAD, TURTLE_VAR);
+            expression(color.red);
+            code.op(D2I, -1);
+            expression(color.green);
+            code.op(D2I, -1);
+            expression(color.blue);
+            code.op(D2I, -1);
+            invoke(INVOKESTATIC, COMPILED, "rgb", "(III)I", -2);
+            invoke(INVOKEVIRTUAL, TURTLE, "color", "(I)V", -2);
+        }
+        else if (node instanceof GlobalSetNode) {
+            GlobalSetNode set = (GlobalSetNode) node;
+            globalArray("globals", "[D");
+            pushInt(set.slot);
+            expression(set.value);
+            code.op(DASTORE, -4);
+            globalArray("globalDefined", "[Z");
+            pushInt(set.slot);
+            code.op(ICONST_0 + 1, 1);
+            code.op(BASTORE, -3);
+        }
+        else if (node instanceof LocalSetNode) {
+            LocalSetNode set = (LocalSetNode) node;
+            expression(set.value);
+            store(DSTORE, localVar[set.slot], 2);
+        }
+        else if (node instanceof ScopedSetNode) {
+            scopedSet((ScopedSetNode) node);
+        }
+        else if (node instanceof RepeatNode) {
+            repeat((RepeatNode) node);
+        }
+        else if (node instanceof WhileNode) {
+            WhileNode loop = (WhileNode) node;
+            Label top = new Label();
+            Label end = new Label();
+            code.place(top);
+            condition(loop.condition, end);
+            checkStopped();
+            statement(loop.body);
+            code.jump(GOTO, top, 0);
+            code.place(end);
+        }
+        else if (node instanceof IfNode) {
+            IfNode choice = (IfNode) node;
+            Label otherwise = new Label();
+            Label end = new Label();
+            condition(choice.condition, otherwise);
+            statement(choice.thenPart);
+            code.jump(GOTO, end, 0);
+            code.place(otherwise);
+            if (choice.elsePart != null) statement(choice.elsePart);
+            code.place(end);
+        }
+        else if (node instanceof CallNode) {
+            call((CallNode) node);
+        }
+        else if (node instanceof ErrorNode) {
+            loadString(((ErrorNode) node).message);
+            invoke(INVOKESTATIC, COMPILED, "fail", "(Ljava/lang/String;)V", -1);
+        }
+        else {
+            throw new Uncompilable(node.getClass().getName());
+        }
+    }
+
+    /**
+     * Generates a call of a no-argument or one-argument Turtle method.
+     *
+     * @param name The name of the method.
+     * @param descriptor The JVM descriptor of the method.
+     * @param argument The argument expression, or <code>null</code>.
+     */
+    private void turtleCall(String name, String descriptor, ExpressionNode argument) {
+        load(ALOAD, TURTLE_VAR);
+        if (argument != null) expression(argument);
+        invoke(INVOKEVIRTUAL, TURTLE, name, descriptor, argument == null ? -1 : -3);
+    }
+
+    /**
+     * Generates a return from the procedure if the user has pressed Stop.
+     */
+    private void checkStopped() {
+        load(ALOAD, INTERP);
+        invoke(INVOKEVIRTUAL, INTERPRETER, "isStopped", "()Z", 0);
+        code.jump(IFNE, returnLabel, -1);
+    }
+
+    /**
+     * Generates a <code>set</code> of a non-parameter: an existing local is
+     * updated first, then an existing global; otherwise a new local is created.
+     *
+     * @param set The statement.
+     */
+    private void scopedSet(ScopedSetNode set) {
+        int temp = newDoubleVar();
+        Label local = new Label();
+        Label end = new Label();
+        expression(set.value);
+        store(DSTORE, temp, 2);
+        load(ILOAD, definedVar[set.localSlot]);
+        code.jump(IFNE, local, -1);
+        globalArray("globalDefined", "[Z");
+        pushInt(set.globalSlot);
+        code.op(BALOAD, -1);
+        code.jump(IFEQ, local, -1);
+        globalArray("globals", "[D");
+        pushInt(set.globalSlot);
+        load(DLOAD, temp);
+        code.op(DASTORE, -4);
+        code.jump(GOTO, end, 0);
+        code.place(local);
+        load(DLOAD, temp);
+        store(DSTORE, localVar[set.localSlot], 2);
+        code.op(ICONST_0 + 1, 1);
+        store(ISTORE, definedVar[set.localSlot], 1);
+        code.place(end);
+    }
+
+    /**
+     * Generates a <code>repeat</code> loop. As in the tree interpreter, the
+     * count is re-evaluated before every iteration. A procedure containing
+     * a loop marked to run in parallel is not compiled.
+     *
+     * @param loop The statement.
+     */
+    private void repeat(RepeatNode loop) {
+        // a loop that may run in parallel is left to the tree interpreter
+        if (loop.parallel) throw new Uncompilable("parallel repeat");
+        int counter = nextVar++;
+        Label top = new Label();
+        Label end = new Label();
+        code.op(ICONST_0, 1);
+        store(ISTORE, counter, 1);
+        code.place(top);
+        load(ILOAD, counter);
+        code.op(I2D, 1);
+        expression(loop.count);
+        code.op(DCMPG, -3);
+        code.jump(IFGE, end, -1);
+        checkStopped();
+        statement(loop.body);
+        if (counter > 255) {
+            code.u1(WIDE);
+            code.u1(IINC);
+            code.u2(counter);
+            code.u2(1);
+        }
+        else {
+            code.u1(IINC);
+            code.u1(counter);
+            code.u1(1);
+        }
+        code.jump(GOTO, top, 0);
+        code.place(end);
+    }
+
+    /**
+     * Generates a procedure call: the arguments are evaluated straight into
+     * the callee's activation record, which the interpreter then runs.
+     *
+     * @param call The statement.
+     */
+    private void call(CallNode call) {
+        Integer index = calleeIndex.get(call.procedure);
+        if (index == null) {
+            index = callees.size();
+            callees.add(call.procedure);
+            calleeIndex.put(call.procedure, index);
+        }
+        load(ALOAD, INTERP);
+        loadCallee(index);
+        invoke(INVOKEVIRTUAL, INTERPRETER, "enterFrame", "(L" + PROCEDURE + ";)[D", -1);
+        int[] parameterSlots = call.procedure.parameterSlots;
+        for (int i = 0; i < parameterSlots.length; i++) {
+            code.op(DUP, 1);
+            pushInt(parameterSlots[i]);
+            expression(call.arguments[i]);
+            code.op(DASTORE, -4);
+        }
+        code.op(POP, -1);
+        load(ALOAD, INTERP);
+        loadCallee(index);
+        invoke(INVOKEVIRTUAL, INTERPRETER, "invoke", "(L" + PROCEDURE + ";)V", -2);
+    }
+
+    /**
+     * Pushes the called procedure with the given index.
+     *
+     * @param index The index of the procedure in <code>callees</code>.
+     */
+    private void loadCallee(int index) {
+        load(ALOAD, THIS);
+        code.op(GETFIELD, 0);
+        code.u2(pool.field(COMPILED, "callees", "[L" + PROCEDURE + ";"));
+        pushInt(index);
+        code.op(AALOAD, -1);
+    }
+
+    // ------------------------ expressions and conditions
+
+    /**
+     * Generates code that leaves the value of an expression (a double, two
+     * stack words) on the operand stack.
+     *
+     * @param node The expression.
+     */
+    private void expression(ExpressionNode node) {
+        if (node instanceof NumberNode) {
+            loadDouble(((NumberNode) node).value);
+        }
+        else if (node instanceof LocalVariableNode) {
+            load(DLOAD, localVar[((LocalVariableNode) node).slot]);
+        }
+        else if (node instanceof GlobalVariableNode) {
+            GlobalVariableNode variable = (GlobalVariableNode) node;
+            readGlobal(variable.name, variable.slot);
+        }
+        else if (node instanceof ScopedVariableNode) {
+            ScopedVariableNode variable = (ScopedVariableNode) node;
+            Label global = new Label();
+            Label end = new Label();
+            load(ILOAD, definedVar[variable.localSlot]);
+            code.jump(IFEQ, global, -1);
+            load(DLOAD, localVar[variable.localSlot]);
+            code.jump(GOTO, end, 0);
+            code.stack -= 2;
+            code.place(global);
+            readGlobal(variable.name, variable.globalSlot);
+            code.place(end);
+        }
+        else if (node instanceof GetXNode) {
+            load(ALOAD, TURTLE_VAR);
+            invoke(INVOKEVIRTUAL, TURTLE, "getX", "()D", 1);
+        }
+        else if (node instanceof GetYNode) {
+            load(ALOAD, TURTLE_VAR);
+            invoke(INVOKEVIRTUAL, TURTLE, "getY", "()D", 1);
+        }
+        else if (node instanceof NegateNode) {
+            expression(((NegateNode) node).operand);
+            code.op(DNEG, 0);
+        }
+        else if (node instanceof AddNode) {
+            binary((AddNode) node, DADD);
+        }
+        else if (node instanceof SubtractNode) {
+            binary((SubtractNode) node, DSUB);
+        }
+        else if (node instanceof MultiplyNode) {
+            binary((MultiplyNode) node, DMUL);
+        }
+        else if (node instanceof DivideNode) {
+            DivideNode divide = (DivideNode) node;
+            int divisor = newDoubleVar();
+            Label nonZero = new Label();
+            expression(divide.right);
+            store(DSTORE, divisor, 2);
+            load(DLOAD, divisor);
+            code.op(DCONST_0, 2);
+            code.op(DCMPL, -3);
+            code.jump(IFNE, nonZero, -1);
+            invoke(INVOKESTATIC, COMPILED, "divideByZero", "()V", 0);
+            code.place(nonZero);
+            expression(divide.left);
+            load(DLOAD, divisor);
+            code.op(DDIV, -2);
+        }
+        else {
+            throw new Uncompilable(node.getClass().getName());
+        }
+    }
+
+    /**
+     * Generates an arithmetic operator.
+     *
+     * @param node The operator node.
+     * @param opcode The JVM instruction for the operator.
+     */
+    private void binary(ExpressionNode.BinaryOpNode node, int opcode) {
+        expression(node.left);
+        expression(node.right);
+        code.op(opcode, -2);
+    }
+
+    /**
+     * Generates a read of a global variable, failing if it is undefined.
+     *
+     * @param name The name of the variable.
+     * @param slot The global slot of the variable.
+     */
+    private void readGlobal(String name, int slot) {
+        Label defined = new Label();
+        globalArray("globalDefined", "[Z");
+        pushInt(slot);
+        code.op(BALOAD, -1);
+        code.jump(IFNE, defined, -1);
+        load(ALOAD, INTERP);
+        loadString(name);
+        invoke(INVOKEVIRTUAL, INTERPRETER, "undefined", "(Ljava/lang/String;)V", -2);
+        code.place(defined);
+        globalArray("globals", "[D");
+        pushInt(slot);
+        code.op(DALOAD, 0);
+    }
+
+    /**
+     * Generates a test of a condition that jumps to the given label if the
+     * condition is false, and falls through if it is true.
+     *
+     * @param node The condition.
+     * @param ifFalse Where to go if the condition is false.
+     */
+    private void condition(ConditionNode node, Label ifFalse) {
+        expression(node.left);
+        expression(node.right);
+        if (node instanceof LessNode) {
+            code.op(DCMPG, -3);
+            code.jump(IFGE, ifFalse, -1);
+        }
+        else if (node instanceof GreaterNode) {
+            code.op(DCMPL, -3);
+            code.jump(IFLE, ifFalse, -1);
+        }
+        else if (node instanceof EqualNode) {
+            code.op(DCMPL, -3);
+            code.jump(IFNE, ifFalse, -1);
+        }
+        else {
+            throw new Uncompilable(node.getClass().getName());
+        }
+    }
+
+    // ------------------------ instruction helpers
+
+    /**
+     * Pushes one of the interpreter's global arrays.
+     *
+     * @param name The name of the field.
+     * @param descriptor The JVM type of the field.
+     */
+    private void globalArray(String name, String descriptor) {
+        load(ALOAD, INTERP);
+        code.op(GETFIELD, 0);
+        code.u2(pool.field(INTERPRETER, name, descriptor));
+    }
+
+    /**
+     * Generates a method call.
+     *
+     * @param opcode The invoke instruction.
+     * @param owner The class declaring the method.
+     * @param name The name of the method.
+     * @param descriptor The JVM descriptor of the method.
+     * @param stackChange The net change in operand stack size.
+     */
+    private void invoke(int opcode, String owner, String name, String descriptor, int stackChange) {
+        code.op(opcode, stackChange);
+        code.u2(pool.method(owner, name, descriptor));
+    }
+
+    /**
+     * Generates a load from a JVM local variable.
+     *
+     * @param opcode ILOAD, DLOAD or ALOAD.
+     * @param var The local variable.
+     */
+    private void load(int opcode, int var) {
+        localInstruction(opcode, var, opcode == DLOAD ? 2 : 1);
+    }
+
+    /**
+     * Generates a store into a JVM local variable.
+     *
+     * @param opcode ISTORE, DSTORE or ASTORE.
+     * @param var The local variable.
+     * @param size The number of stack words stored.
+     */
+    private void store(int opcode, int var, int size) {
+        localInstruction(opcode, var, -size);
+    }
+
+    /**
+     * Generates a local variable instruction, widening it if necessary.
+     *
+     * @param opcode The instruction.
+     * @param var The local variable.
+     * @param stackChange The net change in operand stack size.
+     */
+    private void localInstruction(int opcode, int var, int stackChange) {
+        if (var > 255) {
+            code.op(WIDE, 0);
+            code.u1(opcode);
+            code.u2(var);
+        }
+        else {
+            code.op(opcode, 0);
+            code.u1(var);
+        }
+        code.adjust(stackChange);
+    }
+
+    /**
+     * Pushes an int constant.
+     *
+     * @param value The constant.
+     */
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            code.op(ICONST_0 + value, 1);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(BIPUSH, 1);
+            code.u1(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(SIPUSH, 1);
+            code.u2(value);
+        }
+        else {
+            code.op(LDC_W, 1);
+            code.u2(pool.integer(value));
+        }
+    }
+
+    /**
+     * Pushes a double constant.
+     *
+     * @param value The constant.
+     */
+    private void loadDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            code.op(DCONST_0, 2);
+        }
+        else if (value == 1.0) {
+            code.op(DCONST_1, 2);
+        }
+        else {
+            code.op(LDC2_W, 2);
+            code.u2(pool.doubleConstant(value));
+        }
+    }
+
+    /**
+     * Pushes a String constant.
+     *
+     * @param value The constant.
+     */
+    private void loadString(String value) {
+        code.op(LDC_W, 1);
+        code.u2(pool.string(value));
+    }
+
+    /**
+     * Allocates a JVM local variable for a double temporary.
+     *
+     * @return The first of its two local variable indices.
+     */
+    private int newDoubleVar() {
+        int var = nextVar;
+        nextVar += 2;
+        return var;
+    }
+
+    /**
+     * Tells whether a frame slot holds a parameter.
+     *
+     * @param slot The slot.
+     * @return <code>true</code> if the slot belongs to a formal parameter.
+     */
+    private boolean isParameter(int slot) {
+        for (int parameterSlot : procedure.parameterSlots) {
+            if (parameterSlot == slot) return true;
+        }
+        return false;
+    }
+
+    // ------------------------ class file
+
+    /**
+     * Assembles the class file.
+     *
+     * @param className The internal name of the class.
+     * @return The bytes of the class file.
+     */
+    private byte[] classFile(String className) {
+        if (code.length > 65535 || nextVar > 65535 || code.maxStack > 65535)
+            throw new Uncompilable("procedure too large");
+        int thisClass = pool.classRef(className);
+        int superClass = pool.classRef(COMPILED);
+        int codeName = pool.utf8("Code");
+        int initName = pool.utf8("<init>");
+        int initType = pool.utf8("([L" + PROCEDURE + ";)V");
+        int superInit = pool.method(COMPILED, "<init>", "([L" + PROCEDURE + ";)V");
+        int runName = pool.utf8("run");
+        int runType = pool.utf8("(L" + INTERPRETER + ";[D)V");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0030);  // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);  // interfaces
+            out.writeShort(0);  // fields
+            out.writeShort(2);  // methods
+
+            // CompiledProcedure$n(ProcedureNode[] callees) { super(callees); }
+            byte[] init = { 42, 43, (byte) INVOKESPECIAL,
+                            (byte) (superInit >> 8), (byte) superInit, (byte) RETURN };
+            writeMethod(out, initName, initType, codeName, 2, 2, init, init.length);
+            writeMethod(out, runName, runType, codeName, code.maxStack, nextVar,
+                        code.bytes, code.length);
+            out.writeShort(0);  // attributes
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            // a ByteArrayOutputStream does not throw it
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes one package-private method with its Code attribute.
+     */
+    private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+                                    int maxStack, int maxLocals, byte[] bytecode, int length)
+            throws IOException {
+        out.writeShort(0);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(bytecode, 0, length);
+        out.writeShort(0);  // exception table
+        out.writeShort(0);  // attributes
+    }
+
+    /**
+     * A position in the generated code, which may be the target of jumps
+     * generated before it is placed.
+     */
+    private static final class Label {
+        int position = -1;
+        List<int[]> fixups = new ArrayList<int[]>();
+    }
+
+    /**
+     * The bytecode of the method being generated, with a running count
+     * of the operand stack size.
+     */
+    private static final class Code {
+        byte[] bytes = new byte[256];
+        int length;
+        int stack;
+        int maxStack;
+
+        void u1(int value) {
+            if (length == bytes.length) {
+                byte[] bigger = new byte[2 * length];
+                System.arraycopy(bytes, 0, bigger, 0, length);
+                bytes = bigger;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void op(int opcode, int stackChange) {
+            u1(opcode);
+            adjust(stackChange);
+        }
+
+        void adjust(int stackChange) {
+            stack += stackChange;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        void jump(int opcode, Label target, int stackChange) {
+            int instruction = length;
+            op(opcode, stackChange);
+            if (target.position >= 0) {
+                branchOffset(target.position - instruction);
+            }
+            else {
+                target.fixups.add(new int[] { instruction, length });
+                u2(0);
+            }
+        }
+
+        void place(Label label) {
+            label.position = length;
+            for (int[] fixup : label.fixups) {
+                int offset = length - fixup[0];
+                checkOffset(offset);
+                bytes[fixup[1]] = (byte) (offset >> 8);
+                bytes[fixup[1] + 1] = (byte) offset;
+            }
+        }
+
+        private void branchOffset(int offset) {
+            checkOffset(offset);
+            u2(offset);
+        }
+
+        private static void checkOffset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                throw new Uncompilable("branch too long");
+        }
+    }
+
+    /**
+     * The constant pool of the class being generated. Entries are shared.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<String, Integer>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = entries.get("U" + value);
+            if (index != null) return index;
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            }
+            catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return add("U" + value, 1);
+        }
+
+        int classRef(String internalName) {
+            return reference("C" + internalName, 7, utf8(internalName), -1);
+        }
+
+        int string(String value) {
+            return reference("S" + value, 8, utf8(value), -1);
+        }
+
+        int integer(int value) {
+            Integer index = entries.get("I" + value);
+            if (index != null) return index;
+            try {
+                out.writeByte(3);
+                out.writeInt(value);
+            }
+            catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return add("I" + value, 1);
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            Integer index = entries.get("D" + bits);
+            if (index != null) return index;
+            try {
+                out.writeByte(6);
+                out.writeLong(bits);
+            }
+            catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return add("D" + bits, 2);
+        }
+
+        int field(String owner, String name, String descriptor) {
+            return member(9, owner, name, descriptor);
+        }
+
+        int method(String owner, String name, String descriptor) {
+            return member(10, owner, name, descriptor);
+        }
+
+        private int member(int tag, String owner, String name, String descriptor) {
+            int nameAndType = reference("N" + name + " " + descriptor, 12, utf8(name), utf8(descriptor));
+            return reference(tag + owner + "." + name + " " + descriptor, tag, classRef(owner), nameAndType);
+        }
+
+        private int reference(String key, int tag, int first, int second) {
+            Integer index = entries.get(key);
+            if (index != null) return index;
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if (second >= 0) out.writeShort(second);
+            }
+            catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return add(key, 1);
+        }
+
+        private int add(String key, int size) {
+            int index = count;
+            entries.put(key, index);
+            count += size;
+            if (count > 65535) throw new Uncompilable("too many constants");
+            return index;
+        }
+
+        void write(DataOutputStream classFile) throws IOException {
+            classFile.writeShort(count);
+            bytes.writeTo(classFile);
+        }
+    }
+}
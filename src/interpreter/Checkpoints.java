@@ -0,0 +1,200 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tokenizer.Token;
+import tokenizer.TokenType;
+import tree.Tree;
+
+/**
+ * The checkpoints taken while a program was rerun (see
+ * <code>Interpreter.rerun</code>), together with the program itself, so
+ * that the next version of the program can resume from the last
+ * checkpoint before its first change.
+ * <p>
+ * A checkpoint is taken between two top-level commands. A top-level
+ * command has changed if its text differs from the command at the same
+ * position in the previous version, or if it calls, directly or
+ * indirectly, a procedure whose definition differs.
+ */
+final class Checkpoints {
+    private final Tree<Token> program;
+    private final List<Tree<Token>> commands = new ArrayList<Tree<Token>>();
+    private final Map<String, Tree<Token>> definitions = new HashMap<String, Tree<Token>>();
+    private final List<Checkpoint> taken = new ArrayList<Checkpoint>();
+    private int width;
+    private int height;
+    private int endCount = -1;
+
+    /**
+     * The state of the interpreter just before a top-level command.
+     */
+    static final class Checkpoint {
+        /** The index of the next top-level command. */
+        final int index;
+        final double x, y, heading;
+        final boolean penDown;
+        final TurtleCommand color;
+        final double[] globals;
+        final boolean[] globalDefined;
+        /** How many commands the render target held. */
+        final int commandCount;
+
+        Checkpoint(int index, Turtle turtle, double[] globals, boolean[] globalDefined, int commandCount) {
+            this.index = index;
+            x = turtle.getCanvasX();
+            y = turtle.getCanvasY();
+            heading = turtle.getHeading();
+            penDown = turtle.isPenDown();
+            color = turtle.getColor();
+            this.globals = globals.clone();
+            this.globalDefined = globalDefined.clone();
+            this.commandCount = commandCount;
+        }
+    }
+
+    /**
+     * Prepares to run a program with checkpoints.
+     *
+     * @param program The parse tree of the program.
+     * @param target Where the program draws.
+     */
+    // the Tree constructor takes its children as generic varargs, so even
+    // a tree made without children makes an unchecked generic array
+    @SuppressWarnings("unchecked")
+    Checkpoints(Tree<Token> program, RenderTarget target) {
+        Tree<Token> main = program.child(0);
+        for (int i = 0; i < main.numberOfChildren(); i++) {
+            commands.add(main.child(i));
+        }
+        Tree<Token> procedures = program.child(1);
+        for (int i = 0; i < procedures.numberOfChildren(); i++) {
+            Tree<Token> definition = procedures.child(i);
+            definitions.put(definition.child(0).child(0).getValue().getValue(), definition);
+        }
+        width = target.getCanvasWidth();
+        height = target.getCanvasHeight();
+
+        // each top-level command in a block of its own, so that the
+        // optimizer keeps whatever it makes of a command with that command
+        Tree<Token> blocks = new Tree<Token>(new Token(TokenType.NAME, "block"));
+        for (Tree<Token> command : commands) {
+            blocks.addChild(new Tree<Token>(new Token(TokenType.NAME, "block"), command));
+        }
+        this.program = new Tree<Token>(program.getValue(), blocks, procedures);
+    }
+
+    /**
+     * Returns the program with each top-level command wrapped in a block,
+     * so that the compiled main block has one statement per command.
+     *
+     * @return The program to be optimized and compiled.
+     */
+    Tree<Token> getProgram() {
+        return program;
+    }
+
+    /**
+     * Returns the number of top-level commands.
+     *
+     * @return The number of commands.
+     */
+    int size() {
+        return commands.size();
+    }
+
+    /**
+     * Remembers a checkpoint.
+     *
+     * @param checkpoint The state before a top-level command.
+     */
+    void add(Checkpoint checkpoint) {
+        taken.add(checkpoint);
+    }
+
+    /**
+     * Records how many commands the render target held when the run
+     * ended, however it ended.
+     *
+     * @param count The number of commands.
+     */
+    void finish(int count) {
+        endCount = count;
+    }
+
+    /**
+     * Finds where an edited version of the program can resume, and gives
+     * it the checkpoints up to that point. Nothing can be resumed if the
+     * render target has been cleared, drawn on or resized since this run.
+     *
+     * @param edited The checkpoints of the edited version, not yet run.
+     * @param target Where both versions draw.
+     * @return The last checkpoint before the first changed command, or
+     *         <code>null</code> if the edited version must start afresh.
+     */
+    Checkpoint resume(Checkpoints edited, RenderTarget target) {
+        if (target.getCommandCount() != endCount || target.getCanvasWidth() != width
+                || target.getCanvasHeight() != height) {
+            return null;
+        }
+        int first = firstChange(edited);
+        Checkpoint resumed = null;
+        for (Checkpoint checkpoint : taken) {
+            if (checkpoint.index > first) break;
+            edited.add(checkpoint);
+            resumed = checkpoint;
+        }
+        return resumed;
+    }
+
+    /**
+     * Returns the index of the first top-level command of the edited
+     * version that must be run again.
+     */
+    private int firstChange(Checkpoints edited) {
+        Set<String> changed = new HashSet<String>();
+        Set<String> names = new HashSet<String>(definitions.keySet());
+        names.addAll(edited.definitions.keySet());
+        for (String name : names) {
+            Tree<Token> before = definitions.get(name);
+            if (before == null || !before.equals(edited.definitions.get(name))) changed.add(name);
+        }
+        boolean grew = !changed.isEmpty();
+        while (grew) {
+            grew = false;
+            for (Map.Entry<String, Tree<Token>> definition : edited.definitions.entrySet()) {
+                if (!changed.contains(definition.getKey()) && calls(definition.getValue(), changed)) {
+                    changed.add(definition.getKey());
+                    grew = true;
+                }
+            }
+        }
+        int common = Math.min(commands.size(), edited.commands.size());
+        for (int i = 0; i < common; i++) {
+            Tree<Token> command = edited.commands.get(i);
+            if (!command.equals(commands.get(i)) || calls(command, changed)) return i;
+        }
+        return common;
+    }
+
+    /**
+     * Tells whether a statement calls or spawns any of the named procedures.
+     */
+    private static boolean calls(Tree<Token> node, Set<String> names) {
+        if (names.isEmpty()) return false;
+        String command = node.getValue().getValue();
+        if (("do".equals(command) || "spawn".equals(command)) && node.numberOfChildren() == 2
+                && names.contains(node.child(0).getValue().getValue())) {
+            return true;
+        }
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            if (calls(node.child(i), names)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+package interpreter;
+
+import interpreter.Node.ProcedureNode;
+
+/**
+ * Superclass of the JVM classes generated by the <code>BytecodeCompiler</code>
+ * for hot procedures. A generated subclass runs the procedure body directly
+ * against the Turtle, keeping parameters and locals in JVM local variables.
+ * The helpers here keep the generated code small.
+ */
+abstract class CompiledProcedure {
+    /** The procedures called by this one, indexed by call site. */
+    final ProcedureNode[] callees;
+
+    /**
+     * Creates a compiled procedure.
+     *
+     * @param callees The procedures this procedure calls.
+     */
+    CompiledProcedure(ProcedureNode[] callees) {
+        this.callees = callees;
+    }
+
+    /**
+     * Executes the procedure body.
+     *
+     * @param interpreter The interpreter running the program.
+     * @param frame The activation record, holding the actual parameters.
+     */
+    abstract void run(Interpreter interpreter, double[] frame);
+
+    /**
+     * Throws a RuntimeException containing a message.
+     *
+     * @param message The message to be displayed.
+     */
+    static void fail(String message) {
+        throw new RuntimeException(message);
+    }
+
+    /**
+     * Reports division by zero.
+     */
+    static void divideByZero() {
+        throw new RuntimeException("Divided by 0!");
+    }
+
+    /**
+     * Combines three color components into one color number.
+     *
+     * @param r The red component.
+     * @param g The green component.
+     * @param b The blue component.
+     * @return The numeric value of the color.
+     */
+    static int rgb(int r, int g, int b) {
+        if (r > 255 || r < 0 || g > 255 || g < 0 || b > 255 || b < 0)
+            throw new RuntimeException("Input color is out of range!");
+        return (r << 16) + (g << 8) + b;
+    }
+}
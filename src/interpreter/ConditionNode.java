@@ -0,0 +1,65 @@
+package interpreter;
+
+/**
+ * An executable form of a Logo condition: two expressions and one of the
+ * comparators <code>=</code>, <code>&lt;</code> or <code>&gt;</code>.
+ */
+abstract class ConditionNode {
+    final ExpressionNode left;
+    final ExpressionNode right;
+
+    ConditionNode(ExpressionNode left, ExpressionNode right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Evaluates this condition.
+     *
+     * @param interpreter The interpreter supplying variables and the turtle.
+     * @return The value (true or false) of the condition.
+     */
+    abstract boolean test(Interpreter interpreter);
+
+    /**
+     * The <code>=</code> comparator.
+     */
+    static final class EqualNode extends ConditionNode {
+        EqualNode(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Interpreter interpreter) {
+            return left.evaluate(interpreter) == right.evaluate(interpreter);
+        }
+    }
+
+    /**
+     * The <code>&lt;</code> comparator.
+     */
+    static final class LessNode extends ConditionNode {
+        LessNode(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Interpreter interpreter) {
+            return left.evaluate(interpreter) < right.evaluate(interpreter);
+        }
+    }
+
+    /**
+     * The <code>&gt;</code> comparator.
+     */
+    static final class GreaterNode extends ConditionNode {
+        GreaterNode(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        boolean test(Interpreter interpreter) {
+            return left.evaluate(interpreter) > right.evaluate(interpreter);
+        }
+    }
+}
@@ -0,0 +1,772 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact list of drawing commands. Rather than one object per command,
+ * it keeps a byte of opcode per command, the coordinates of the lines in
+ * arrays of doubles, and the colors as indexes into a palette of the
+ * distinct colors used; other commands, which are rare, are kept as they
+ * are. The arrays grow a chunk at a time, so that nothing is ever copied.
+ * <p>
+ * A line that starts where the previous one ended only stores its end, so
+ * a turtle drawing a path costs 17 bytes per segment. The coordinates are
+ * kept as doubles, so the commands read back are exactly those added.
+ * <p>
+ * The chunks are normally on the heap. A display list given a spill
+ * directory maps them from a file there instead (see
+ * <code>SpillFile</code>), so that drawings of hundreds of millions of
+ * lines need little heap. The directory is taken from the system
+ * property <code>logo.spill</code> unless it is given explicitly.
+ * <p>
+ * One thread may add commands while others read those already added,
+ * without locking. A command is published by increasing the size, which
+ * is volatile, after everything it stored was written; the chunks, the
+ * palette and the other commands are only ever written past the end of
+ * what was published, and an array of them that fills up is replaced by a
+ * larger copy. So a reader that takes the size first, and reads no
+ * further (as <code>draw</code> and <code>addTo</code> do), sees those
+ * commands whole however many are being added. Everything else, such as
+ * <code>truncate</code>, <code>clear</code> and <code>copy</code>, must
+ * not overlap any other use of the list; its owner synchronizes them.
+ */
+final class DisplayList {
+    /** A line given by both its ends. */
+    private static final byte LINE = 0;
+    /** A line from the end of the previous line. */
+    private static final byte LINE_TO = 1;
+    /** A change of color, given by its index in the palette. */
+    private static final byte COLOR = 2;
+    /** Any other command, given by its index in the list of others. */
+    private static final byte OTHER = 3;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    /** The system property naming the default spill directory. */
+    static final String SPILL_PROPERTY = "logo.spill";
+
+    private final Path spillDirectory;
+    private SpillFile spill;
+    private final AppendList<ByteBuffer> opcodes = new AppendList<ByteBuffer>();
+    private final AppendList<DoubleBuffer> coordinates = new AppendList<DoubleBuffer>();
+    private final AppendList<IntBuffer> arguments = new AppendList<IntBuffer>();
+    /** Chunks of the spill file dropped by truncate, to be used again. */
+    private final ArrayDeque<ByteBuffer> freeOpcodes = new ArrayDeque<ByteBuffer>();
+    private final ArrayDeque<DoubleBuffer> freeCoordinates = new ArrayDeque<DoubleBuffer>();
+    private final ArrayDeque<IntBuffer> freeArguments = new ArrayDeque<IntBuffer>();
+    /**
+     * For each chunk of opcodes, where it starts in the coordinates and
+     * arguments, and how many lines and other commands come before it.
+     */
+    private volatile long[] chunkStarts = new long[4 * 16];
+    private final AppendList<Color> palette = new AppendList<Color>();
+    private final Map<Integer, Integer> paletteIndex = new HashMap<Integer, Integer>();
+    private final AppendList<TurtleCommand> others = new AppendList<TurtleCommand>();
+    /** The number of commands published to readers. */
+    private volatile int size;
+    private long coordinateCount;
+    private int argumentCount;
+    private int lineCount;
+    private boolean atLineEnd;
+    private double endX, endY;
+
+    /**
+     * A position in a display list, from which the commands after it can
+     * be drawn. It also remembers the last line drawn before it, and, when
+     * it has been moved by <code>addTo</code>, the pen color.
+     */
+    static final class Cursor implements Cloneable {
+        int index;
+        long coordinate;
+        int argument;
+        double x1, y1, x2, y2;
+        boolean afterLine;
+        Color color = Color.BLACK;
+
+        @Override
+        public Cursor clone() {
+            try {
+                return (Cursor) super.clone();
+            }
+            catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Something that takes the lines of a display list, each with the pen
+     * color it is drawn in.
+     */
+    interface LineSink {
+        /**
+         * Takes a line.
+         *
+         * @param x1 The x-coordinate of the start of the line.
+         * @param y1 The y-coordinate of the start of the line.
+         * @param x2 The x-coordinate of the end of the line.
+         * @param y2 The y-coordinate of the end of the line.
+         * @param color The color of the line.
+         */
+        void add(double x1, double y1, double x2, double y2, Color color);
+    }
+
+    /**
+     * A list that one thread adds to while others read the items counted
+     * in the size of the display list. Items are only written past the
+     * end, and a full array is replaced by a larger copy, so a reader
+     * always finds the items published before it took the size.
+     */
+    private static final class AppendList<T> {
+        private volatile Object[] items = new Object[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int index) {
+            return (T) items[index];
+        }
+
+        void add(T item) {
+            Object[] array = items;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, 2 * size);
+                array[size] = item;
+                items = array;
+            }
+            else {
+                array[size] = item;
+            }
+            size++;
+        }
+
+        /**
+         * Forgets the items after the first few.
+         */
+        void truncate(int count) {
+            if (count >= size) return;
+            Arrays.fill(items, count, size, null);
+            size = count;
+        }
+    }
+
+    /**
+     * Creates an empty display list on the heap.
+     */
+    DisplayList() {
+        this(null);
+    }
+
+    /**
+     * Creates an empty display list.
+     *
+     * @param spillDirectory The directory of the file holding the list,
+     *        or <code>null</code> to keep the list on the heap.
+     */
+    DisplayList(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Returns the spill directory named by the <code>logo.spill</code>
+     * system property.
+     *
+     * @return The directory, or <code>null</code> if none is set.
+     */
+    static Path defaultSpillDirectory() {
+        String directory = System.getProperty(SPILL_PROPERTY);
+        return directory == null || directory.isEmpty() ? null : Paths.get(directory);
+    }
+
+    /**
+     * Returns the file holding the list, if it is not on the heap.
+     *
+     * @return The spill file, or <code>null</code>.
+     */
+    SpillFile getSpillFile() {
+        return spill;
+    }
+
+    /**
+     * Returns the number of commands in the list.
+     *
+     * @return The number of commands.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of lines in the list.
+     *
+     * @return The number of line commands.
+     */
+    int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Adds a command to the end of the list.
+     *
+     * @param command The command.
+     */
+    void add(TurtleCommand command) {
+        if (command instanceof DrawLineCommand) {
+            DrawLineCommand line = (DrawLineCommand) command;
+            addLine(line.x1, line.y1, line.x2, line.y2);
+        }
+        else if (command instanceof ColorCommand) {
+            addColor(((ColorCommand) command).color);
+        }
+        else {
+            addOpcode(OTHER);
+            addArgument(others.size());
+            others.add(command);
+            size++;
+        }
+    }
+
+    /**
+     * Adds a line to the end of the list.
+     *
+     * @param x1 The x-coordinate of the start of the line.
+     * @param y1 The y-coordinate of the start of the line.
+     * @param x2 The x-coordinate of the end of the line.
+     * @param y2 The y-coordinate of the end of the line.
+     */
+    void addLine(double x1, double y1, double x2, double y2) {
+        if (atLineEnd && x1 == endX && y1 == endY) {
+            addOpcode(LINE_TO);
+        }
+        else {
+            addOpcode(LINE);
+            addCoordinate(x1);
+            addCoordinate(y1);
+        }
+        addCoordinate(x2);
+        addCoordinate(y2);
+        atLineEnd = true;
+        endX = x2;
+        endY = y2;
+        lineCount++;
+        size++;
+    }
+
+    /**
+     * Adds a change of color to the end of the list.
+     *
+     * @param color The new color.
+     */
+    void addColor(Color color) {
+        Integer index = paletteIndex.get(color.getRGB());
+        if (index == null) {
+            index = palette.size();
+            palette.add(color);
+            paletteIndex.put(color.getRGB(), index);
+        }
+        addOpcode(COLOR);
+        addArgument(index);
+        size++;
+    }
+
+    /**
+     * Forgets every command.
+     */
+    void clear() {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        freeOpcodes.clear();
+        freeCoordinates.clear();
+        freeArguments.clear();
+        size = 0;
+        opcodes.truncate(0);
+        coordinates.truncate(0);
+        arguments.truncate(0);
+        others.truncate(0);
+        palette.truncate(0);
+        paletteIndex.clear();
+        coordinateCount = 0;
+        argumentCount = 0;
+        lineCount = 0;
+        atLineEnd = false;
+    }
+
+    /**
+     * Gives back the file holding the list, if it is not on the heap,
+     * leaving the list as it is. The list must not be read afterwards; but
+     * it may still be added to, by a thread that has not yet seen that it
+     * was dropped, and what is added then is kept on the heap.
+     */
+    void close() {
+        SpillFile file = spill;
+        if (file != null) file.close();
+    }
+
+    /**
+     * Forgets the commands after the first few.
+     *
+     * @param count How many commands to keep.
+     */
+    void truncate(int count) {
+        if (count >= size) return;
+        Cursor cursor = seek(count);
+        int chunk = count >> CHUNK_BITS;
+        int lines = (int) chunkStarts[4 * chunk + 2];
+        int kept = (int) chunkStarts[4 * chunk + 3];
+        for (int i = chunk << CHUNK_BITS; i < count; i++) {
+            byte opcode = opcode(i);
+            if (opcode == LINE || opcode == LINE_TO) lines++;
+            else if (opcode == OTHER) kept++;
+        }
+        size = count;
+        coordinateCount = cursor.coordinate;
+        argumentCount = cursor.argument;
+        lineCount = lines;
+        others.truncate(kept);
+        atLineEnd = count > 0 && (opcode(count - 1) == LINE || opcode(count - 1) == LINE_TO);
+        endX = cursor.x2;
+        endY = cursor.y2;
+        dropChunks(opcodes, (count + CHUNK_MASK) >> CHUNK_BITS, freeOpcodes);
+        dropChunks(coordinates, (int) ((coordinateCount + CHUNK_MASK) >> CHUNK_BITS), freeCoordinates);
+        dropChunks(arguments, (argumentCount + CHUNK_MASK) >> CHUNK_BITS, freeArguments);
+    }
+
+    /**
+     * Forgets the chunks after the first few. Those from the spill file are
+     * kept to be used again, since the file never shrinks.
+     *
+     * @param chunks The chunks of opcodes, coordinates or arguments.
+     * @param count How many chunks to keep.
+     * @param free The chunks of the same kind waiting to be used again.
+     */
+    private <T> void dropChunks(AppendList<T> chunks, int count, ArrayDeque<T> free) {
+        if (spill != null) {
+            for (int i = count; i < chunks.size(); i++) {
+                free.add(chunks.get(i));
+            }
+        }
+        chunks.truncate(count);
+    }
+
+    /**
+     * Returns a cursor at the given command, found by starting from the
+     * beginning of its chunk.
+     *
+     * @param index The number of commands before the cursor.
+     * @return The cursor.
+     */
+    Cursor seek(int index) {
+        Cursor cursor = new Cursor();
+        int chunk = Math.min(index, size - 1) >> CHUNK_BITS;
+        if (chunk > 0) {
+            // start from the chunk, then find the line before it if there is one
+            cursor.index = chunk << CHUNK_BITS;
+            cursor.coordinate = chunkStarts[4 * chunk];
+            cursor.argument = (int) chunkStarts[4 * chunk + 1];
+            findLastLine(cursor);
+        }
+        while (cursor.index < index) step(cursor);
+        return cursor;
+    }
+
+    /**
+     * Draws the commands from a cursor up to a given command, and moves
+     * the cursor there. Each chain of lines between changes of color is
+     * drawn as one polyline.
+     *
+     * @param g The graphics on which to draw.
+     * @param cursor Where to start; moved to where drawing stopped.
+     * @param end The number of commands after which to stop.
+     */
+    void draw(Graphics g, Cursor cursor, int end) {
+        draw(g, cursor, end, 1);
+    }
+
+    /**
+     * Draws the commands from a cursor up to a given command enlarged or
+     * shrunk, and moves the cursor there. The ends of the lines are
+     * scaled before they are rounded to whole pixels; other commands are
+     * drawn on a scaled copy of the Graphics.
+     *
+     * @param g The graphics on which to draw.
+     * @param cursor Where to start; moved to where drawing stopped.
+     * @param end The number of commands after which to stop.
+     * @param scale How many pixels of the Graphics a pixel of the drawing
+     *        covers.
+     */
+    void draw(Graphics g, Cursor cursor, int end, double scale) {
+        end = Math.min(end, size);
+        int index = cursor.index;
+        long coordinate = cursor.coordinate;
+        int argument = cursor.argument;
+        double x1 = cursor.x1, y1 = cursor.y1, x2 = cursor.x2, y2 = cursor.y2;
+        boolean afterLine = cursor.afterLine;
+        Polyline polyline = new Polyline(g);
+        while (index < end) {
+            ByteBuffer ops = opcodes.get(index >> CHUNK_BITS);
+            int stop = Math.min(end, ((index >> CHUNK_BITS) + 1) << CHUNK_BITS);
+            for (; index < stop; index++) {
+                switch (ops.get(index & CHUNK_MASK)) {
+                case LINE :
+                    x1 = coordinate(coordinate++);
+                    y1 = coordinate(coordinate++);
+                    x2 = coordinate(coordinate++);
+                    y2 = coordinate(coordinate++);
+                    polyline.add((int) (x1 * scale), (int) (y1 * scale), (int) (x2 * scale), (int) (y2 * scale));
+                    afterLine = true;
+                    break;
+                case LINE_TO :
+                    x1 = x2;
+                    y1 = y2;
+                    x2 = coordinate(coordinate++);
+                    y2 = coordinate(coordinate++);
+                    polyline.add((int) (x1 * scale), (int) (y1 * scale), (int) (x2 * scale), (int) (y2 * scale));
+                    afterLine = true;
+                    break;
+                case COLOR :
+                    polyline.flush();
+                    g.setColor(palette.get(argument(argument++)));
+                    break;
+                default :
+                    polyline.flush();
+                    TurtleCommand other = others.get(argument(argument++));
+                    if (scale == 1) {
+                        other.execute(g);
+                    }
+                    else {
+                        Graphics2D scaled = (Graphics2D) g.create();
+                        scaled.scale(scale, scale);
+                        other.execute(scaled);
+                        g.setColor(scaled.getColor());
+                        scaled.dispose();
+                    }
+                    break;
+                }
+            }
+        }
+        polyline.flush();
+        cursor.index = index;
+        cursor.coordinate = coordinate;
+        cursor.argument = argument;
+        cursor.x1 = x1;
+        cursor.y1 = y1;
+        cursor.x2 = x2;
+        cursor.y2 = y2;
+        cursor.afterLine = afterLine;
+    }
+
+    /**
+     * Tells whether the list holds commands other than lines and changes
+     * of color.
+     *
+     * @return <code>true</code> if there are other commands.
+     */
+    boolean hasOthers() {
+        return others.size() > 0;
+    }
+
+    /**
+     * Gives the lines from a cursor up to a given command to a sink, such
+     * as a spatial index, each with the pen color it is drawn in, and
+     * moves the cursor there. Other commands are skipped.
+     *
+     * @param sink What takes the lines.
+     * @param cursor Where to start, with the pen color there; moved to
+     *        where it stopped, with the pen color then.
+     * @param end The number of commands after which to stop.
+     */
+    void addTo(LineSink sink, Cursor cursor, int end) {
+        end = Math.min(end, size);
+        while (cursor.index < end) {
+            byte opcode = step(cursor);
+            if (opcode == LINE || opcode == LINE_TO) {
+                sink.add(cursor.x1, cursor.y1, cursor.x2, cursor.y2, cursor.color);
+            }
+            else if (opcode == COLOR) {
+                cursor.color = palette.get(argument(cursor.argument - 1));
+            }
+        }
+    }
+
+    /**
+     * Returns the commands as objects, as they were added.
+     *
+     * @param from The index of the first command.
+     * @param to The index after the last command.
+     * @return A new list of the commands.
+     */
+    List<TurtleCommand> toCommands(int from, int to) {
+        List<TurtleCommand> commands = new ArrayList<TurtleCommand>(Math.max(0, to - from));
+        Cursor cursor = seek(from);
+        while (cursor.index < to) {
+            byte opcode = step(cursor);
+            if (opcode == LINE || opcode == LINE_TO) {
+                commands.add(new DrawLineCommand(cursor.x1, cursor.y1, cursor.x2, cursor.y2));
+            }
+            else if (opcode == COLOR) {
+                commands.add(new ColorCommand(palette.get(argument(cursor.argument - 1)).getRGB() & 0xFFFFFF));
+            }
+            else {
+                commands.add(others.get(argument(cursor.argument - 1)));
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Adds the first commands of another list to the end of this one, as
+     * they were added to it, without making an object for any line.
+     *
+     * @param list The commands to add; the first <code>end</code> of them
+     *        must not be changing.
+     * @param end How many of the commands to add.
+     * @return The color chosen by the last change of color added, or
+     *         <code>null</code> if there was none.
+     */
+    Color addAll(DisplayList list, int end) {
+        Cursor cursor = new Cursor();
+        Color color = null;
+        end = Math.min(end, list.size);
+        while (cursor.index < end) {
+            byte opcode = list.step(cursor);
+            if (opcode == LINE || opcode == LINE_TO) {
+                addLine(cursor.x1, cursor.y1, cursor.x2, cursor.y2);
+            }
+            else if (opcode == COLOR) {
+                color = list.palette.get(list.argument(cursor.argument - 1));
+                addColor(color);
+            }
+            else {
+                add(list.others.get(list.argument(cursor.argument - 1)));
+            }
+        }
+        return color;
+    }
+
+    /**
+     * Adds the commands of this list to a render target, as they were
+     * added to this list, without making an object for any line.
+     *
+     * @param target Where to add the commands.
+     * @return The color chosen by the last change of color added, or
+     *         <code>null</code> if there was none.
+     */
+    Color addTo(RenderTarget target) {
+        Cursor cursor = new Cursor();
+        Color color = null;
+        int end = size;
+        while (cursor.index < end) {
+            byte opcode = step(cursor);
+            if (opcode == LINE || opcode == LINE_TO) {
+                target.addLine(cursor.x1, cursor.y1, cursor.x2, cursor.y2);
+            }
+            else if (opcode == COLOR) {
+                color = palette.get(argument(cursor.argument - 1));
+                target.addCommand(new ColorCommand(color.getRGB() & 0xFFFFFF));
+            }
+            else {
+                target.addCommand(others.get(argument(cursor.argument - 1)));
+            }
+        }
+        return color;
+    }
+
+    /**
+     * Returns a copy of this list, which does not change when this one
+     * does. The copy is kept where this list is.
+     *
+     * @return The copy.
+     */
+    DisplayList copy() {
+        DisplayList copy = new DisplayList(spillDirectory);
+        // chunks are otherwise only read and written at absolute indexes;
+        // the bulk copies start from, and leave, every position at zero
+        for (int i = 0; i < opcodes.size(); i++) {
+            ByteBuffer source = opcodes.get(i).duplicate();
+            source.rewind();
+            ByteBuffer chunk = copy.opcodeChunk();
+            chunk.put(source).rewind();
+            copy.opcodes.add(chunk);
+        }
+        for (int i = 0; i < coordinates.size(); i++) {
+            DoubleBuffer source = coordinates.get(i).duplicate();
+            source.rewind();
+            DoubleBuffer chunk = copy.coordinateChunk();
+            chunk.put(source).rewind();
+            copy.coordinates.add(chunk);
+        }
+        for (int i = 0; i < arguments.size(); i++) {
+            IntBuffer source = arguments.get(i).duplicate();
+            source.rewind();
+            IntBuffer chunk = copy.argumentChunk();
+            chunk.put(source).rewind();
+            copy.arguments.add(chunk);
+        }
+        copy.chunkStarts = chunkStarts.clone();
+        for (int i = 0; i < palette.size(); i++) {
+            copy.palette.add(palette.get(i));
+        }
+        copy.paletteIndex.putAll(paletteIndex);
+        for (int i = 0; i < others.size(); i++) {
+            copy.others.add(others.get(i));
+        }
+        copy.size = size;
+        copy.coordinateCount = coordinateCount;
+        copy.argumentCount = argumentCount;
+        copy.lineCount = lineCount;
+        copy.atLineEnd = atLineEnd;
+        copy.endX = endX;
+        copy.endY = endY;
+        return copy;
+    }
+
+    // ------------------------ private helper methods
+
+    /**
+     * Moves a cursor past one command, without drawing it.
+     *
+     * @return The opcode of the command.
+     */
+    private byte step(Cursor cursor) {
+        byte opcode = opcode(cursor.index++);
+        switch (opcode) {
+        case LINE :
+            cursor.x1 = coordinate(cursor.coordinate++);
+            cursor.y1 = coordinate(cursor.coordinate++);
+            cursor.x2 = coordinate(cursor.coordinate++);
+            cursor.y2 = coordinate(cursor.coordinate++);
+            cursor.afterLine = true;
+            break;
+        case LINE_TO :
+            cursor.x1 = cursor.x2;
+            cursor.y1 = cursor.y2;
+            cursor.x2 = coordinate(cursor.coordinate++);
+            cursor.y2 = coordinate(cursor.coordinate++);
+            cursor.afterLine = true;
+            break;
+        default :
+            cursor.argument++;
+            break;
+        }
+        return opcode;
+    }
+
+    /**
+     * Sets the last line of a cursor placed at the start of a chunk, by
+     * looking back for the last line before it. The coordinates of a line
+     * are the last ones stored before the cursor's; whether the line was
+     * stored with its start or not, the four coordinates before those end
+     * with its start, since a line is only shortened when it follows
+     * another line.
+     */
+    private void findLastLine(Cursor cursor) {
+        for (int i = cursor.index - 1; i >= 0; i--) {
+            byte opcode = opcode(i);
+            if (opcode == LINE_TO || opcode == LINE) {
+                long coordinate = cursor.coordinate;
+                cursor.x1 = coordinate(coordinate - 4);
+                cursor.y1 = coordinate(coordinate - 3);
+                cursor.x2 = coordinate(coordinate - 2);
+                cursor.y2 = coordinate(coordinate - 1);
+                cursor.afterLine = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a new chunk of opcodes, from the heap, or from the spill file
+     * preferring one dropped by truncate; likewise for the next two methods.
+     */
+    private ByteBuffer opcodeChunk() {
+        if (spillDirectory == null) return ByteBuffer.allocate(CHUNK_SIZE);
+        if (!freeOpcodes.isEmpty()) return freeOpcodes.poll();
+        return spill().allocate(CHUNK_SIZE);
+    }
+
+    private DoubleBuffer coordinateChunk() {
+        if (spillDirectory == null) return DoubleBuffer.allocate(CHUNK_SIZE);
+        if (!freeCoordinates.isEmpty()) return freeCoordinates.poll();
+        return spill().allocate(8 * CHUNK_SIZE).asDoubleBuffer();
+    }
+
+    private IntBuffer argumentChunk() {
+        if (spillDirectory == null) return IntBuffer.allocate(CHUNK_SIZE);
+        if (!freeArguments.isEmpty()) return freeArguments.poll();
+        return spill().allocate(4 * CHUNK_SIZE).asIntBuffer();
+    }
+
+    private SpillFile spill() {
+        if (spill == null) spill = new SpillFile(spillDirectory);
+        return spill;
+    }
+
+    /**
+     * Stores the opcode of the next command; the command is published when
+     * the size is increased, after its arguments are stored too.
+     */
+    private void addOpcode(byte opcode) {
+        int index = size;
+        int offset = index & CHUNK_MASK;
+        if (offset == 0) {
+            int chunk = index >> CHUNK_BITS;
+            if (chunk == opcodes.size()) opcodes.add(opcodeChunk());
+            long[] starts = chunkStarts;
+            if (4 * chunk + 3 >= starts.length) {
+                starts = Arrays.copyOf(starts, 2 * starts.length);
+            }
+            starts[4 * chunk] = coordinateCount;
+            starts[4 * chunk + 1] = argumentCount;
+            starts[4 * chunk + 2] = lineCount;
+            starts[4 * chunk + 3] = others.size();
+            chunkStarts = starts;
+        }
+        opcodes.get(index >> CHUNK_BITS).put(offset, opcode);
+        if (opcode != LINE && opcode != LINE_TO) atLineEnd = false;
+    }
+
+    private void addCoordinate(double value) {
+        int chunk = (int) (coordinateCount >> CHUNK_BITS);
+        if (chunk == coordinates.size()) coordinates.add(coordinateChunk());
+        coordinates.get(chunk).put((int) (coordinateCount & CHUNK_MASK), value);
+        coordinateCount++;
+    }
+
+    private void addArgument(int value) {
+        int chunk = argumentCount >> CHUNK_BITS;
+        if (chunk == arguments.size()) arguments.add(argumentChunk());
+        arguments.get(chunk).put(argumentCount & CHUNK_MASK, value);
+        argumentCount++;
+    }
+
+    private byte opcode(int index) {
+        return opcodes.get(index >> CHUNK_BITS).get(index & CHUNK_MASK);
+    }
+
+    private double coordinate(long index) {
+        return coordinates.get((int) (index >> CHUNK_BITS)).get((int) (index & CHUNK_MASK));
+    }
+
+    private int argument(int index) {
+        return arguments.get(index >> CHUNK_BITS).get(index & CHUNK_MASK);
+    }
+}
@@ -0,0 +1,108 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the DisplayList and SpillFile.
+ */
+public class DisplayListTest {
+    /**
+     * Test method for {@link interpreter.DisplayList#truncate(int)}.
+     */
+    @Test
+    public void testDisplayList() {
+        List<TurtleCommand> commands = new ArrayList<TurtleCommand>();
+        double x = 0, y = 0;
+        for (int i = 0; i < 150000; i++) {
+            if (i % 1000 == 0) commands.add(new ColorCommand(i));
+            double nextX = x + i % 7, nextY = y - i % 5;
+            if (i % 333 == 0) x += 1;
+            commands.add(new DrawLineCommand(x, y, nextX, nextY));
+            x = nextX;
+            y = nextY;
+        }
+        DisplayList list = new DisplayList();
+        for (TurtleCommand command : commands) {
+            list.add(command);
+        }
+        int[] counts = { 150150, 65536, 65537, 131071, 70000, 1, 0 };
+        for (int count : counts) {
+            list.truncate(count);
+            for (TurtleCommand command : commands.subList(list.size(), count)) {
+                list.add(command);
+            }
+            assertEquals(count, list.size());
+            List<TurtleCommand> read = list.toCommands(0, count);
+            int lines = 0;
+            for (int i = 0; i < count; i++) {
+                TurtleCommand expected = commands.get(i);
+                if (expected instanceof DrawLineCommand) {
+                    DrawLineCommand line = (DrawLineCommand) read.get(i);
+                    assertEquals(((DrawLineCommand) expected).x1, line.x1, 0.0);
+                    assertEquals(((DrawLineCommand) expected).y1, line.y1, 0.0);
+                    assertEquals(((DrawLineCommand) expected).x2, line.x2, 0.0);
+                    assertEquals(((DrawLineCommand) expected).y2, line.y2, 0.0);
+                    lines++;
+                }
+                else {
+                    assertEquals(((ColorCommand) expected).color, ((ColorCommand) read.get(i)).color);
+                }
+            }
+            assertEquals(lines, list.getLineCount());
+        }
+    }
+
+    /**
+     * Test method for {@link interpreter.SpillFile}.
+     */
+    @Test
+    public void testSpilledDisplayList() throws IOException {
+        Path directory = Files.createTempDirectory("spill");
+        try {
+            DisplayList list = new DisplayList(directory);
+            for (int i = 0; i < 200000; i++) {
+                if (i % 5000 == 0) list.add(new ColorCommand(i));
+                list.addLine(i, i % 600, i + 1, (i + 1) % 600);
+            }
+            assertNotNull(list.getSpillFile());
+            // a rerun after truncating reuses the space it dropped
+            long used = list.getSpillFile().getUsed();
+            list.truncate(100000);
+            for (int i = 100000; i < 200000; i++) {
+                if (i % 5000 == 0) list.add(new ColorCommand(i));
+                list.addLine(i, i % 600, i + 1, (i + 1) % 600);
+            }
+            assertEquals(used, list.getSpillFile().getUsed());
+            assertEquals(200020, list.size());
+            list.truncate(100000);
+            list.addLine(-1, -2, -3, -4);
+            // a copy of a copy has all the commands too
+            DisplayList first = list.copy();
+            DisplayList copy = first.copy();
+            first.clear();
+            assertEquals(100001, copy.size());
+            assertEquals(99981, copy.getLineCount());
+            ColorCommand color = (ColorCommand) copy.toCommands(19 * 5001, 19 * 5001 + 1).get(0);
+            assertEquals(19 * 5000, color.color.getRGB() & 0xFFFFFF);
+            List<TurtleCommand> read = copy.toCommands(99999, 100001);
+            assertEquals(99979.0, ((DrawLineCommand) read.get(0)).x1, 0.0);
+            assertEquals(-3.0, ((DrawLineCommand) read.get(1)).x2, 0.0);
+            Path file = list.getSpillFile().getPath();
+            list.clear();
+            copy.clear();
+            assertFalse(Files.exists(file));
+            assertNull(list.getSpillFile());
+        }
+        finally {
+            Files.delete(directory);
+        }
+    }
+}
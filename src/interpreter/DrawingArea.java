@@ -1,23 +1,137 @@
 package interpreter;
 
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
 import javax.swing.JPanel;
 
 /**
  * Executes (and remembers) all the various drawing commands
- * that have been issued.
+ * that have been issued. This is the render target used by the GUI.
+ * <p>
+ * The commands are drawn on an offscreen image, and a repaint only draws
+ * those added since the last one (see <code>TileRasterizer</code>), at
+ * most one frame's worth (see <code>FrameScheduler</code>). An enlarged,
+ * shrunk or moved drawing is drawn from a spatial index instead (see
+ * <code>Viewport</code>).
+ * <p>
+ * The interpreter adds commands without taking the lock of this panel
+ * (see <code>DisplayList</code>); clearing replaces the list rather than
+ * emptying it. Lists that threads are still reading in the background
+ * are closed only once they finish.
  * 
  * @author David Matuszek
  * @version March 30, 2009
  */
-public class DrawingArea extends JPanel {
+public class DrawingArea extends JPanel implements RenderTarget {
     private static final long serialVersionUID = 1L;
-    private ArrayList<TurtleCommand> turtleCommands = new ArrayList<TurtleCommand>();
-    private int turtleX1, turtleY1;
-    private int turtleX2, turtleY2;
-    private int turtleX3, turtleY3;
+    private volatile DisplayList turtleCommands = new DisplayList(DisplayList.defaultSpillDirectory());
+    private volatile TurtlePose turtlePose;
+    private Timeline timeline;
+    private Thread timelineBuilder;
+    /** How many threads are reading the display list without the lock. */
+    private int readers;
+    /** The lists replaced while they were being read, to close later. */
+    private final Collection<DisplayList> retired = new ArrayList<DisplayList>();
+    private int step = -1;
+    private int revealed = Integer.MAX_VALUE;
+    private BufferedImage backing;
+    private Graphics2D backingGraphics;
+    private DisplayList.Cursor rendered;
+    private final Viewport viewport = new Viewport();
+    private DisplayList.Cursor requested;
+    private Rectangle turtleArea;
+    private final FrameScheduler frames;
+
+    private static final double GLYPH_COS = Math.cos(Math.toRadians(135));
+    private static final double GLYPH_SIN = Math.sin(Math.toRadians(135));
+
+    /**
+     * Where the turtle is and which way it faces, with the drawing it was
+     * in and how many commands there were when it got there.
+     */
+    private static final class TurtlePose {
+        final double x, y, headingX, headingY;
+        final DisplayList commands;
+        final int commandCount;
+
+        TurtlePose(double x, double y, double headingX, double headingY, DisplayList commands) {
+            this.x = x;
+            this.y = y;
+            this.headingX = headingX;
+            this.headingY = headingY;
+            this.commands = commands;
+            commandCount = commands.size();
+        }
+    }
+
+    /**
+     * Creates an empty drawing area, which can be zoomed with the mouse
+     * wheel and panned by dragging.
+     */
+    public DrawingArea() {
+        MouseAdapter mouse = new MouseAdapter() {
+            private int lastX, lastY;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                lastX = e.getX();
+                lastY = e.getY();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                pan(e.getX() - lastX, e.getY() - lastY);
+                lastX = e.getX();
+                lastY = e.getY();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) setViewport(0, 0, 1);
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoomAt(e.getX(), e.getY(), Math.pow(1.25, -e.getPreciseWheelRotation()));
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+        frames = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() {
+                repaintChanges();
+            }
+        });
+    }
+
+    /**
+     * Returns the current width of this panel.
+     * 
+     * @see interpreter.RenderTarget#getCanvasWidth()
+     */
+    @Override
+    public int getCanvasWidth() {
+        return getWidth();
+    }
+
+    /**
+     * Returns the current height of this panel.
+     * 
+     * @see interpreter.RenderTarget#getCanvasHeight()
+     */
+    @Override
+    public int getCanvasHeight() {
+        return getHeight();
+    }
 
     /**
      * Executes the list of commands that have been added to
@@ -27,21 +141,257 @@ public class DrawingArea extends JPanel {
      */
     @Override
     public synchronized void paint(Graphics g) {
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, getWidth(), getHeight());
-        g.setColor(Color.BLACK);
-        for (Iterator<TurtleCommand> iter = turtleCommands.iterator(); iter.hasNext();) {
-            TurtleCommand turtleCommand = iter.next();
-            turtleCommand.execute(g);
+        DisplayList commands = turtleCommands;
+        int size = commands.size();
+        if (timeline != null && step >= 0 && timeline.size() == size) {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.drawImage(timeline.imageAt(step), 0, 0, null);
+            turtleArea = null;
+            return;
+        }
+        int shown = Math.min(revealed, size);
+        TurtlePose turtle = turtleAfter(commands, shown);
+        if (!viewport.isOwnSize()) {
+            DisplayList.Cursor indexed = viewport.paint(g, commands, shown, getWidth(), getHeight(),
+                                                        FrameScheduler.FRAME_BUDGET);
+            if (indexed.index < shown) frames.schedule();
+            showTurtle(g, indexed, shown, turtle);
+            return;
+        }
+        if (backing == null || backing.getWidth() != Math.max(1, getWidth())
+                || backing.getHeight() != Math.max(1, getHeight()) || rendered == null
+                || shown < rendered.index) {
+            resetBacking();
+        }
+        int end = Math.min(shown, rendered.index + FrameScheduler.FRAME_BUDGET);
+        if (TileRasterizer.isWorthwhile(end - rendered.index)) {
+            backingGraphics.setColor(TileRasterizer.draw(commands, backing, backingGraphics.getColor(),
+                                                         rendered, end));
+        }
+        else {
+            commands.draw(backingGraphics, rendered, end);
         }
-        showTurtle(g);
+        g.drawImage(backing, 0, 0, null);
+        if (rendered.index < shown) frames.schedule();
+        showTurtle(g, rendered, shown, turtle);
     }
-    
+
+    /**
+     * Takes note that a thread has finished reading the display list
+     * without the lock, and closes the lists replaced while it read, if
+     * no other thread is reading.
+     */
+    private synchronized void stopReading() {
+        readers--;
+        if (readers > 0) return;
+        for (DisplayList list : retired) {
+            list.close();
+        }
+        retired.clear();
+    }
+
     /**
-     * Clears the list of commands and erases the canvas.
+     * Closes a display list that has been replaced, or keeps it to close
+     * once no thread is reading without the lock.
      */
+    private void retire(DisplayList list) {
+        if (readers > 0) retired.add(list);
+        else list.close();
+    }
+
+    /**
+     * Repaints the part of the panel that has changed.
+     */
+    private synchronized void repaintChanges() {
+        repaint(changedArea());
+    }
+
+    /**
+     * Returns the part of the panel that the next repaint changes, and
+     * takes note that it has been asked for: the bounds of the lines that
+     * have been revealed since it was last asked for, as far as the next
+     * repaint draws, and of where the turtle was drawn and will be. The
+     * whole panel is returned when everything is drawn again, or when the
+     * drawing is enlarged, moved or shown from a timeline.
+     * 
+     * @return The area to repaint.
+     */
+    synchronized Rectangle changedArea() {
+        DisplayList commands = turtleCommands;
+        int shown = Math.min(revealed, commands.size());
+        Rectangle whole = new Rectangle(0, 0, getWidth(), getHeight());
+        if (rendered == null || shown < rendered.index || !viewport.isOwnSize()
+                || timeline != null && step >= 0) {
+            requested = null;
+            return whole;
+        }
+        if (requested == null || requested.index > shown) {
+            requested = rendered.clone();
+        }
+        else if (requested.index < rendered.index - FrameScheduler.FRAME_BUDGET) {
+            // too much has been drawn unseen to be worth finding
+            requested = rendered.clone();
+            return whole;
+        }
+        Bounds bounds = new Bounds();
+        commands.addTo(bounds, requested, Math.min(shown, rendered.index + FrameScheduler.FRAME_BUDGET));
+        if (turtleArea != null) bounds.add(turtleArea);
+        TurtlePose turtle = turtleAfter(commands, requested.index);
+        if (turtle != null) {
+            bounds.add(turtle.x - 12, turtle.y - 12, turtle.x + 12, turtle.y + 12, null);
+        }
+        else if (requested.afterLine) {
+            bounds.add(requested.x2 - 12, requested.y2 - 12, requested.x2 + 12, requested.y2 + 12, null);
+        }
+        return bounds.toRectangle().intersection(whole);
+    }
+
+    /**
+     * The bounds of the lines given to it, in whole pixels.
+     */
+    private static final class Bounds implements DisplayList.LineSink {
+        private int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        private int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+
+        @Override
+        public void add(double x1, double y1, double x2, double y2, Color color) {
+            left = Math.min(left, Math.min((int) x1, (int) x2));
+            top = Math.min(top, Math.min((int) y1, (int) y2));
+            right = Math.max(right, Math.max((int) x1, (int) x2));
+            bottom = Math.max(bottom, Math.max((int) y1, (int) y2));
+        }
+
+        void add(Rectangle area) {
+            add(area.x, area.y, area.x + area.width - 1, area.y + area.height - 1, null);
+        }
+
+        /**
+         * Returns the bounds, a pixel wider all round, or an empty
+         * rectangle if nothing was added.
+         */
+        Rectangle toRectangle() {
+            if (left > right) return new Rectangle();
+            return new Rectangle(left - 1, top - 1, right - left + 3, bottom - top + 3);
+        }
+    }
+
+    /**
+     * Returns where the turtle is, if it said so when there were just the
+     * commands shown.
+     * 
+     * @param commands The commands.
+     * @param shown How many commands are shown.
+     * @return Where the turtle is, or <code>null</code> if it is not known.
+     */
+    private TurtlePose turtleAfter(DisplayList commands, int shown) {
+        TurtlePose turtle = turtlePose;
+        if (turtle == null || turtle.commands != commands || turtle.commandCount != shown) return null;
+        return turtle;
+    }
+
+    /**
+     * Sets which part of the drawing is shown.
+     * 
+     * @param left The canvas x-coordinate shown at the left edge.
+     * @param top The canvas y-coordinate shown at the top edge.
+     * @param zoom How many screen pixels a canvas pixel covers, from
+     *        <code>Viewport.MIN_ZOOM</code> to <code>Viewport.MAX_ZOOM</code>;
+     *        1 is the drawing at its own size.
+     */
+    public synchronized void setViewport(double left, double top, double zoom) {
+        viewport.set(left, top, zoom);
+        repaint();
+    }
+
+    /**
+     * Moves the drawing on the screen.
+     * 
+     * @param dx How far to move it right, in screen pixels.
+     * @param dy How far to move it down, in screen pixels.
+     */
+    synchronized void pan(int dx, int dy) {
+        viewport.pan(dx, dy);
+        repaint();
+    }
+
+    /**
+     * Enlarges or shrinks the drawing, keeping the point under the given
+     * screen position where it is. Coming back to its own size shows it
+     * whole.
+     * 
+     * @param x The screen x-coordinate of the fixed point.
+     * @param y The screen y-coordinate of the fixed point.
+     * @param factor How much to enlarge the drawing.
+     */
+    synchronized void zoomAt(int x, int y, double factor) {
+        viewport.zoomAt(x, y, factor);
+        repaint();
+    }
+
+    /**
+     * Erases the offscreen image, making a new one if the panel has
+     * changed size, so that every command is drawn on it again.
+     */
+    private void resetBacking() {
+        int width = Math.max(1, getWidth());
+        int height = Math.max(1, getHeight());
+        if (backing == null || backing.getWidth() != width || backing.getHeight() != height) {
+            if (backingGraphics != null) backingGraphics.dispose();
+            backing = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            backingGraphics = backing.createGraphics();
+        }
+        backingGraphics.setColor(Color.WHITE);
+        backingGraphics.fillRect(0, 0, width, height);
+        backingGraphics.setColor(Color.BLACK);
+        backingGraphics.setFont(getFont());
+        rendered = new DisplayList.Cursor();
+    }
+
+    /**
+     * Writes the part of the drawing revealed so far to a PNG file,
+     * enlarged or shrunk, a strip at a time (see <code>PngExport</code>),
+     * without the turtle. The panel is not held up while the file is
+     * written, and the drawing may change meanwhile: what is written is
+     * the drawing as it was when this was called.
+     * 
+     * @param file The file to write.
+     * @param scale How many pixels of the image a pixel of the panel
+     *        covers.
+     * @throws IOException If the file cannot be written.
+     */
+    public void exportPng(Path file, double scale) throws IOException {
+        DisplayList commands;
+        int shown;
+        synchronized (this) {
+            commands = turtleCommands;
+            shown = Math.min(revealed, commands.size());
+            readers++;
+        }
+        try {
+            PngExport.write(commands, shown, Math.max(1, getWidth()), Math.max(1, getHeight()), scale, file);
+        }
+        finally {
+            stopReading();
+        }
+    }
+
+    /**
+     * Clears the list of commands and erases the canvas. A new list takes
+     * the place of the old one, which the interpreter may still be adding
+     * to.
+     */
+    @Override
     public synchronized void clear() {
-        turtleCommands.clear();
+        requested = null;
+        DisplayList old = turtleCommands;
+        turtleCommands = new DisplayList(DisplayList.defaultSpillDirectory());
+        retire(old);
+        turtlePose = null;
+        timeline = null;
+        timelineBuilder = null;
+        rendered = null;
+        viewport.clear();
         repaint();
     }
     
@@ -51,43 +401,207 @@ public class DrawingArea extends JPanel {
      * 
      * @param turtleCommand The command to be remembered.
      */
-    public synchronized void addCommand(TurtleCommand turtleCommand) {
+    @Override
+    public void addCommand(TurtleCommand turtleCommand) {
         turtleCommands.add(turtleCommand);
     }
 
     /**
-     * Defines the points of a triangle representing the current
-     * location and direction of the turtle.
+     * Adds several commands at once, in order, to the list of commands.
+     * 
+     * @param commands The commands to be remembered.
+     */
+    @Override
+    public void addCommands(Collection<TurtleCommand> commands) {
+        DisplayList list = turtleCommands;
+        for (TurtleCommand command : commands) {
+            list.add(command);
+        }
+    }
+
+    /**
+     * Adds a line to the list of commands, without making a command
+     * for it.
+     * 
+     * @see interpreter.RenderTarget#addLine(double, double, double, double)
+     */
+    @Override
+    public void addLine(double x1, double y1, double x2, double y2) {
+        turtleCommands.addLine(x1, y1, x2, y2);
+    }
+
+    /**
+     * Returns how many commands are in the list of commands.
+     * 
+     * @see interpreter.RenderTarget#getCommandCount()
+     */
+    @Override
+    public int getCommandCount() {
+        return turtleCommands.size();
+    }
+
+    /**
+     * Removes all but the first few commands from the list of commands,
+     * and erases what they drew.
+     * 
+     * @see interpreter.RenderTarget#truncate(int)
+     */
+    @Override
+    public synchronized void truncate(int count) {
+        if (readers > 0 && count < turtleCommands.size()) {
+            DisplayList old = turtleCommands;
+            DisplayList kept = new DisplayList(DisplayList.defaultSpillDirectory());
+            kept.addAll(old, count);
+            turtleCommands = kept;
+            retire(old);
+        }
+        else {
+            turtleCommands.truncate(count);
+        }
+        turtlePose = null;
+        requested = null;
+        timeline = null;
+        timelineBuilder = null;
+        if (rendered != null && count < rendered.index) rendered = null;
+        viewport.truncate(count);
+        repaint();
+    }
+
+    /**
+     * Limits how many of the commands are drawn, so that a drawing can be
+     * revealed a little at a time while (or after) it is made. Until the
+     * whole drawing is revealed, or while the turtle has not said where it
+     * is since the drawing last grew, the turtle is shown at the end of
+     * the last line drawn.
+     * 
+     * @param count The number of commands to draw; any number at least as
+     *        large as the number of commands shows them all.
+     */
+    public synchronized void setRevealed(int count) {
+        revealed = count;
+        frames.schedule();
+    }
+
+    /**
+     * Shows the drawing as it was after the given number of commands,
+     * without the turtle. The first step shown since the drawing changed
+     * starts building a timeline of it (see <code>Timeline</code>); until
+     * the timeline is ready, and for a negative step, the whole drawing
+     * is shown as usual.
+     * 
+     * @param step The number of commands to show.
+     */
+    public synchronized void showStep(int step) {
+        this.step = step;
+        if (step >= 0 && timelineBuilder == null
+                && (timeline == null || timeline.size() != turtleCommands.size())) {
+            buildTimeline();
+        }
+        repaint();
+    }
+
+    /**
+     * Starts building a timeline of the drawing as it is now, on another
+     * thread, so that painting is not held up. The commands are read
+     * where they are rather than copied; the timeline is dropped if
+     * commands are removed while it is built.
+     */
+    private void buildTimeline() {
+        final DisplayList commands = turtleCommands;
+        final int size = commands.size();
+        final int width = getWidth();
+        final int height = getHeight();
+        readers++;
+        timelineBuilder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Timeline built = null;
+                try {
+                    built = new Timeline(commands, size, width, height);
+                }
+                finally {
+                    synchronized (DrawingArea.this) {
+                        stopReading();
+                        if (timelineBuilder == Thread.currentThread()) {
+                            timelineBuilder = null;
+                            timeline = built;
+                            repaint();
+                        }
+                    }
+                }
+            }
+        }, "Timeline");
+        timelineBuilder.setDaemon(true);
+        timelineBuilder.start();
+    }
+
+    /**
+     * Takes note of where the turtle is, without taking the lock; the
+     * triangle showing it is only worked out when it is painted.
+     * 
+     * @see interpreter.RenderTarget#setTurtlePose(double, double, double, double)
+     */
+    @Override
+    public void setTurtlePose(double x, double y, double headingX, double headingY) {
+        turtlePose = new TurtlePose(x, y, headingX, headingY, turtleCommands);
+    }
+
+    /**
+     * Draws the turtle where it is, if it said so after the last command
+     * drawn, or else at the end of the last line drawn, and notes where
+     * it was drawn.
      * 
-     * @param x1 The x-coordinate of the first point of the triangle.
-     * @param y1 The y-coordinate of the first point of the triangle.
-     * @param x2 The x-coordinate of the second point of the triangle.
-     * @param y2 The y-coordinate of the second point of the triangle.
-     * @param x3 The x-coordinate of the third point of the triangle.
-     * @param y3 The y-coordinate of the third point of the triangle.
+     * @param g The Graphics on which to draw the triangle.
+     * @param drawn Where drawing stopped.
+     * @param shown How many commands are to be shown.
+     * @param turtle Where the turtle is after them, or <code>null</code>.
      */
-    public synchronized void setTurtleData(int x1, int y1, int x2, int y2, int x3, int y3) {
-        turtleX1 = x1;
-        turtleY1 = y1;
-        turtleX2 = x2;
-        turtleY2 = y2;
-        turtleX3 = x3;
-        turtleY3 = y3;
+    private void showTurtle(Graphics g, DisplayList.Cursor drawn, int shown, TurtlePose turtle) {
+        turtleArea = null;
+        if (turtle != null && drawn.index == shown) {
+            showTurtleAt(g, turtle.x, turtle.y, turtle.headingX, turtle.headingY);
+        }
+        else if (drawn.afterLine) {
+            double dx = drawn.x2 - drawn.x1;
+            double dy = drawn.y2 - drawn.y1;
+            double length = Math.sqrt(dx * dx + dy * dy);
+            if (length > 0) showTurtleAt(g, drawn.x2, drawn.y2, dx / length, dy / length);
+        }
     }
 
     /**
-     * Draws a triangle to represent the current position of this
-     * Turtle. The triangle does <i>not</i> go into the DrawingCanvas's
-     * list of commands.
+     * Draws a triangle to represent the turtle, worked out from where it
+     * is and which way it faces by rotating the heading vector. The
+     * triangle does <i>not</i> go into the list of commands.
      * 
      * @param g The Graphics on which to draw the triangle.
+     * @param x The x-coordinate of the turtle.
+     * @param y The y-coordinate of the turtle.
+     * @param headingX The x-component of the unit vector it faces.
+     * @param headingY The y-component of the unit vector it faces.
      */
-    private synchronized void showTurtle(Graphics g) {
+    private void showTurtleAt(Graphics g, double x, double y, double headingX, double headingY) {
         Color savedColor = g.getColor();
         g.setColor(Color.GRAY);
-        g.drawLine(turtleX1, turtleY1, turtleX2, turtleY2);
-        g.drawLine(turtleX2, turtleY2, turtleX3, turtleY3);
-        g.drawLine(turtleX3, turtleY3, turtleX1, turtleY1);
-        g.setColor(savedColor);  
+        int x1 = viewport.screenX(x + 12 * headingX);
+        int y1 = viewport.screenY(y + 12 * headingY);
+        int x2 = viewport.screenX(x + 6 * (headingX * GLYPH_COS - headingY * GLYPH_SIN));
+        int y2 = viewport.screenY(y + 6 * (headingX * GLYPH_SIN + headingY * GLYPH_COS));
+        int x3 = viewport.screenX(x + 6 * (headingX * GLYPH_COS + headingY * GLYPH_SIN));
+        int y3 = viewport.screenY(y + 6 * (headingY * GLYPH_COS - headingX * GLYPH_SIN));
+        showTriangle(g, x1, y1, x2, y2, x3, y3);
+        g.setColor(savedColor);
+    }
+
+    /**
+     * Draws the outline of the turtle's triangle, and notes where it is.
+     */
+    private void showTriangle(Graphics g, int x1, int y1, int x2, int y2, int x3, int y3) {
+        g.drawLine(x1, y1, x2, y2);
+        g.drawLine(x2, y2, x3, y3);
+        g.drawLine(x3, y3, x1, y1);
+        int left = Math.min(x1, Math.min(x2, x3)), top = Math.min(y1, Math.min(y2, y3));
+        turtleArea = new Rectangle(left, top, Math.max(x1, Math.max(x2, x3)) - left + 1,
+                                   Math.max(y1, Math.max(y2, y3)) - top + 1);
     }
 }
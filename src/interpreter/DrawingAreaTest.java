@@ -0,0 +1,252 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the DrawingArea.
+ */
+public class DrawingAreaTest {
+    /**
+     * Test method for {@link interpreter.DrawingArea#paint(java.awt.Graphics)}.
+     */
+    @Test
+    public void testIncrementalPaint() {
+        MemoryRenderTarget target = new MemoryRenderTarget(120, 90);
+        DrawingFixtures.run("repeat 200 {\nred\nforward 30\nright 91\nblue\nforward 20\nleft 37\n}\n", target);
+        List<TurtleCommand> drawn = target.getCommands();
+        DrawingArea canvas = new DrawingArea();
+        canvas.setSize(120, 90);
+        int[] counts = { 10, 11, 400, 800, 300, 0, 800 };
+        int shown = 0;
+        for (int count : counts) {
+            if (count < shown) canvas.truncate(count);
+            else canvas.addCommands(drawn.subList(shown, count));
+            shown = count;
+            canvas.setTurtlePose(-20, -20, 1, 0);
+            MemoryRenderTarget expected = new MemoryRenderTarget(120, 90);
+            expected.addCommands(drawn.subList(0, count));
+            assertSameImage(expected, canvas);
+        }
+    }
+
+    /**
+     * Test method for {@link interpreter.DrawingArea#setTurtlePose(double, double, double, double)}.
+     */
+    @Test
+    public void testTurtlePose() {
+        DrawingArea canvas = new DrawingArea();
+        canvas.setSize(120, 90);
+        Turtle turtle = new Turtle(canvas);
+        turtle.forward(20);
+        turtle.penup();
+        turtle.forward(30);
+        turtle.left(90);
+        // shown where the turtle is, facing up, not at the end of the line
+        BufferedImage image = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+        assertEquals(Color.GRAY.getRGB(), image.getRGB(110, 33));
+        for (int x = 0; x < 100; x++) {
+            for (int y = 0; y < 90; y++) {
+                assertTrue(image.getRGB(x, y) != Color.GRAY.getRGB());
+            }
+        }
+        MemoryRenderTarget target = new MemoryRenderTarget(120, 90);
+        turtle = new Turtle(target);
+        turtle.right(90);
+        double[] pose = target.getTurtlePose();
+        assertEquals(60, pose[0], 0.0);
+        assertEquals(45, pose[1], 0.0);
+        assertEquals(0, pose[2], 0.0);
+        assertEquals(1, pose[3], 0.0);
+    }
+
+    /**
+     * Test method for {@link interpreter.DrawingArea#changedArea()}.
+     */
+    @Test
+    public void testChangedArea() {
+        MemoryRenderTarget target = new MemoryRenderTarget(120, 90);
+        DrawingFixtures.run("repeat 200 {\nred\nforward 30\nright 91\nblue\nforward 20\nleft 37\n}\n", target);
+        List<TurtleCommand> drawn = target.getCommands();
+        DrawingArea canvas = new DrawingArea();
+        canvas.setSize(120, 90);
+        canvas.addCommands(drawn.subList(0, 400));
+        assertEquals(new Rectangle(0, 0, 120, 90), canvas.changedArea());
+        BufferedImage before = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = before.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+
+        // a repaint changes nothing outside the area asked for
+        int[] counts = { 401, 404, 450, 800 };
+        int shown = 400;
+        for (int count : counts) {
+            canvas.addCommands(drawn.subList(shown, count));
+            shown = count;
+            Rectangle area = canvas.changedArea();
+            if (count < 410) assertTrue(area.width * area.height < 120 * 90 / 4);
+            BufferedImage after = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+            g = after.createGraphics();
+            canvas.paint(g);
+            g.dispose();
+            for (int x = 0; x < 120; x++) {
+                for (int y = 0; y < 90; y++) {
+                    assertTrue(before.getRGB(x, y) == after.getRGB(x, y) || area.contains(x, y));
+                }
+            }
+            before = after;
+        }
+
+        // and draws no more than a frame's worth of commands
+        canvas = new DrawingArea();
+        canvas.setSize(120, 90);
+        for (int i = 0; i < FrameScheduler.FRAME_BUDGET; i++) {
+            canvas.addLine(10, 10, 11, 10);
+        }
+        canvas.addLine(10, 50, 100, 50);
+        canvas.setTurtlePose(-20, -20, 1, 0);
+        BufferedImage image = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+        canvas.paint(g);
+        assertEquals(Color.WHITE.getRGB(), image.getRGB(50, 50));
+        canvas.paint(g);
+        assertEquals(Color.BLACK.getRGB(), image.getRGB(50, 50));
+        g.dispose();
+    }
+
+    /**
+     * Test method for {@link interpreter.DrawingArea#setViewport(double, double, double)}.
+     */
+    @Test
+    public void testViewport() {
+        MemoryRenderTarget target = new MemoryRenderTarget(160, 120);
+        DrawingFixtures.run("repeat 300 {\nred\nforward 37\nright 83\nblue\nforward 11\nleft 29\n}\n", target);
+        DrawingArea canvas = new DrawingArea();
+        canvas.setSize(160, 120);
+        canvas.addCommands(target.getCommands());
+        canvas.setTurtlePose(-100, -100, 1, 0);
+        double left = 60.5, top = 45.25, zoom = 4;
+        canvas.setViewport(left, top, zoom);
+        BufferedImage actual = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = actual.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+
+        // every line, without culling, placed as the viewport places it
+        BufferedImage expected = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        g = expected.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 160, 120);
+        g.setColor(Color.BLACK);
+        for (TurtleCommand command : target.getCommands()) {
+            if (command instanceof DrawLineCommand) {
+                DrawLineCommand line = (DrawLineCommand) command;
+                g.drawLine((int) (((float) line.x1 - left) * zoom), (int) (((float) line.y1 - top) * zoom),
+                           (int) (((float) line.x2 - left) * zoom), (int) (((float) line.y2 - top) * zoom));
+            }
+            else {
+                command.execute(g);
+            }
+        }
+        g.dispose();
+        int drawn = 0;
+        for (int x = 0; x < 160; x++) {
+            for (int y = 0; y < 120; y++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                if (actual.getRGB(x, y) != Color.WHITE.getRGB()) drawn++;
+            }
+        }
+        assertTrue(drawn > 100);
+    }
+
+    /**
+     * Test method for {@link interpreter.DrawingArea#addCommand(TurtleCommand)}.
+     */
+    @Test
+    public void testDrawingWhilePainting() throws InterruptedException {
+        MemoryRenderTarget target = new MemoryRenderTarget(120, 90);
+        DrawingFixtures.run("repeat 3000 {\nred\nforward 30\nright 91\nblue\nforward 20\nleft 37\n}\n", target);
+        final List<TurtleCommand> drawn = target.getCommands();
+        final DrawingArea canvas = new DrawingArea();
+        canvas.setSize(120, 90);
+
+        // commands added while the canvas is painted all end up drawn
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (TurtleCommand command : drawn) {
+                    canvas.addCommand(command);
+                }
+            }
+        };
+        producer.start();
+        BufferedImage image = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        while (producer.isAlive()) {
+            canvas.paint(g);
+        }
+        g.dispose();
+        producer.join();
+        canvas.setTurtlePose(-20, -20, 1, 0);
+        assertSameImage(target, canvas);
+
+        // and adding them does not wait for a paint to finish
+        final CountDownLatch painting = new CountDownLatch(1);
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread painter = new Thread() {
+            @Override
+            public void run() {
+                synchronized (canvas) {
+                    painting.countDown();
+                    try {
+                        added.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e) {
+                        // let the test fail
+                    }
+                }
+            }
+        };
+        painter.start();
+        painting.await();
+        long start = System.nanoTime();
+        canvas.addCommands(drawn);
+        canvas.setTurtlePose(-20, -20, 1, 0);
+        assertEquals(2 * drawn.size(), canvas.getCommandCount());
+        assertTrue(System.nanoTime() - start < 5000000000L);
+        added.countDown();
+        painter.join();
+    }
+
+    /**
+     * Checks that a drawing area shows the same picture as a memory
+     * render target.
+     */
+    private static void assertSameImage(MemoryRenderTarget expected, DrawingArea actual) {
+        BufferedImage expectedImage = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = expectedImage.createGraphics();
+        expected.paint(g);
+        g.dispose();
+        BufferedImage actualImage = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+        g = actualImage.createGraphics();
+        actual.paint(g);
+        g.dispose();
+        for (int x = 0; x < 120; x++) {
+            for (int y = 0; y < 90; y++) {
+                assertEquals(expectedImage.getRGB(x, y), actualImage.getRGB(x, y));
+            }
+        }
+    }
+}
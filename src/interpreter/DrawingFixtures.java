@@ -0,0 +1,52 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import parser.Parser;
+
+/**
+ * Helpers shared by the tests of this package: running a program onto a
+ * render target, and looking at the pixels of what was drawn.
+ */
+final class DrawingFixtures {
+    private DrawingFixtures() {
+    }
+
+    /**
+     * Parses a program and interprets it with a new interpreter drawing
+     * on the given target.
+     *
+     * @param program The text of the Logo program.
+     * @param target Where the program draws.
+     * @return The interpreter, for its variables.
+     */
+    static Interpreter run(String program, RenderTarget target) {
+        Interpreter interpreter = new Interpreter(target);
+        interpreter.initialize();
+        Parser parser = new Parser(program);
+        if (!parser.isProgram()) throw new AssertionError("Not a program: " + program);
+        interpreter.interpret(parser.stack.peek());
+        return interpreter;
+    }
+
+    /**
+     * Tells whether a pixel of an image is not white.
+     */
+    static boolean isDrawn(BufferedImage image, int x, int y) {
+        return x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight()
+                && image.getRGB(x, y) != Color.WHITE.getRGB();
+    }
+
+    /**
+     * Tells whether a pixel of an image, or one next to it, is not white.
+     */
+    static boolean isDrawnNear(BufferedImage image, int x, int y) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                if (isDrawn(image, x + dx, y + dy)) return true;
+            }
+        }
+        return false;
+    }
+}
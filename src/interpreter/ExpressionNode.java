@@ -0,0 +1,203 @@
+package interpreter;
+
+/**
+ * An executable form of a Logo arithmetic expression. Every literal is
+ * decoded and every operator is resolved when the expression is compiled,
+ * so evaluating it never looks at a Token again.
+ */
+abstract class ExpressionNode {
+
+    /**
+     * Computes the value of this expression.
+     *
+     * @param interpreter The interpreter supplying variables and the turtle.
+     * @return The value of the expression.
+     */
+    abstract double evaluate(Interpreter interpreter);
+
+    /**
+     * A numeric literal, already converted to a double.
+     */
+    static final class NumberNode extends ExpressionNode {
+        final double value;
+
+        NumberNode(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return value;
+        }
+    }
+
+    /**
+     * A variable read at the top level of the program, or inside a
+     * procedure that never sets it: only the global slot can hold it.
+     */
+    static final class GlobalVariableNode extends ExpressionNode {
+        final String name;
+        final int slot;
+
+        GlobalVariableNode(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            if (!interpreter.globalDefined[slot]) interpreter.undefined(name);
+            return interpreter.globals[slot];
+        }
+    }
+
+    /**
+     * A procedure parameter. Parameters are always bound, so no check
+     * is needed.
+     */
+    static final class LocalVariableNode extends ExpressionNode {
+        final String name;
+        final int slot;
+
+        LocalVariableNode(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return interpreter.locals[slot];
+        }
+    }
+
+    /**
+     * A variable that a procedure sets but does not take as a parameter.
+     * It is local once the procedure has set it, and global until then.
+     */
+    static final class ScopedVariableNode extends ExpressionNode {
+        final String name;
+        final int localSlot;
+        final int globalSlot;
+
+        ScopedVariableNode(String name, int localSlot, int globalSlot) {
+            this.name = name;
+            this.localSlot = localSlot;
+            this.globalSlot = globalSlot;
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            if (interpreter.localDefined[localSlot]) return interpreter.locals[localSlot];
+            if (!interpreter.globalDefined[globalSlot]) interpreter.undefined(name);
+            return interpreter.globals[globalSlot];
+        }
+    }
+
+    /**
+     * The <code>getX</code> keyword.
+     */
+    static final class GetXNode extends ExpressionNode {
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return interpreter.getTurtle().getX();
+        }
+    }
+
+    /**
+     * The <code>getY</code> keyword.
+     */
+    static final class GetYNode extends ExpressionNode {
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return interpreter.getTurtle().getY();
+        }
+    }
+
+    /**
+     * Unary minus.
+     */
+    static final class NegateNode extends ExpressionNode {
+        final ExpressionNode operand;
+
+        NegateNode(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return -operand.evaluate(interpreter);
+        }
+    }
+
+    /**
+     * Superclass of the four arithmetic operators.
+     */
+    abstract static class BinaryOpNode extends ExpressionNode {
+        final ExpressionNode left;
+        final ExpressionNode right;
+
+        BinaryOpNode(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Addition.
+     */
+    static final class AddNode extends BinaryOpNode {
+        AddNode(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return left.evaluate(interpreter) + right.evaluate(interpreter);
+        }
+    }
+
+    /**
+     * Subtraction.
+     */
+    static final class SubtractNode extends BinaryOpNode {
+        SubtractNode(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return left.evaluate(interpreter) - right.evaluate(interpreter);
+        }
+    }
+
+    /**
+     * Multiplication.
+     */
+    static final class MultiplyNode extends BinaryOpNode {
+        MultiplyNode(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            return left.evaluate(interpreter) * right.evaluate(interpreter);
+        }
+    }
+
+    /**
+     * Division. The divisor is evaluated first, and only once; dividing
+     * by zero is an error.
+     */
+    static final class DivideNode extends BinaryOpNode {
+        DivideNode(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        double evaluate(Interpreter interpreter) {
+            double divisor = right.evaluate(interpreter);
+            if (divisor == 0.0) throw new RuntimeException("Divided by 0!");
+            return left.evaluate(interpreter) / divisor;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package interpreter;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
+
+/**
+ * Paces the repaints of a drawing that is still being revealed, so that
+ * it is repainted no more often than the screen is refreshed. A panel
+ * draws no more than <code>FRAME_BUDGET</code> commands in one repaint,
+ * and a repaint that falls short asks for another frame; so however fast
+ * the interpreter is, each frame costs the event thread about the same.
+ */
+final class FrameScheduler {
+    /** The most commands drawn in one repaint. */
+    static final int FRAME_BUDGET = 1 << 18;
+
+    private final Runnable frame;
+    private final Timer timer;
+    private final long frameNanos = 1000000000L / Playback.refreshRate();
+    private volatile long lastFrame;
+
+    /**
+     * Prepares to run frames.
+     *
+     * @param frame What to do once a frame, such as asking for a repaint;
+     *        it is run on the event dispatch thread, or on the thread
+     *        asking for a frame if one is already due.
+     */
+    FrameScheduler(Runnable frame) {
+        this.frame = frame;
+        timer = new Timer(0, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                runFrame();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Asks for a frame, straight away if a frame has passed since the last
+     * one, or else once it has. Asking again before then does nothing.
+     */
+    void schedule() {
+        if (timer.isRunning()) return;
+        long wait = lastFrame + frameNanos - System.nanoTime();
+        if (wait <= 0) {
+            runFrame();
+        }
+        else {
+            timer.setInitialDelay((int) (wait / 1000000) + 1);
+            timer.start();
+        }
+    }
+
+    private void runFrame() {
+        lastFrame = System.nanoTime();
+        frame.run();
+    }
+}
@@ -0,0 +1,361 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import interpreter.ExpressionNode.BinaryOpNode;
+import interpreter.ExpressionNode.LocalVariableNode;
+import interpreter.ExpressionNode.NegateNode;
+import interpreter.ExpressionNode.NumberNode;
+import interpreter.ExpressionNode.ScopedVariableNode;
+import interpreter.Node.BlockNode;
+import interpreter.Node.CallNode;
+import interpreter.Node.ColorNameNode;
+import interpreter.Node.ColorNode;
+import interpreter.Node.ErrorNode;
+import interpreter.Node.ForwardNode;
+import interpreter.Node.IfNode;
+import interpreter.Node.LeftNode;
+import interpreter.Node.LocalSetNode;
+import interpreter.Node.PenDownNode;
+import interpreter.Node.PenUpNode;
+import interpreter.Node.ProcedureNode;
+import interpreter.Node.RepeatNode;
+import interpreter.Node.RightNode;
+import interpreter.Node.ScopedSetNode;
+import interpreter.Node.WhileNode;
+
+/**
+ * Remembers what relative procedures draw, so that calling one again with
+ * the same arguments replays the drawing instead of executing the body.
+ * <p>
+ * A procedure is <em>relative</em> if everything it does depends only on
+ * its arguments and on where the turtle starts: it never reads
+ * <code>getX</code> or <code>getY</code>, never uses <code>home</code>,
+ * <code>jump</code> or <code>face</code>, never touches a global variable,
+ * and calls only relative procedures. Its drawing is recorded in the
+ * turtle's own frame of reference (origin at the starting position, x axis
+ * along the starting heading) together with the change of pose, and is
+ * replayed by rotating and translating it to the turtle's current pose.
+ * The pen state on entry is part of the key, and the pen state on exit is
+ * part of the drawing.
+ * <p>
+ * A variable that a procedure sets without declaring it refers to a global
+ * of the same name if one exists, so such procedures are only cached while
+ * none of those globals is defined. Drawings are evicted least recently
+ * used first once the cache exceeds its memory budget.
+ */
+class GeometryCache {
+
+    private final Interpreter interpreter;
+    private final long budget;
+    private final LinkedHashMap<Key, RelativeDrawing> drawings =
+            new LinkedHashMap<Key, RelativeDrawing>(16, 0.75f, true);
+    private long bytesInUse;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param interpreter The interpreter whose calls are cached.
+     * @param budget The most memory, in bytes, that drawings may use.
+     */
+    GeometryCache(Interpreter interpreter, long budget) {
+        this.interpreter = interpreter;
+        this.budget = budget;
+    }
+
+    /**
+     * Calls a relative procedure whose actual parameters are stored in the
+     * given activation record, replaying its drawing if it is cached and
+     * recording it otherwise.
+     *
+     * @param procedure The procedure being called.
+     * @param frame The activation record holding the actual parameters.
+     */
+    void call(ProcedureNode procedure, double[] frame) {
+        for (int slot : procedure.sharedGlobals) {
+            if (interpreter.globalDefined[slot]) {
+                interpreter.runProcedure(procedure);
+                return;
+            }
+        }
+        Turtle turtle = interpreter.getTurtle();
+        Key key = new Key(procedure, frame, turtle.isPenDown());
+        RelativeDrawing drawing = drawings.get(key);
+        if (drawing != null) {
+            hits++;
+            drawing.replay(turtle);
+            return;
+        }
+        misses++;
+        double x = turtle.getCanvasX();
+        double y = turtle.getCanvasY();
+        double heading = turtle.getHeading();
+        int start = turtle.startRecording();
+        try {
+            interpreter.runProcedure(procedure);
+            if (!interpreter.isStopped()) {
+                List<TurtleCommand> commands = turtle.getRecording();
+                drawing = new RelativeDrawing(commands.subList(start, commands.size()), x, y, heading, turtle);
+                store(key, drawing);
+            }
+        }
+        finally {
+            turtle.stopRecording();
+        }
+    }
+
+    /**
+     * Adds a drawing, evicting the least recently used ones if the budget
+     * is exceeded. A drawing larger than the whole budget is not kept.
+     *
+     * @param key The call that produced the drawing.
+     * @param drawing The drawing.
+     */
+    private void store(Key key, RelativeDrawing drawing) {
+        long bytes = drawing.bytes + 8L * key.arguments.length;
+        if (bytes > budget) return;
+        RelativeDrawing old = drawings.put(key, drawing);
+        if (old != null) bytesInUse -= old.bytes + 8L * key.arguments.length;
+        bytesInUse += bytes;
+        Iterator<Map.Entry<Key, RelativeDrawing>> eldest = drawings.entrySet().iterator();
+        while (bytesInUse > budget) {
+            Map.Entry<Key, RelativeDrawing> entry = eldest.next();
+            bytesInUse -= entry.getValue().bytes + 8L * entry.getKey().arguments.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Forgets all cached drawings, keeping the hit and miss counts.
+     */
+    void clear() {
+        drawings.clear();
+        bytesInUse = 0;
+    }
+
+    /**
+     * Returns how many calls were answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns how many cacheable calls had to be executed.
+     *
+     * @return The number of misses.
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the approximate memory used by the cached drawings.
+     *
+     * @return The number of bytes in use.
+     */
+    long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    /**
+     * Returns the number of cached drawings.
+     *
+     * @return The number of drawings.
+     */
+    int size() {
+        return drawings.size();
+    }
+
+    /**
+     * Decides which of a program's procedures are relative, and which
+     * globals each of them could reach through its undeclared variables.
+     * Procedures of earlier programs must already have been analyzed.
+     *
+     * @param procedures The procedures defined by the program.
+     */
+    static void analyze(Collection<ProcedureNode> procedures) {
+        Map<ProcedureNode, Set<Integer>> globals = new HashMap<ProcedureNode, Set<Integer>>();
+        Map<ProcedureNode, Set<ProcedureNode>> callees = new HashMap<ProcedureNode, Set<ProcedureNode>>();
+        for (ProcedureNode procedure : procedures) {
+            Set<Integer> slots = new HashSet<Integer>();
+            Set<ProcedureNode> called = new HashSet<ProcedureNode>();
+            procedure.relative = scan(procedure.body, slots, called);
+            globals.put(procedure, slots);
+            callees.put(procedure, called);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ProcedureNode procedure : procedures) {
+                for (ProcedureNode callee : callees.get(procedure)) {
+                    if (procedure.relative && !callee.relative) {
+                        procedure.relative = false;
+                        changed = true;
+                    }
+                    Set<Integer> reachable = globals.get(callee);
+                    if (reachable == null) {
+                        reachable = new HashSet<Integer>();
+                        for (int slot : callee.sharedGlobals) reachable.add(slot);
+                    }
+                    changed |= globals.get(procedure).addAll(reachable);
+                }
+            }
+        }
+        for (ProcedureNode procedure : procedures) {
+            int[] slots = new int[globals.get(procedure).size()];
+            int i = 0;
+            for (int slot : globals.get(procedure)) slots[i++] = slot;
+            procedure.sharedGlobals = slots;
+        }
+    }
+
+    /**
+     * Checks that a statement depends only on the turtle's relative pose
+     * and on local variables.
+     *
+     * @param node The statement to be checked.
+     * @param globals Collects the globals that undeclared variables could refer to.
+     * @param callees Collects the procedures called.
+     * @return Whether the statement is relative.
+     */
+    private static boolean scan(Node node, Set<Integer> globals, Set<ProcedureNode> callees) {
+        if (node instanceof BlockNode) {
+            for (Node statement : ((BlockNode) node).statements) {
+                if (!scan(statement, globals, callees)) return false;
+            }
+            return true;
+        }
+        if (node instanceof PenUpNode || node instanceof PenDownNode
+                || node instanceof ColorNameNode || node instanceof ErrorNode) {
+            return true;
+        }
+        if (node instanceof ForwardNode) {
+            return scan(((ForwardNode) node).distance, globals);
+        }
+        if (node instanceof LeftNode) {
+            return scan(((LeftNode) node).angle, globals);
+        }
+        if (node instanceof RightNode) {
+            return scan(((RightNode) node).angle, globals);
+        }
+        if (node instanceof LocalSetNode) {
+            return scan(((LocalSetNode) node).value, globals);
+        }
+        if (node instanceof ScopedSetNode) {
+            ScopedSetNode set = (ScopedSetNode) node;
+            globals.add(set.globalSlot);
+            return scan(set.value, globals);
+        }
+        if (node instanceof RepeatNode) {
+            RepeatNode repeat = (RepeatNode) node;
+            return scan(repeat.count, globals) && scan(repeat.body, globals, callees);
+        }
+        if (node instanceof WhileNode) {
+            WhileNode loop = (WhileNode) node;
+            return scan(loop.condition, globals) && scan(loop.body, globals, callees);
+        }
+        if (node instanceof IfNode) {
+            IfNode choice = (IfNode) node;
+            return scan(choice.condition, globals) && scan(choice.thenPart, globals, callees)
+                    && (choice.elsePart == null || scan(choice.elsePart, globals, callees));
+        }
+        if (node instanceof CallNode) {
+            CallNode call = (CallNode) node;
+            for (ExpressionNode argument : call.arguments) {
+                if (!scan(argument, globals)) return false;
+            }
+            callees.add(call.procedure);
+            return true;
+        }
+        if (node instanceof ColorNode) {
+            ColorNode color = (ColorNode) node;
+            return scan(color.red, globals) && scan(color.green, globals) && scan(color.blue, globals);
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a condition depends only on local variables.
+     *
+     * @param condition The condition to be checked.
+     * @param globals Collects the globals that undeclared variables could refer to.
+     * @return Whether the condition is relative.
+     */
+    private static boolean scan(ConditionNode condition, Set<Integer> globals) {
+        return scan(condition.left, globals) && scan(condition.right, globals);
+    }
+
+    /**
+     * Checks that an expression depends only on local variables.
+     *
+     * @param expression The expression to be checked.
+     * @param globals Collects the globals that undeclared variables could refer to.
+     * @return Whether the expression is relative.
+     */
+    private static boolean scan(ExpressionNode expression, Set<Integer> globals) {
+        if (expression instanceof NumberNode || expression instanceof LocalVariableNode) {
+            return true;
+        }
+        if (expression instanceof ScopedVariableNode) {
+            globals.add(((ScopedVariableNode) expression).globalSlot);
+            return true;
+        }
+        if (expression instanceof NegateNode) {
+            return scan(((NegateNode) expression).operand, globals);
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode operation = (BinaryOpNode) expression;
+            return scan(operation.left, globals) && scan(operation.right, globals);
+        }
+        // getX, getY and globals depend on more than the arguments
+        return false;
+    }
+
+    /**
+     * Identifies a call: the procedure, its actual parameters and the
+     * state of the pen.
+     */
+    private static final class Key {
+        final ProcedureNode procedure;
+        final long[] arguments;
+        final boolean penDown;
+        final int hash;
+
+        Key(ProcedureNode procedure, double[] frame, boolean penDown) {
+            this.procedure = procedure;
+            this.penDown = penDown;
+            int[] parameterSlots = procedure.parameterSlots;
+            arguments = new long[parameterSlots.length];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = Double.doubleToLongBits(frame[parameterSlots[i]]);
+            }
+            hash = (procedure.hashCode() * 31 + Arrays.hashCode(arguments)) * 2 + (penDown ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key that = (Key) other;
+            return procedure == that.procedure && penDown == that.penDown
+                    && Arrays.equals(arguments, that.arguments);
+        }
+    }
+}
@@ -1,17 +1,18 @@
 package interpreter;
 
-import java.awt.Color;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
+import interpreter.Checkpoints.Checkpoint;
+import interpreter.Node.BlockNode;
+import interpreter.Node.ProcedureNode;
+import interpreter.Node.ProgramNode;
+import optimizer.Optimizer;
 import tree.Tree;
 import tokenizer.Token;
-import tokenizer.TokenType;
 
 /**
  * Interprets the Logo program
@@ -22,28 +23,105 @@ import tokenizer.TokenType;
  */
 public class Interpreter {
     private Turtle turtle;
-    private DrawingArea canvas;
-    private Hashtable<String, Double> globalVariables;
-    private Map<String, Tree<Token>> procedures;
-    private Stack<Hashtable<String, Double>> stackFrames;
-    private HashSet<String> definedColor = new HashSet<String>(Arrays.asList("red", "orange", "yellow",
-    		"green", "cyan", "blue", "purple", "magenta", "pink", "olive", "black", "gray", 
-    		"white", "brown", "tan"));
-
-    private boolean endDrawing = false;
+    private RenderTarget canvas;
+    private Map<String, Integer> globalSlots;
+    private Map<String, ProcedureNode> procedures;
+
+    /** Values of the global variables, indexed by slot. */
+    double[] globals;
+    /** Which global slots have been given a value. */
+    boolean[] globalDefined;
+    /** The activation record of the procedure now executing. */
+    double[] locals;
+    /** Which local slots of the current procedure have been set. */
+    boolean[] localDefined;
+
+    private double[][] frames;
+    private boolean[][] frameDefined;
+    private int depth;
+
+    private volatile boolean endDrawing = false;
+    private int compileThreshold = DEFAULT_COMPILE_THRESHOLD;
+    private long stackBudget = 0;
+    private StackMachine stackMachine;
+    private GeometryCache geometryCache;
+    private Optimizer optimizer;
+    private int parallelRepeatThreshold = 0;
+    private final Interpreter root;
+    private List<SpawnedTurtle> spawned = new ArrayList<SpawnedTurtle>();
+    private int checkpointInterval = 1;
+    private Checkpoints checkpoints;
+
+    /**
+     * Invocations plus loop iterations after which a procedure is compiled.
+     */
+    static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+
+    /**
+     * Memory for Logo call frames when deep recursion is asked for, in bytes.
+     */
+    static final long DEFAULT_STACK_BUDGET = 256L << 20;
+
+    /**
+     * Memory for cached procedure drawings when caching is asked for, in bytes.
+     */
+    static final long DEFAULT_GEOMETRY_CACHE_BUDGET = 64L << 20;
+
+    /**
+     * Iterations from which rigid loops run in parallel when that is asked for.
+     */
+    static final int DEFAULT_PARALLEL_REPEAT_THRESHOLD = 10000;
     
     /**
      * Creates an Interpreter.
      * 
      * @param canvas The area on which to do the drawing.
      */
-    public Interpreter(DrawingArea canvas) {
+    public Interpreter(RenderTarget canvas) {
         this.canvas = canvas;
         turtle = new Turtle(canvas);
-        globalVariables = new Hashtable<String, Double>();
-        procedures = new HashMap<String, Tree<Token>>();
+        globalSlots = new HashMap<String, Integer>();
+        procedures = new HashMap<String, ProcedureNode>();
+        optimizer = new Optimizer();
+        root = this;
+        clearVariables();
+    }
+
+    /**
+     * Creates an Interpreter for a procedure spawned by the given one. It
+     * has its own turtle, in the parent turtle's pose, and its own copy of
+     * the parent's global variables; it stops when the interpreter that
+     * runs the whole program is stopped. It runs the procedures the parent
+     * has compiled, but neither counts calls nor compiles, since the
+     * procedures are shared with the parent and the other spawned turtles.
+     * 
+     * @param parent The interpreter executing the <code>spawn</code> command.
+     */
+    private Interpreter(Interpreter parent) {
+        canvas = parent.canvas;
+        turtle = new Turtle(parent.turtle);
+        globalSlots = parent.globalSlots;
+        procedures = parent.procedures;
+        optimizer = parent.optimizer;
+        root = parent.root;
+        clearFrames();
+        globals = parent.globals.clone();
+        globalDefined = parent.globalDefined.clone();
+        compileThreshold = -1;
+        stackBudget = parent.stackBudget;
+        parallelRepeatThreshold = parent.parallelRepeatThreshold;
     }
     
+    /**
+     * Tells whether this interpreter compiles hot procedures, and so needs
+     * their calls and loop iterations counted.
+     * 
+     * @return False for spawned turtles and when compilation is turned off.
+     */
+    boolean isCompiling() {
+    	return compileThreshold >= 0;
+    }
+
     /**
      * Stops drawing on the canvas.
      */
@@ -55,302 +133,523 @@ public class Interpreter {
      * Erases the canvas and initializes or re-initializes all values.
      */
     void initialize() {
-        canvas.setBackground(Color.WHITE);
-        turtle.home();
-        globalVariables.clear();
+        turtle.initialize();
         procedures.clear();
-        stackFrames = new Stack<Hashtable<String, Double>>();
-        stackFrames.push(globalVariables);
+        clearVariables();
+        if (geometryCache != null) geometryCache.clear();
+    }
+
+    /**
+     * Forgets all variables, and resets the pool of activation records.
+     */
+    private void clearVariables() {
+        globalSlots.clear();
+        globals = new double[0];
+        globalDefined = new boolean[0];
+        clearFrames();
+    }
+
+    /**
+     * Resets the pool of activation records.
+     */
+    private void clearFrames() {
+        frames = new double[16][];
+        frameDefined = new boolean[16][];
+        frames[0] = locals = new double[0];
+        frameDefined[0] = localDefined = new boolean[0];
+        depth = 0;
     }
 
     /**
-     * Interprets the tree rooted at the given node.
+     * Interprets the tree rooted at the given node. A copy of the tree is
+     * first improved by the Optimizer and compiled into executable Nodes,
+     * which are then run.
      * 
      * @param node The root of the tree to be interpreted.
      */
     void interpret(Tree<Token> node) {
-        if (node == null || endDrawing) 
+        if (node == null || isStopped()) 
             return;
+        execute(new ProgramCompiler(this).compile(optimizer.optimize(node)));
+    }
 
-        String command = getStringFrom(node);
+    /**
+     * Returns the Optimizer applied to every program before it is run, so
+     * that its passes can be switched on and off and its changes examined.
+     * 
+     * @return The optimizer.
+     */
+    Optimizer getOptimizer() {
+        return optimizer;
+    }
 
-        if ("program".equals(command)) {
-        	if (node.numberOfChildren() != 2) error("Program is incorrect!");
-            findAllProcedures(node.child(1));
-            interpret(node.child(0));
-        }
-        else if ("penup".equals(command)) {
-        	turtle.penup();
-        }
-        else if ("pendown".equals(command)) {
-        	turtle.pendown();
-        }
-        else if ("forward".equals(command)) {
-        	if (node.numberOfChildren() != 1) error("Argument number is wrong in forward command!");
-        	turtle.forward(evaluateExpression(node.child(0)));
+    /**
+     * Executes an already compiled statement or program, then waits for
+     * any turtles it spawned and did not join.
+     * 
+     * @param node The statement to be executed.
+     */
+    void execute(Node node) {
+        if (node == null || isStopped()) 
+            return;
+        try {
+            run(node);
         }
-        else if ("left".equals(command)) {
-        	if (node.numberOfChildren() != 1) error("Argument number is wrong in left command!");
-            turtle.left(evaluateExpression(node.child(0)));
+        catch (RuntimeException e) {
+            abandonSpawned();
+            throw e;
         }
-        else if ("right".equals(command)) {
-        	if (node.numberOfChildren() != 1) error("Argument number is wrong in right command!");
-        	turtle.right(evaluateExpression(node.child(0)));
+        join();
+        if (root == this) {
+            turtle.tellCanvasWhereIAm();
+            canvas.repaint();
         }
-        else if ("face".equals(command)) {
-        	if (node.numberOfChildren() != 1) error("Argument number is wrong in face command!");
-        	turtle.face(evaluateExpression(node.child(0)));
+    }
+
+    /**
+     * Executes a statement in the chosen mode, on the explicit stack or
+     * by ordinary recursion.
+     * 
+     * @param node The statement to be executed.
+     */
+    private void run(Node node) {
+        if (stackBudget > 0) {
+            if (stackMachine == null) stackMachine = new StackMachine(this);
+            stackMachine.run(node, stackBudget);
         }
-        else if ("home".equals(command)) {
-        	turtle.home();
-        }        
-        else if ("set".equals(command)) {
-        	if (node.numberOfChildren() != 2) error("Argument number is wrong in set command!");
-        	store(getStringFrom(node.child(0)), evaluateExpression(node.child(1)));
+        else {
+            node.execute(this);
         }
-        else if ("jump".equals(command)) {
-        	if (node.numberOfChildren() != 2) error("Argument number is wrong in jump command!");
-        	turtle.setPosition(evaluateExpression(node.child(0)), evaluateExpression(node.child(1)));
+    }
+
+    /**
+     * Runs a program as if on a freshly initialized interpreter, except
+     * that if it is an edited version of the program last run this way,
+     * execution resumes from the last checkpoint before the first changed
+     * top-level command: the variables, the turtle and the drawing are
+     * put back as they were at the checkpoint, and only the rest of the
+     * program is run. Checkpoints are taken between top-level commands
+     * (see <code>setCheckpointInterval</code>), and are abandoned if the
+     * drawing is cleared or the canvas resized between runs.
+     * 
+     * @param program The parse tree of the program.
+     */
+    void rerun(Tree<Token> program) {
+        if (program == null) 
+            return;
+        endDrawing = false;
+        Checkpoints previous = checkpoints;
+        checkpoints = new Checkpoints(program, canvas);
+        Checkpoint start = previous == null ? null : previous.resume(checkpoints, canvas);
+        if (start == null) {
+            initialize();
+            start = new Checkpoint(0, turtle, globals, globalDefined, canvas.getCommandCount());
+            checkpoints.add(start);
         }
-        else if ("repeat".equals(command)) {
-        	if (node.numberOfChildren() != 2) error("Error occured in interpreting 'repeat' command!");
-        	for (int i = 0; i < evaluateExpression(node.child(0)); i++) 
-        		interpret(node.child(1));
+        else {
+            restore(start);
         }
-        else if ("do".equals(command)) {
-        	if (node.numberOfChildren() != 2) error("Error occured in interpreting 'do' command!");
-        	callProcedure(getStringFrom(node.child(0)), node.child(1));
+        procedures.clear();
+        if (geometryCache != null) geometryCache.clear();
+
+        ProgramNode compiled = (ProgramNode) new ProgramCompiler(this)
+                .compile(optimizer.optimize(checkpoints.getProgram()));
+        Node[] commands = ((BlockNode) compiled.main).statements;
+        try {
+            defineProcedures(compiled.procedures);
+            for (int i = start.index; i < commands.length && !isStopped(); i++) {
+                if (i > start.index && i % checkpointInterval == 0 && spawned.isEmpty()) {
+                    checkpoints.add(new Checkpoint(i, turtle, globals, globalDefined, canvas.getCommandCount()));
+                }
+                run(commands[i]);
+            }
+            join();
+            if (!isStopped() && commands.length > start.index) {
+                checkpoints.add(new Checkpoint(commands.length, turtle, globals, globalDefined,
+                                               canvas.getCommandCount()));
+            }
         }
-        else if (definedColor.contains(command)) {
-        	turtle.color(command); 
+        catch (RuntimeException e) {
+            abandonSpawned();
+            throw e;
         }
-        else if ("color".equals(command)) {
-        	if (node.numberOfChildren() != 3) error("Argument number is wrong in color command!");
-        	int r = (int) evaluateExpression(node.child(0));
-        	int g = (int) evaluateExpression(node.child(1));
-        	int b = (int) evaluateExpression(node.child(2));
-        	if (r > 255 || r < 0 || g > 255 || g < 0 || b > 255 || b < 0)
-        		error("Input color is out of range!");
-        	turtle.color((r << 16) + (g << 8) + b); 
+        finally {
+            checkpoints.finish(canvas.getCommandCount());
+            turtle.tellCanvasWhereIAm();
+            canvas.repaint();
         }
-        else if ("block".equals(command)) {
-        	Iterator<Tree<Token>> itr = node.children();
-        	while (itr.hasNext()) {
-        		interpret(itr.next());
-        	}
+    }
+
+    /**
+     * Puts the variables, the turtle and the drawing back as they were
+     * at a checkpoint.
+     * 
+     * @param checkpoint The checkpoint.
+     */
+    private void restore(Checkpoint checkpoint) {
+        globals = Arrays.copyOf(checkpoint.globals, Math.max(globals.length, checkpoint.globals.length));
+        globalDefined = Arrays.copyOf(checkpoint.globalDefined, globals.length);
+        turtle.setPose(checkpoint.x, checkpoint.y, checkpoint.heading, checkpoint.penDown);
+        turtle.setColor(checkpoint.color);
+        canvas.truncate(checkpoint.commandCount);
+    }
+
+    /**
+     * Sets how often <code>rerun</code> takes a checkpoint: before every
+     * top-level command whose index is a multiple of the interval, as
+     * well as at the start and end of the program. Checkpoints cost a
+     * copy of the global variables each.
+     * 
+     * @param commands The number of top-level commands between checkpoints.
+     */
+    void setCheckpointInterval(int commands) {
+        if (commands <= 0) error("The checkpoint interval must be positive!");
+        checkpointInterval = commands;
+    }
+
+    /**
+     * Starts a procedure with a new turtle (see <code>SpawnedTurtle</code>).
+     * The actual parameters are evaluated before the new turtle starts.
+     * 
+     * @param procedure The procedure to be spawned.
+     * @param arguments The compiled actual parameters.
+     */
+    void spawn(ProcedureNode procedure, ExpressionNode[] arguments) {
+        double[] values = new double[arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = arguments[i].evaluate(this);
         }
-        else if ("while".equals(command)) {
-        	if (node.numberOfChildren() != 2) error("Argument number is wrong in while command!");
-        	while (evaluateCondition(node.child(0))) 
-        		interpret(node.child(1));
+        SpawnedTurtle child = new SpawnedTurtle(new Interpreter(this), procedure, values);
+        spawned.add(child);
+        child.fork();
+    }
+
+    /**
+     * Waits for every turtle spawned since the last join, and adds what
+     * they drew to this turtle's drawing in the order they were spawned.
+     * The pen color is then restored if their drawings changed it. If a
+     * spawned procedure failed, its error is reported after the drawings
+     * of the turtles spawned before it.
+     */
+    void join() {
+        if (spawned.isEmpty()) return;
+        List<SpawnedTurtle> children = spawned;
+        spawned = new ArrayList<SpawnedTurtle>();
+        TurtleCommand color = turtle.getColor();
+        try {
+            for (int i = 0; i < children.size(); i++) {
+                try {
+                    turtle.emitAll(children.get(i).finish());
+                }
+                catch (RuntimeException e) {
+                    for (int j = i + 1; j < children.size(); j++) {
+                        children.get(j).quietlyJoin();
+                    }
+                    throw e;
+                }
+            }
         }
-        else if ("if".equals(command)) {
-        	if (node.numberOfChildren() != 3) error("Argument number is wrong in if command!");
-        	if (evaluateCondition(node.child(0))) 
-        		interpret(node.child(1));
-        	else {
-        		if (node.numberOfChildren() > 2) 
-        			interpret(node.child(2));
-        	}
+        finally {
+            if (!((ColorCommand) turtle.getColor()).color.equals(((ColorCommand) color).color)) {
+                turtle.emit(color);
+            }
         }
-        else {
-            error("Unimplemented command:\n" + command);
+    }
+
+    /**
+     * Waits for every turtle spawned since the last join, discarding what
+     * they drew; used when this turtle's own procedure has failed.
+     */
+    private void abandonSpawned() {
+        for (SpawnedTurtle child : spawned) {
+            child.quietlyJoin();
         }
-        canvas.repaint();
+        spawned.clear();
     }
-    
-	/**
-     * Tells the turtle to pause.
+
+    /**
+     * Chooses how Logo procedure calls are executed. With a positive
+     * budget, calls, blocks and loops keep their state on a heap-allocated
+     * stack of at most that many bytes instead of the Java thread stack, so
+     * deep recursion no longer overflows; compilation to bytecode is not
+     * used in this mode. With a budget of zero, the tree is executed by
+     * ordinary recursion.
+     * 
+     * @param bytes The memory budget for Logo call frames, or 0.
      */
-    void pauseTurtle() {
-        turtle.setPaused(true);
+    void setStackBudget(long bytes) {
+        stackBudget = bytes;
     }
-    
+
     /**
-     * Tells the turtle to resume after being paused.
+     * Turns on caching of what relative procedures draw (see
+     * <code>GeometryCache</code>), keeping at most the given number of
+     * bytes of drawings. A budget of zero turns the cache off. The cache
+     * is not used by the explicit-stack mode.
+     * 
+     * @param bytes The memory budget for cached drawings, or 0.
      */
-    void resumeTurtle() {
-        turtle.setPaused(false);
+    void setGeometryCacheBudget(long bytes) {
+        geometryCache = bytes > 0 ? new GeometryCache(this, bytes) : null;
     }
-    
+
     /**
-     * Tells the turtle to set its speed.
+     * Lets <code>repeat</code> loops whose bodies only move, turn and draw
+     * run on all processors (see <code>ParallelRepeat</code>) when they have
+     * at least the given number of iterations. A threshold of zero keeps
+     * every loop sequential. The setting applies to programs interpreted
+     * after it is made.
      * 
-     * @param speedControlValue The new speed (0 to 100).
+     * @param iterations The smallest count worth running in parallel, or 0.
      */
-    void setTurtleSpeed(int speedControlValue) {
-        turtle.setSpeed(speedControlValue);
+    void setParallelRepeatThreshold(int iterations) {
+        parallelRepeatThreshold = iterations;
     }
-    
+
     /**
-     * Given the root of a Tree representing an expression (which may
-     * be a simple variable or number, or something much more complex),
-     * evaluate the Tree and return the computed value.
+     * Returns the smallest count of a <code>repeat</code> loop that is run
+     * in parallel.
      * 
-     * @param node The root of the expression Tree.
-     * @return The value of the expression.
-     */
-    private double evaluateExpression(Tree<Token> node) {
-    	if (node == null) error("Empty expression!");
-    	
-        if (getTokenType(node) == TokenType.NUMBER) 
-        	return Double.valueOf(getStringFrom(node)); 
-        if (getTokenType(node) == TokenType.NAME) {
-        	return fetch(getStringFrom(node));
-        }
-        if ("getX".equals(getStringFrom(node))) return turtle.getX();
-        if ("getY".equals(getStringFrom(node))) return turtle.getY();
-        if (getTokenType(node) == TokenType.SYMBOL) {
-        	switch (getStringFrom(node)) {
-        	case "+" :
-        		if (node.numberOfChildren() == 1) return evaluateExpression(node.child(0));
-        		if (node.numberOfChildren() != 2) error("Error occured in evaluating '+'");
-        		return evaluateExpression(node.child(0)) + evaluateExpression(node.child(1));
-        	case "-" :
-        		if (node.numberOfChildren() == 1) return -evaluateExpression(node.child(0));
-        		if (node.numberOfChildren() != 2) error("Error occured in evaluating '-'");
-        		return evaluateExpression(node.child(0)) - evaluateExpression(node.child(1));
-        	case "*" :
-        		if (node.numberOfChildren() != 2) error("Error occured in evaluating '*'");
-        		return evaluateExpression(node.child(0)) * evaluateExpression(node.child(1));
-        	case "/" :
-        		if (node.numberOfChildren() != 2) error("Error occured in evaluating '/'");
-        		if (evaluateExpression(node.child(1)) != 0.0)
-        			return evaluateExpression(node.child(0)) / evaluateExpression(node.child(1));
-        		else 
-        			error("Divided by 0!");
-        	default :
-        		error("Can't evaluate the expression!");
-        	}
-        }
-        return -666;
+     * @return The threshold, or 0 if loops are always sequential.
+     */
+    int getParallelRepeatThreshold() {
+        return parallelRepeatThreshold;
     }
-    
+
     /**
-     * Given the root of a Tree representing a condition,
-     * evaluate the Tree and return the result.
+     * Returns the cache of procedure drawings.
      * 
-     * @param node The root of the condition Tree.
-     * @return The value (true or false) of the condition.
-     */
-    private boolean evaluateCondition(Tree<Token> node) {
-    	if (node == null) error("Empty condition!");
-        switch (getStringFrom(node)) {
-        	case "=" :
-        		return evaluateExpression(node.child(0)) == evaluateExpression(node.child(1));
-        	case "<" :
-        		return evaluateExpression(node.child(0)) < evaluateExpression(node.child(1));
-        	case ">" :
-        		return evaluateExpression(node.child(0)) > evaluateExpression(node.child(1));
-        	default :
-        		error("Error codition!");		
-        }
-        return false;
+     * @return The cache, or null if caching is off.
+     */
+    GeometryCache getGeometryCache() {
+        return geometryCache;
     }
 
     /**
-     * Given the name of a variable, return its value. It is an error
-     * if the variable has not been given a value.
+     * Returns the turtle controlled by this interpreter.
+     * 
+     * @return The turtle.
+     */
+    Turtle getTurtle() {
+        return turtle;
+    }
+
+    /**
+     * Tells whether the user has asked for drawing to stop.
+     * 
+     * @return <code>true</code> if execution should stop.
+     */
+    boolean isStopped() {
+        return root.endDrawing;
+    }
+
+    /**
+     * Makes the given procedures available to <code>do</code> commands.
+     * 
+     * @param definitions The compiled procedures, keyed by name.
+     */
+    void defineProcedures(Map<String, ProcedureNode> definitions) {
+        procedures.putAll(definitions);
+    }
+    
+    /**
+     * Given the name of a global variable, return its value. It is an
+     * error if the variable has not been given a value.
      * 
      * @param name A named variable.
      * @return The value of that variable.
      */
-    private double fetch(String name) {
-    	if (!stackFrames.isEmpty()) {
-    		if (stackFrames.peek().containsKey(name)) return stackFrames.peek().get(name);
-    	}
-    	if (globalVariables.containsKey(name)) return globalVariables.get(name);
-    	else error("The variable " + name + " is undefined!");
-    	return -666;
+    double fetch(String name) {
+    	Integer slot = globalSlots.get(name);
+    	if (slot == null || !globalDefined[slot]) undefined(name);
+    	return globals[slot];
     }
 
     /**
-     * Stores the given value in the named variable. If the variable
-     * does not previously exist, it is created.
+     * Reports a read of a variable that has not been given a value.
      * 
-     * @param name The variable whose value is to be changed.
-     * @param value The value to be given to the variable.
-     */
-    private void store(String name, double value) {
-    	if (!stackFrames.isEmpty()) {
-    		if (stackFrames.peek().containsKey(name)) 
-    			stackFrames.peek().put(name, value);
-    		else if (globalVariables.containsKey(name)) 
-    			globalVariables.put(name, value);
-    		else
-    			stackFrames.peek().put(name, value);
+     * @param name The name of the variable.
+     */
+    void undefined(String name) {
+    	error("The variable " + name + " is undefined!");
+    }
+
+    /**
+     * Returns the slot of the named global variable, creating the slot
+     * (but not defining the variable) if it does not yet exist.
+     * 
+     * @param name A named variable.
+     * @return The index of the variable in <code>globals</code>.
+     */
+    int globalSlot(String name) {
+    	Integer slot = globalSlots.get(name);
+    	if (slot == null) {
+    		slot = globalSlots.size();
+    		globalSlots.put(name, slot);
+    		if (slot == globals.length) {
+    			globals = Arrays.copyOf(globals, 2 * slot + 8);
+    			globalDefined = Arrays.copyOf(globalDefined, globals.length);
+    		}
     	}
-    	else
-    		globalVariables.put(name, value);
+    	return slot;
+    }
+
+    /**
+     * Returns the procedure with the given name, as defined by an
+     * earlier program, or <code>null</code> if there is none.
+     * 
+     * @param name The name of the procedure.
+     * @return The compiled procedure.
+     */
+    ProcedureNode getProcedure(String name) {
+    	return procedures.get(name);
     }
 
     /**
      * Does all the work required to call a Logo procedure. Specifically, it:
-     * <ul><li>Uses the procedure name to find its procedure body,</li>
-     *     <li>Creates a HashMap for the procedure's local variable,</li>
-     *     <li>Pushes the HashMap onto the stack of HashMaps,</li>
-     *     <li>Evaluates each actual parameter, and store the value in
-     *         the HashMap for the corresponding formal parameter,</li>
-     *     <li>Interprets the procedure body, and</li>
-     *     <li>Pops the procedure's HashMap from the stack of HashMaps.</li>
+     * <ul><li>Takes the activation record for the next call depth from the
+     *         pool, growing the pool if this depth has not been reached before,</li>
+     *     <li>Evaluates each actual parameter, and stores the value in
+     *         the slot of the corresponding formal parameter, and</li>
+     *     <li>Invokes the procedure.</li>
      * </ul>
-     * @param name The name of the procedure to be interpreted.
-     * @param actualParameterListNode The list of actual parameters.
-     */
-    private void callProcedure(String name, Tree<Token> actualParameterListNode) {
-    	if (name == null || actualParameterListNode == null) error("Error in calling procedure!");
-    	if (!procedures.containsKey(name)) 
-    		error("Procedure '" + name + "' not defined!");
-    	Tree<Token> procedure = procedures.get(name);
-		Hashtable<String, Double> localVariables = new Hashtable<String, Double>();
-		Tree<Token> formalParameters = procedure.child(0).child(1);
-		if (formalParameters.numberOfChildren() != actualParameterListNode.numberOfChildren())
-			error("The number of arguments in calling procedure" + name + " doesn't match");
-		Iterator<Tree<Token>> itFormal = formalParameters.children();
-		Iterator<Tree<Token>> itActual = actualParameterListNode.children();
-		while (itFormal.hasNext()) {
-			localVariables.put(getStringFrom(itFormal.next()), evaluateExpression(itActual.next()));
-		}
-		stackFrames.push(localVariables);
-		interpret(procedure.child(1));
-		stackFrames.pop();
-    }
-
-    /**
-     * Finds all the procedures in the parse tree and puts references to them in
-     * the global variable <code>procedures</code>.
+     * No objects are allocated once the pool is deep enough.
      * 
-     * @param listOfProcedures
-     *            The root of the tree of procedures.
-     */
-    private void findAllProcedures(Tree<Token> listOfProcedures) { 
-    	if (listOfProcedures == null) error("Error in defining precedure!");
-    	for (Iterator<Tree<Token>> it = listOfProcedures.children(); it.hasNext();) {
-        	Tree<Token> procedure = it.next();
-        	procedures.put(getStringFrom(procedure.firstChild().firstChild()), procedure);
-        }
+     * @param procedure The procedure to be interpreted.
+     * @param arguments The compiled actual parameters.
+     */
+    void callProcedure(ProcedureNode procedure, ExpressionNode[] arguments) {
+    	double[] frame = enterFrame(procedure);
+    	int[] parameterSlots = procedure.parameterSlots;
+    	for (int i = 0; i < parameterSlots.length; i++) {
+    		frame[parameterSlots[i]] = arguments[i].evaluate(this);
+    	}
+    	invoke(procedure);
     }
 
     /**
-     * Returns the String in the Token in the given node.
+     * Returns the activation record that the given procedure will use if
+     * it is called from the current depth, so that the caller can store
+     * the actual parameters in it. The record does not become current
+     * until the procedure is invoked.
      * 
-     * @param node
-     *            The Tree<Token> from which to extract the String.
-     * @return The String value in this Tree<Token> node.
+     * @param procedure The procedure about to be called.
+     * @return The activation record for the call.
      */
-    private static String getStringFrom(Tree<Token> node) {
-        return node.getValue().getValue();
+    double[] enterFrame(ProcedureNode procedure) {
+    	int callee = depth + 1;
+    	if (callee == frames.length) {
+    		frames = Arrays.copyOf(frames, 2 * callee);
+    		frameDefined = Arrays.copyOf(frameDefined, frames.length);
+    	}
+    	if (frames[callee] == null || frames[callee].length < procedure.frameSize) {
+    		frames[callee] = new double[procedure.frameSize];
+    		frameDefined[callee] = new boolean[procedure.frameSize];
+    	}
+    	return frames[callee];
     }
-    
+
+    /**
+     * Runs a procedure whose parameters have been stored by
+     * <code>enterFrame</code>: marks its other locals as not yet set, makes
+     * its record current, executes the body, and makes the caller's record
+     * current again. A procedure whose invocations and loop iterations
+     * exceed the compile threshold is first compiled to JVM bytecode, and
+     * runs compiled from then on. If the drawings of relative procedures
+     * are being cached, a cached call is replayed rather than run.
+     * 
+     * @param procedure The procedure to be run.
+     */
+    void invoke(ProcedureNode procedure) {
+    	if (geometryCache != null && procedure.relative) {
+    		geometryCache.call(procedure, frames[depth + 1]);
+    	}
+    	else {
+    		runProcedure(procedure);
+    	}
+    }
+
+    /**
+     * Runs a procedure as <code>invoke</code> does, but without consulting
+     * the cache of drawings.
+     * 
+     * @param procedure The procedure to be run.
+     */
+    void runProcedure(ProcedureNode procedure) {
+    	CompiledProcedure compiled = procedure.compiled;
+    	if (compiled == null && compileThreshold >= 0 && !procedure.uncompilable
+    			&& ++procedure.invocations + procedure.backedges > compileThreshold) {
+    		compiled = procedure.compiled = BytecodeCompiler.compile(procedure);
+    		procedure.uncompilable = compiled == null;
+    	}
+    	pushFrame(procedure);
+    	try {
+    		if (compiled != null) compiled.run(this, locals);
+    		else procedure.body.execute(this);
+    	}
+    	finally {
+    		popFrame();
+    	}
+    }
+
+    /**
+     * Makes the activation record prepared by <code>enterFrame</code>
+     * current, with all the procedure's non-parameter locals unset.
+     * 
+     * @param procedure The procedure being entered.
+     */
+    void pushFrame(ProcedureNode procedure) {
+    	depth++;
+    	locals = frames[depth];
+    	localDefined = frameDefined[depth];
+    	Arrays.fill(localDefined, 0, procedure.frameSize, false);
+    }
+
+    /**
+     * Makes the caller's activation record current again.
+     */
+    void popFrame() {
+    	depth--;
+    	locals = frames[depth];
+    	localDefined = frameDefined[depth];
+    }
+
+    /**
+     * Prepares the current activation record to be reused by a tail call
+     * of the given procedure, enlarging it if necessary. The caller stores
+     * the actual parameters in the returned record; all other locals are
+     * unset.
+     * 
+     * @param procedure The procedure being called.
+     * @return The current activation record.
+     */
+    double[] reuseFrame(ProcedureNode procedure) {
+    	if (locals.length < procedure.frameSize) {
+    		frames[depth] = locals = new double[procedure.frameSize];
+    		frameDefined[depth] = localDefined = new boolean[procedure.frameSize];
+    	}
+    	Arrays.fill(localDefined, 0, procedure.frameSize, false);
+    	return locals;
+    }
+
+    /**
+     * Returns the number of procedure activations now in progress.
+     * 
+     * @return The call depth; 0 at the top level of the program.
+     */
+    int getDepth() {
+    	return depth;
+    }
+
     /**
-     * Returns the Type of the Token in the given node.
+     * Sets how hot a procedure must become before it is compiled to JVM
+     * bytecode. A negative threshold turns compilation off, leaving every
+     * procedure in the tree interpreter.
      * 
-     * @param node
-     *            The Tree<Token> from which to extract the TokenType.
-     * @return The Type of Token in this Tree<Token> node.
+     * @param threshold Invocations plus loop iterations needed to compile.
      */
-    private static TokenType getTokenType(Tree<Token> node) {
-        return node.getValue().getType();
+    void setCompileThreshold(int threshold) {
+    	compileThreshold = threshold;
     }
 
     /**
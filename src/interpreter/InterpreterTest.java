@@ -0,0 +1,448 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.Parser;
+
+/**
+ * Tests for the Interpreter, running small Logo programs end to end.
+ */
+public class InterpreterTest {
+    private Interpreter interpreter;
+
+    /**
+     * Creates a fresh interpreter on an unsized canvas, so that the
+     * turtle starts at (0, 0).
+     */
+    @Before
+    public void setUp() {
+        interpreter = new Interpreter(new DrawingArea());
+        interpreter.initialize();
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#interpret(tree.Tree)}.
+     */
+    @Test
+    public void testArithmetic() {
+        run("set a 3\nset b a * 4 + 2\nset c (b + 1) / 2\n");
+        assertEquals(14.0, interpreter.fetch("b"), 0.0);
+        assertEquals(7.5, interpreter.fetch("c"), 0.0);
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#interpret(tree.Tree)}.
+     */
+    @Test
+    public void testMoves() {
+        run("forward 10\nleft 90\nforward 5\nset x getX\nset y getY\n");
+        assertEquals(10.0, interpreter.fetch("x"), 1e-9);
+        assertEquals(5.0, interpreter.fetch("y"), 1e-9);
+        run("jump -3 4\nset x getX\nset y getY\n");
+        assertEquals(-3.0, interpreter.fetch("x"), 1e-9);
+        assertEquals(4.0, interpreter.fetch("y"), 1e-9);
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#interpret(tree.Tree)}.
+     */
+    @Test
+    public void testControlStatements() {
+        run("set n 0\nrepeat 4 {\nset n n + 1\n}\n");
+        assertEquals(4.0, interpreter.fetch("n"), 0.0);
+        run("set n 0\nwhile n < 10 {\nset n n + 3\n}\n");
+        assertEquals(12.0, interpreter.fetch("n"), 0.0);
+        run("set n 5\nif n > 3 {\nset r 1\n}\nelse {\nset r 2\n}\n");
+        assertEquals(1.0, interpreter.fetch("r"), 0.0);
+        run("set n 5\nset r 0\nif n < 3 {\nset r 1\n}\n");
+        assertEquals(0.0, interpreter.fetch("r"), 0.0);
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#interpret(tree.Tree)}.
+     */
+    @Test
+    public void testProcedureScoping() {
+        run("set g 1\ndo p 5\ndef p a {\nset g a\nset t a * 2\n}\n");
+        assertEquals(5.0, interpreter.fetch("g"), 0.0);
+        try {
+            interpreter.fetch("t");
+            fail();
+        }
+        catch (RuntimeException e) {
+            // a new variable set inside a procedure is local to it
+        }
+        run("set n 0\ndo count 4\ndef count k {\nif k > 0 {\nset n n + 1\ndo count k - 1\n}\n}\n");
+        assertEquals(4.0, interpreter.fetch("n"), 0.0);
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#interpret(tree.Tree)}.
+     */
+    @Test
+    public void testLocalsAreNotVisibleToCallees() {
+        run("set k 1\ndo p\ndef p {\nset m 2\ndo q\n}\ndef q {\nset k k + 1\n}\n");
+        assertEquals(2.0, interpreter.fetch("k"), 0.0);
+        try {
+            run("do r\ndef r {\nset m 2\ndo s\n}\ndef s {\nset k m\n}\n");
+            fail();
+        }
+        catch (RuntimeException e) {
+            assertEquals("The variable m is undefined!", e.getMessage());
+        }
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#setCompileThreshold(int)}.
+     */
+    @Test
+    public void testCompiledProceduresMatchInterpreted() {
+        String program = "set g 0\nset n 0\ndo walk 6 40\nset x getX\nset y getY\n"
+                       + "def walk d len {\nset k 0\nwhile k < d {\nset k k + 1\n}\n"
+                       + "if d > 0 {\nforward len / d\nleft 360 / (d + 1)\nset n n + 1\n"
+                       + "color d * 40 255 - d * 40 d\ndo walk d - 1 len\nred\npenup\nforward -3\npendown\n"
+                       + "repeat d {\nright 7\nforward 1.5\nset g g + k\n}\n}\n}\n";
+        MemoryRenderTarget target = new MemoryRenderTarget(200, 200);
+        interpreter = new Interpreter(target);
+        interpreter.initialize();
+        interpreter.setCompileThreshold(-1);
+        run(program);
+        double[] interpreted = { interpreter.fetch("g"), interpreter.fetch("n"),
+                                 interpreter.fetch("x"), interpreter.fetch("y") };
+        List<String> interpretedCommands = describe(target.getCommands());
+        target = new MemoryRenderTarget(200, 200);
+        interpreter = new Interpreter(target);
+        interpreter.initialize();
+        interpreter.setCompileThreshold(0);
+        run(program);
+        double[] compiled = { interpreter.fetch("g"), interpreter.fetch("n"),
+                              interpreter.fetch("x"), interpreter.fetch("y") };
+        assertNotNull(interpreter.getProcedure("walk").compiled);
+        for (int i = 0; i < interpreted.length; i++) {
+            assertEquals(interpreted[i], compiled[i], 0.0);
+        }
+        // the very same commands, down to the last bit of every coordinate
+        assertEquals(39, interpretedCommands.size());
+        assertEquals(interpretedCommands, describe(target.getCommands()));
+        try {
+            run("do bad 0\ndef bad z {\nset q 1 / z\n}\n");
+            fail();
+        }
+        catch (RuntimeException e) {
+            assertEquals("Divided by 0!", e.getMessage());
+        }
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#setStackBudget(long)}.
+     */
+    @Test
+    public void testExplicitStack() {
+        interpreter.setStackBudget(64L << 20);
+        run("set n 0\ndo down 100000\ndef down k {\nif k > 0 {\nset n n + 1\ndo down k - 1\nright 1\n}\n}\n");
+        assertEquals(100000.0, interpreter.fetch("n"), 0.0);
+
+        // a tail call reuses its caller's frame, so this fits in a tiny budget
+        interpreter.setStackBudget(1000);
+        run("set n 0\ndo loop 100000\ndef loop k {\nset n n + 1\nif k > 1 {\ndo loop k - 1\n}\n}\n");
+        assertEquals(100000.0, interpreter.fetch("n"), 0.0);
+        try {
+            run("do down 1000\n");
+            fail();
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Recursion too deep"));
+        }
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#setGeometryCacheBudget(long)}.
+     */
+    @Test
+    public void testGeometryCache() {
+        String program = "do star 5 30\nright 17\npenup\ndo star 5 30\nset x getX\nset y getY\n"
+                       + "pendown\ndo star 5 30\nright 50\ndo star 5 30\nset u getX\nset v getY\n"
+                       + "def star n len {\nrepeat n {\nforward len\nright 144\n}\nleft 10\n}\n";
+        run(program);
+        double[] direct = { interpreter.fetch("x"), interpreter.fetch("y"),
+                            interpreter.fetch("u"), interpreter.fetch("v") };
+        setUp();
+        interpreter.setGeometryCacheBudget(1 << 20);
+        run(program);
+        double[] replayed = { interpreter.fetch("x"), interpreter.fetch("y"),
+                              interpreter.fetch("u"), interpreter.fetch("v") };
+        for (int i = 0; i < direct.length; i++) {
+            assertEquals(direct[i], replayed[i], 1e-9);
+        }
+        GeometryCache cache = interpreter.getGeometryCache();
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getHits());
+
+        // a procedure that updates a global is always run
+        run("set k 1\ndo bump\ndo bump\ndef bump {\nset k k + 1\nforward 1\n}\n");
+        assertEquals(3.0, interpreter.fetch("k"), 0.0);
+        run("do where\ndo where\ndef where {\nset w getX\n}\n");
+        assertEquals(2, cache.getHits());
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#setParallelRepeatThreshold(int)}.
+     */
+    @Test
+    public void testParallelRepeat() {
+        String[] programs = {
+            "set s 3\nrepeat 5000 {\nforward s\nright 7.5\nrepeat 2 {\nleft 1\nforward 1\n}\n}\n",
+            "repeat 999 {\nforward 2\npenup\nforward 1\npendown\nleft 91\n}\n",
+            "repeat 700 {\nforward 1\npenup\nright 3\n}\n",
+            "set k 0\nrepeat 600 {\nforward k\nset k k + 1\nright 9\n}\n",
+            // more commands than one wave holds
+            "repeat 40000 {\nforward 1\nright 1.5\nblue\nforward 2\n}\n"
+        };
+        for (String program : programs) {
+            MemoryRenderTarget sequential = new MemoryRenderTarget(0, 0);
+            interpreter = new Interpreter(sequential);
+            interpreter.initialize();
+            run(program + "set x getX\nset y getY\n");
+            double x = interpreter.fetch("x");
+            double y = interpreter.fetch("y");
+            MemoryRenderTarget parallel = new MemoryRenderTarget(0, 0);
+            interpreter = new Interpreter(parallel);
+            interpreter.initialize();
+            interpreter.setParallelRepeatThreshold(10);
+            run(program + "set x getX\nset y getY\n");
+            assertEquals(x, interpreter.fetch("x"), 1e-6);
+            assertEquals(y, interpreter.fetch("y"), 1e-6);
+            assertEquals(sequential.getCommandCount(), parallel.getCommandCount());
+            assertEquals(sequential.getLineCount(), parallel.getLineCount());
+        }
+    }
+
+    /**
+     * Test method for {@link interpreter.Turtle#right(double)}.
+     */
+    @Test
+    public void testRightAngles() {
+        run("repeat 1000 {\nforward 100\nright 90\n}\nset x getX\nset y getY\n");
+        assertEquals(0.0, interpreter.fetch("x"), 0.0);
+        assertEquals(0.0, interpreter.fetch("y"), 0.0);
+        run("right 1000000000\nleft 1000000090\nforward 10\nset x getX\nset y getY\n");
+        assertEquals(0.0, interpreter.fetch("x"), 0.0);
+        assertEquals(10.0, interpreter.fetch("y"), 0.0);
+        assertEquals(270.0, Turtle.bringIntoRange(-90), 0.0);
+        assertEquals(360.0, Turtle.bringIntoRange(360), 0.0);
+        assertEquals(280.0, Turtle.bringIntoRange(1e9), 0.0);
+        assertEquals(-1.0, Turtle.sine(-90), 0.0);
+        assertEquals(-1.0, Turtle.cosine(540), 0.0);
+        assertEquals(Math.cos(Math.toRadians(30)), Turtle.cosine(30), 0.0);
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#join()}.
+     */
+    @Test
+    public void testSpawnAndJoin() {
+        Turtle turtle = interpreter.getTurtle();
+        int start = turtle.startRecording();
+        run("set k 1\nforward 10\nspawn arm 1 5\nspawn arm 2 7\nleft 90\nforward 3\njoin\n"
+            + "set x getX\nset y getY\ndef arm n len {\nset k k + n\nred\n"
+            + "repeat 50 {\nforward len\nright 10\n}\n}\n");
+        List<TurtleCommand> recorded = turtle.getRecording();
+        List<TurtleCommand> drawn = new ArrayList<TurtleCommand>(recorded.subList(start, recorded.size()));
+        turtle.stopRecording();
+
+        // the spawned turtles changed neither the variables nor the pose of their spawner
+        assertEquals(1.0, interpreter.fetch("k"), 0.0);
+        assertEquals(10.0, interpreter.fetch("x"), 1e-9);
+        assertEquals(3.0, interpreter.fetch("y"), 1e-9);
+
+        // the spawner's lines, then each spawned turtle's in spawn order, then
+        // the spawner's pen color again, since the spawned turtles changed it
+        assertEquals(2 + 2 * 52 + 1, drawn.size());
+        assertEquals(5.0, lineLength(drawn.get(4)), 1e-9);
+        assertEquals(7.0, lineLength(drawn.get(2 + 52 + 2)), 1e-9);
+        assertEquals(10.0, ((DrawLineCommand) drawn.get(4)).x1, 1e-9);
+        assertTrue(drawn.get(drawn.size() - 1) instanceof ColorCommand);
+        assertEquals(Color.BLACK, ((ColorCommand) drawn.get(drawn.size() - 1)).color);
+
+        // a spawned turtle that keeps the pen color leaves nothing to restore,
+        // and procedures only spawned are never compiled, however hot
+        interpreter.setCompileThreshold(0);
+        start = turtle.startRecording();
+        run("spawn plain 4\njoin\ndef plain len {\nforward len\n}\n");
+        recorded = turtle.getRecording();
+        drawn = new ArrayList<TurtleCommand>(recorded.subList(start, recorded.size()));
+        turtle.stopRecording();
+        assertEquals(2, drawn.size());
+        assertTrue(drawn.get(0) instanceof ColorCommand);
+        assertEquals(4.0, lineLength(drawn.get(1)), 1e-9);
+        assertNull(interpreter.getProcedure("plain").compiled);
+        assertEquals(0, interpreter.getProcedure("plain").invocations);
+
+        try {
+            run("spawn bad 0\nforward 1\njoin\ndef bad z {\nset q 1 / z\n}\n");
+            fail();
+        }
+        catch (RuntimeException e) {
+            assertEquals("Divided by 0!", e.getMessage());
+        }
+
+        // unrecorded, and with a turtle spawned by a spawned turtle
+        MemoryRenderTarget target = new MemoryRenderTarget(0, 0);
+        interpreter = new Interpreter(target);
+        interpreter.initialize();
+        run("set k 1\nspawn outer 3\njoin\nforward 1\ndef outer n {\nblue\nforward n\nspawn arm 1 2\njoin\n"
+            + "forward n\n}\ndef arm n len {\nset k k + n\nred\nrepeat 50 {\nforward len\nright 10\n}\n}\n");
+        drawn = target.getCommands();
+        assertEquals(59, drawn.size());
+        assertEquals(53, target.getLineCount());
+        assertEquals(Color.BLACK, ((ColorCommand) drawn.get(0)).color);
+        assertEquals(3.0, lineLength(drawn.get(2)), 1e-9);
+        assertEquals(Color.BLUE, ((ColorCommand) drawn.get(3)).color);
+        assertEquals(Color.RED, ((ColorCommand) drawn.get(4)).color);
+        assertEquals(2.0, lineLength(drawn.get(5)), 1e-9);
+        assertEquals(Color.BLUE, ((ColorCommand) drawn.get(55)).color);
+        assertEquals(3.0, lineLength(drawn.get(56)), 1e-9);
+        assertEquals(Color.BLACK, ((ColorCommand) drawn.get(57)).color);
+        assertEquals(1.0, lineLength(drawn.get(58)), 1e-9);
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#rerun(tree.Tree)}.
+     */
+    @Test
+    public void testRerun() {
+        final int[] added = new int[1];
+        MemoryRenderTarget target = new MemoryRenderTarget(200, 200) {
+            @Override
+            public synchronized void addCommand(TurtleCommand turtleCommand) {
+                added[0]++;
+                super.addCommand(turtleCommand);
+            }
+
+            @Override
+            public synchronized void addLine(double x1, double y1, double x2, double y2) {
+                added[0]++;
+                super.addLine(x1, y1, x2, y2);
+            }
+        };
+        interpreter = new Interpreter(target);
+        String start = "set k 10\nforward k\nright 90\n";
+        String end = "def step n {\nforward n\n}\n";
+        rerun(start + "do step k\nset j 1\n" + end);
+        List<TurtleCommand> first = target.getCommands();
+        assertEquals(2, first.size());
+
+        // only the edited command and those after it are run again
+        rerun(start + "do step k\nset j 2\nred\n" + end);
+        List<TurtleCommand> second = target.getCommands();
+        assertEquals(3, second.size());
+        assertEquals(3, added[0]);
+        assertEquals(lineLength(first.get(1)), lineLength(second.get(1)), 0.0);
+        assertEquals(2.0, interpreter.fetch("j"), 0.0);
+        assertEquals(10.0, interpreter.fetch("k"), 0.0);
+
+        // a changed procedure is run again from the first command that calls it
+        rerun(start + "do step k\nset j 2\nred\ndef step n {\nforward n * 2\n}\n");
+        List<TurtleCommand> third = target.getCommands();
+        assertEquals(5, added[0]);
+        assertEquals(lineLength(second.get(0)), lineLength(third.get(0)), 0.0);
+        assertEquals(20.0, lineLength(third.get(1)), 1e-9);
+
+        // the result is the same as running the edited program afresh
+        String edited = "set k 5\nforward k\nright 90\ndo step k\ndef step n {\nforward n\n}\n";
+        rerun(edited);
+        List<TurtleCommand> resumed = target.getCommands();
+        MemoryRenderTarget fresh = new MemoryRenderTarget(200, 200);
+        interpreter = new Interpreter(fresh);
+        rerun(edited);
+        assertEquals(fresh.getCommandCount(), resumed.size());
+        for (int i = 0; i < resumed.size(); i++) {
+            DrawLineCommand line = (DrawLineCommand) resumed.get(i);
+            DrawLineCommand expected = (DrawLineCommand) fresh.getCommands().get(i);
+            assertEquals(expected.x2, line.x2, 0.0);
+            assertEquals(expected.y2, line.y2, 0.0);
+        }
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#interpret(tree.Tree)}.
+     */
+    @Test(expected=RuntimeException.class)
+    public void testDivideByZero() {
+        run("set a 0\nset b 1 / a\n");
+    }
+
+    /**
+     * Test method for {@link interpreter.Interpreter#interpret(tree.Tree)}.
+     */
+    @Test(expected=RuntimeException.class)
+    public void testUndefinedProcedure() {
+        run("do nothing 1\n");
+    }
+
+    /**
+     * Parses a program and reruns it, resuming from a checkpoint if possible.
+     *
+     * @param program The text of the Logo program.
+     */
+    private void rerun(String program) {
+        Parser parser = new Parser(program);
+        assertTrue(parser.isProgram());
+        interpreter.rerun(parser.stack.peek());
+    }
+
+    /**
+     * Describes drawing commands exactly, so that lists of them can be
+     * compared.
+     *
+     * @param commands The commands.
+     * @return One description per command, with every coordinate in full.
+     */
+    private static List<String> describe(List<TurtleCommand> commands) {
+        List<String> descriptions = new ArrayList<String>();
+        for (TurtleCommand command : commands) {
+            if (command instanceof DrawLineCommand) {
+                DrawLineCommand line = (DrawLineCommand) command;
+                descriptions.add("line " + Double.doubleToLongBits(line.x1) + " " + Double.doubleToLongBits(line.y1)
+                                 + " " + Double.doubleToLongBits(line.x2) + " " + Double.doubleToLongBits(line.y2));
+            }
+            else if (command instanceof ColorCommand) {
+                descriptions.add("color " + ((ColorCommand) command).color.getRGB());
+            }
+            else {
+                descriptions.add(command.getClass().getName());
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * Returns the length of a line.
+     *
+     * @param command A command that draws a line.
+     * @return Its length.
+     */
+    private static double lineLength(TurtleCommand command) {
+        DrawLineCommand line = (DrawLineCommand) command;
+        return Math.hypot(line.x2 - line.x1, line.y2 - line.y1);
+    }
+
+    /**
+     * Parses and interprets a program, without re-initializing the
+     * interpreter.
+     *
+     * @param program The text of the Logo program.
+     */
+    private void run(String program) {
+        Parser parser = new Parser(program);
+        assertTrue(parser.isProgram());
+        interpreter.interpret(parser.stack.peek());
+    }
+}
@@ -6,6 +6,7 @@ import java.io.*;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -19,6 +20,7 @@ import javax.swing.JSlider;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.border.Border;
 import javax.swing.border.TitledBorder;
 import javax.swing.event.ChangeEvent;
@@ -46,6 +48,7 @@ public class Logo extends JFrame implements Runnable {
     private static final long serialVersionUID = 1L;
     private Logo logoGui;
     private Interpreter interpreter;
+    private Playback playback;
     private Tree<Token> abstractSyntaxTree;
     private String currentFileName = null;
 
@@ -56,11 +59,16 @@ public class Logo extends JFrame implements Runnable {
     private JPanel controlPanel;
     private JTextField statusField;
     private JSlider speedControlSlider;
+    private JSlider timelineSlider;
     private JPanel inputs;
 
     private JMenuItem loadMenuItem;
     private JMenuItem saveMenuItem;
     private JMenuItem saveAsMenuItem;
+    private JMenuItem exportMenuItem;
+    private JCheckBoxMenuItem deepRecursionMenuItem;
+    private JCheckBoxMenuItem cacheMenuItem;
+    private JCheckBoxMenuItem parallelMenuItem;
     
     private JButton parseButton;
     private JButton startButton;
@@ -97,37 +105,104 @@ public class Logo extends JFrame implements Runnable {
         pack();
         setVisible(true);
         interpreter = new Interpreter(canvas);
+        playback = new Playback(canvas);
+        changeSpeed(speedControlSlider.getValue());
     }
 
     /**
-     * Interprets the program (as displayed in the programTextArea).
+     * Interprets the program (as displayed in the programTextArea). If
+     * only the later part of the program has been edited since it was last
+     * run, the interpreter resumes from a checkpoint rather than running
+     * the whole program again.
      */
     @Override
     public void run() {
 //    	canvas.clear();
-    	interpreter = new Interpreter(canvas);
-        interpreter.initialize();
         changeSpeed(speedControlSlider.getValue());
-        programTextArea.setEditable(false);
-        startButton.setEnabled(false);
-        pauseButton.setEnabled(true);
-        stopButton.setEnabled(true);
-        clearButton.setEnabled(false);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                programTextArea.setEditable(false);
+                startButton.setEnabled(false);
+                pauseButton.setEnabled(true);
+                stopButton.setEnabled(true);
+                clearButton.setEnabled(false);
+                exportMenuItem.setEnabled(false);
+                timelineSlider.setEnabled(false);
+            }
+        });
+        canvas.showStep(-1);
+        applyOptions();
+        playback.start();
+        String status = null;
+        String report = null;
         try {
-            interpreter.interpret(abstractSyntaxTree);
-            startButton.setEnabled(true);
-            pauseButton.setEnabled(false);
-            stopButton.setEnabled(false);
-            clearButton.setEnabled(true);
-            programTextArea.setEditable(true);
+            interpreter.rerun(abstractSyntaxTree);
+        }
+        catch (StackOverflowError e) {
+            status = "Recursion too deep; try Options > Deep recursion.";
         }
         catch (Throwable e) {
-            displayStatus(e.getMessage());
+            status = e.getMessage();
             ByteArrayOutputStream bytes = new ByteArrayOutputStream();
             e.printStackTrace(new PrintStream(bytes));
-            JOptionPane.showMessageDialog(canvas, e.getMessage() + "\n\n" + bytes.toString() + "\n");
-            return;
+            report = e.getMessage() + "\n\n" + bytes.toString() + "\n";
+        }
+        finally {
+            playback.finish();
+            finishRun(status, report);
+        }
+    }
+
+    /**
+     * Makes the GUI ready for the next run, on the event dispatch thread,
+     * however the run ended.
+     * 
+     * @param status The message to be reported, or null if the run succeeded.
+     * @param report The details of an unexpected error to be shown in a
+     *               dialog, or null if there are none.
+     */
+    private void finishRun(final String status, final String report) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                startButton.setEnabled(true);
+                pauseButton.setEnabled(false);
+                stopButton.setEnabled(false);
+                clearButton.setEnabled(true);
+                exportMenuItem.setEnabled(true);
+                programTextArea.setEditable(true);
+                enableTimeline();
+                if (status != null) displayStatus(status);
+                if (report != null) JOptionPane.showMessageDialog(canvas, report);
+            }
+        });
+    }
+
+    /**
+     * Passes the choices made in the Options menu on to the interpreter,
+     * for the run about to start.
+     */
+    private void applyOptions() {
+        interpreter.setStackBudget(deepRecursionMenuItem.isSelected() ? Interpreter.DEFAULT_STACK_BUDGET : 0);
+        if (cacheMenuItem.isSelected() != (interpreter.getGeometryCache() != null)) {
+            interpreter.setGeometryCacheBudget(cacheMenuItem.isSelected()
+                                               ? Interpreter.DEFAULT_GEOMETRY_CACHE_BUDGET : 0);
         }
+        interpreter.setParallelRepeatThreshold(parallelMenuItem.isSelected()
+                                               ? Interpreter.DEFAULT_PARALLEL_REPEAT_THRESHOLD : 0);
+    }
+
+    /**
+     * Lets the timeline slider scrub through the drawing just finished,
+     * starting at its end. The timeline itself is only built once the
+     * slider is moved.
+     */
+    private void enableTimeline() {
+        int steps = canvas.getCommandCount();
+        timelineSlider.setMaximum(steps);
+        timelineSlider.setValue(steps);
+        timelineSlider.setEnabled(true);
     }
 
     /**
@@ -147,6 +222,10 @@ public class Logo extends JFrame implements Runnable {
         loadMenuItem = new JMenuItem("Load");
         saveMenuItem = new JMenuItem("Save");
         saveAsMenuItem = new JMenuItem("Save As...");
+        exportMenuItem = new JMenuItem("Export PNG...");
+        deepRecursionMenuItem = new JCheckBoxMenuItem("Deep recursion");
+        cacheMenuItem = new JCheckBoxMenuItem("Cache procedure drawings", false);
+        parallelMenuItem = new JCheckBoxMenuItem("Run long loops on all processors", false);
 
         parseButton = new JButton("Parse");
         startButton = new JButton("Start");
@@ -167,6 +246,9 @@ public class Logo extends JFrame implements Runnable {
         titledCanvas.setPreferredSize(new Dimension(INITIAL_CANVAS_WIDTH, INITIAL_CANVAS_HEIGHT));
         titledCanvas.setLayout(new BorderLayout());
         titledCanvas.add(canvas, BorderLayout.CENTER);
+        timelineSlider = new JSlider(SwingConstants.HORIZONTAL, 0, 0, 0);
+        timelineSlider.setEnabled(false);
+        titledCanvas.add(timelineSlider, BorderLayout.SOUTH);
         addTitledBorder(titledCanvas, "Drawing area");
         
         programTextArea = new JTextArea(30, 30);
@@ -200,9 +282,17 @@ public class Logo extends JFrame implements Runnable {
         fileMenu.add(loadMenuItem);
         fileMenu.add(saveMenuItem);
         fileMenu.add(saveAsMenuItem);
+        fileMenu.addSeparator();
+        fileMenu.add(exportMenuItem);
+        JMenu optionsMenu = new JMenu("Options");
+        menuBar.add(optionsMenu);
+        optionsMenu.add(deepRecursionMenuItem);
+        optionsMenu.add(cacheMenuItem);
+        optionsMenu.add(parallelMenuItem);
         this.setJMenuBar(menuBar);
         
         saveMenuItem.setEnabled(false);
+        exportMenuItem.setEnabled(false);
         
         setLayout(new BorderLayout());
 
@@ -266,6 +356,13 @@ public class Logo extends JFrame implements Runnable {
                 saveFileAs();
             }
         });
+        // Export PNG...
+        exportMenuItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent arg0) {
+                exportPng();
+            }
+        });
         // Parse
         parseButton.addActionListener(new ActionListener() {
             @Override
@@ -302,13 +399,15 @@ public class Logo extends JFrame implements Runnable {
                 if ("Pause".equals(pauseButton.getText())) {
                     pauseButton.setText("Resume");
                     clearButton.setEnabled(true);
-                    interpreter.pauseTurtle();
+                    exportMenuItem.setEnabled(true);
+                    playback.pause();
                     displayStatus("Turtle is paused.");
                 }
                 else {
                     pauseButton.setText("Pause");
                     clearButton.setEnabled(false);
-                    interpreter.resumeTurtle();
+                    exportMenuItem.setEnabled(false);
+                    playback.resume();
                     displayStatus("");
                 }
             }
@@ -317,6 +416,7 @@ public class Logo extends JFrame implements Runnable {
         clearButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent arg0) {
+                timelineSlider.setEnabled(false);
                 canvas.clear();
             }
         });
@@ -325,14 +425,25 @@ public class Logo extends JFrame implements Runnable {
             @Override
             public void actionPerformed(ActionEvent arg0) { 
             	interpreter.stopDrawing();
+            	playback.revealAll();
             	startButton.setEnabled(true);
                 pauseButton.setEnabled(false);
                 stopButton.setEnabled(false);
                 clearButton.setEnabled(true);
+                exportMenuItem.setEnabled(true);
                 programTextArea.setEditable(true);
             	return;
             }
         });
+        // Scrub through the finished drawing
+        timelineSlider.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                if (!timelineSlider.isEnabled()) return;
+                int step = timelineSlider.getValue();
+                canvas.showStep(step == timelineSlider.getMaximum() ? -1 : step);
+                displayStatus("Step " + step + " of " + timelineSlider.getMaximum());
+            }
+        });
         // Set speed
         speedControlSlider.addChangeListener(new ChangeListener() {
             public void stateChanged(ChangeEvent e) {
@@ -550,14 +661,64 @@ public class Logo extends JFrame implements Runnable {
     }
     
     /**
-     * Changes the speed at which the turtle draws, to correspond to
+     * Asks the user for a file and a scale, and writes the drawing to the
+     * file as a PNG image that many times the size of the drawing area.
+     * The image is written on another thread, a strip at a time, so that
+     * even a poster-sized image neither holds up the GUI nor needs to fit
+     * in memory. Programs may be run and the drawing cleared meanwhile;
+     * the image is of the drawing as it was when the export began.
+     */
+    void exportPng() {
+        FileDialog dialog = new FileDialog(new JFrame(), "Export the drawing as a PNG image",
+                                           FileDialog.SAVE);
+        dialog.setVisible(true);
+        String directory = dialog.getDirectory();
+        String file = dialog.getFile();
+        if (directory == null || file == null)
+            return;
+        final String fileName = file.toLowerCase().endsWith(".png") ? directory + file : directory + file + ".png";
+
+        String answer = JOptionPane.showInputDialog(logoGui, "Scale (pixels of the image per pixel of the drawing):",
+                                                    "1");
+        if (answer == null)
+            return;
+        final double scale;
+        try {
+            scale = Double.parseDouble(answer.trim());
+        }
+        catch (NumberFormatException e) {
+            displayStatus("Not a scale: " + answer);
+            return;
+        }
+
+        displayStatus("Exporting " + fileName + "...");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    canvas.exportPng(new File(fileName).toPath(), scale);
+                    displayStatus("Exported " + fileName);
+                }
+                catch (IOException e) {
+                    displayStatus("Problem writing image: " + fileName);
+                }
+                catch (RuntimeException e) {
+                    displayStatus(e.getMessage());
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Changes the speed at which the drawing is shown, to correspond to
      * the speed set by the speed control slider. A speed of zero
      * means no movement, while the maximum speed available on the
-     * slider means that there is no delay between turtle actions.
+     * slider shows the drawing as soon as it is made. The interpreter
+     * itself always runs at full speed.
      * @param speed speed at which the turtle moves
      */
     private void changeSpeed(int speed) {
-        interpreter.setTurtleSpeed(speed);
+        if (playback != null) playback.setSpeed(speed);
     }
 
     /**
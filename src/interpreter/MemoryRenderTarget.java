@@ -0,0 +1,186 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A render target that only keeps the drawing commands in memory, for
+ * running Logo programs without a display (for example, with
+ * <code>java.awt.headless=true</code>). Its size is fixed when it is
+ * created. A very large drawing can be kept in a memory-mapped file
+ * rather than on the heap (see <code>DisplayList</code>).
+ */
+public class MemoryRenderTarget implements RenderTarget {
+    private final int width;
+    private final int height;
+    private final DisplayList turtleCommands;
+    private volatile double[] turtlePose = new double[4];
+
+    /**
+     * Creates an empty drawing of the given size.
+     *
+     * @param width The width, in pixels.
+     * @param height The height, in pixels.
+     */
+    public MemoryRenderTarget(int width, int height) {
+        this(width, height, DisplayList.defaultSpillDirectory());
+    }
+
+    /**
+     * Creates an empty drawing of the given size, kept in a file in the
+     * given directory. The file is deleted when the drawing is cleared.
+     *
+     * @param width The width, in pixels.
+     * @param height The height, in pixels.
+     * @param spillDirectory The directory, or <code>null</code> to keep
+     *        the drawing on the heap.
+     */
+    public MemoryRenderTarget(int width, int height, Path spillDirectory) {
+        this.width = width;
+        this.height = height;
+        turtleCommands = new DisplayList(spillDirectory);
+    }
+
+    @Override
+    public int getCanvasWidth() {
+        return width;
+    }
+
+    @Override
+    public int getCanvasHeight() {
+        return height;
+    }
+
+    @Override
+    public synchronized void clear() {
+        turtleCommands.clear();
+    }
+
+    @Override
+    public synchronized void addCommand(TurtleCommand turtleCommand) {
+        turtleCommands.add(turtleCommand);
+    }
+
+    @Override
+    public synchronized void addCommands(Collection<TurtleCommand> commands) {
+        for (TurtleCommand command : commands) {
+            turtleCommands.add(command);
+        }
+    }
+
+    @Override
+    public synchronized void addLine(double x1, double y1, double x2, double y2) {
+        turtleCommands.addLine(x1, y1, x2, y2);
+    }
+
+    @Override
+    public synchronized int getCommandCount() {
+        return turtleCommands.size();
+    }
+
+    @Override
+    public synchronized void truncate(int count) {
+        turtleCommands.truncate(count);
+    }
+
+    @Override
+    public void setTurtlePose(double x, double y, double headingX, double headingY) {
+        turtlePose = new double[] { x, y, headingX, headingY };
+    }
+
+    @Override
+    public void repaint() {
+        // nothing is shown
+    }
+
+    /**
+     * Returns the commands drawn so far.
+     *
+     * @return A copy of the list of commands, in the order they were drawn.
+     */
+    public synchronized List<TurtleCommand> getCommands() {
+        return turtleCommands.toCommands(0, turtleCommands.size());
+    }
+
+    /**
+     * Returns how many lines have been drawn.
+     *
+     * @return The number of line commands.
+     */
+    public synchronized int getLineCount() {
+        return turtleCommands.getLineCount();
+    }
+
+    /**
+     * Returns the list of commands itself, for measuring how fast it is
+     * drawn.
+     *
+     * @return The display list, which must not be changed.
+     */
+    synchronized DisplayList getDisplayList() {
+        return turtleCommands;
+    }
+
+    /**
+     * Returns where the turtle last said it was.
+     *
+     * @return Its x and y coordinates on the canvas, and the x and y
+     *         components of the unit vector it faces.
+     */
+    public double[] getTurtlePose() {
+        return turtlePose.clone();
+    }
+
+    /**
+     * Executes the commands on a Graphics, as a DrawingArea would, but
+     * without showing the turtle.
+     *
+     * @param g The Graphics on which to draw.
+     */
+    public synchronized void paint(Graphics g) {
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLACK);
+        turtleCommands.draw(g, new DisplayList.Cursor(), turtleCommands.size());
+    }
+
+    /**
+     * Executes the commands on an image, as <code>paint(Graphics)</code>
+     * does; a large drawing is drawn tile by tile on all processors (see
+     * <code>TileRasterizer</code>), with the same result.
+     *
+     * @param image The image on which to draw.
+     */
+    public synchronized void paint(BufferedImage image) {
+        if (!TileRasterizer.isWorthwhile(turtleCommands.size())) {
+            Graphics g = image.createGraphics();
+            paint(g);
+            g.dispose();
+            return;
+        }
+        Graphics g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        TileRasterizer.draw(turtleCommands, image, Color.BLACK, new DisplayList.Cursor(), turtleCommands.size());
+    }
+
+    /**
+     * Writes the drawing to a PNG file, enlarged or shrunk, a strip at a
+     * time (see <code>PngExport</code>). At scale 1 the image is the
+     * same as one made with <code>paint</code>.
+     *
+     * @param file The file to write.
+     * @param scale How many pixels of the image a pixel of the drawing
+     *        covers.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void exportPng(Path file, double scale) throws IOException {
+        PngExport.write(turtleCommands, turtleCommands.size(), width, height, scale, file);
+    }
+}
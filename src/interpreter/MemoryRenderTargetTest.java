@@ -0,0 +1,31 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the MemoryRenderTarget.
+ */
+public class MemoryRenderTargetTest {
+    /**
+     * Test method for {@link interpreter.MemoryRenderTarget}.
+     */
+    @Test
+    public void testMemoryRenderTarget() {
+        MemoryRenderTarget target = new MemoryRenderTarget(200, 100);
+        Interpreter interpreter = DrawingFixtures.run("jump -50 20\nforward 10\nset x getX\nset y getY\n", target);
+        assertEquals(-40.0, interpreter.fetch("x"), 1e-9);
+        assertEquals(20.0, interpreter.fetch("y"), 1e-9);
+        List<TurtleCommand> drawn = target.getCommands();
+        assertEquals(1, drawn.size());
+        DrawLineCommand line = (DrawLineCommand) drawn.get(0);
+        assertEquals(50.0, line.x1, 1e-9);
+        assertEquals(30.0, line.y1, 1e-9);
+        assertEquals(60.0, line.x2, 1e-9);
+        target.clear();
+        assertTrue(target.getCommands().isEmpty());
+    }
+}
@@ -0,0 +1,464 @@
+package interpreter;
+
+import java.util.Map;
+
+/**
+ * An executable form of a Logo statement. A program is compiled once into a
+ * tree of Nodes by the <code>ProgramCompiler</code>; each Node holds its
+ * children and constants already resolved, so executing it does no string
+ * comparisons, arity checks or token lookups.
+ */
+abstract class Node {
+
+    /**
+     * Executes this statement.
+     *
+     * @param interpreter The interpreter that owns the turtle and variables.
+     */
+    abstract void execute(Interpreter interpreter);
+
+    /**
+     * A whole program: the main block plus the procedure definitions.
+     */
+    static final class ProgramNode extends Node {
+        final Node main;
+        final Map<String, ProcedureNode> procedures;
+
+        ProgramNode(Node main, Map<String, ProcedureNode> procedures) {
+            this.main = main;
+            this.procedures = procedures;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.defineProcedures(procedures);
+            main.execute(interpreter);
+        }
+    }
+
+    /**
+     * A procedure definition. It is not itself executed; a CallNode
+     * binds the parameters and runs the body. Every parameter and local
+     * variable has a fixed slot in the procedure's activation record.
+     * <p>
+     * The procedure also counts how often it is called and how many loop
+     * iterations its body performs; once it is hot, the interpreter
+     * replaces the body with a compiled version. Only interpreters that
+     * compile update the counts; turtles spawned in parallel just read the
+     * compiled version. The GeometryCache decides whether its drawing
+     * depends only on its arguments.
+     */
+    static final class ProcedureNode {
+        final String name;
+        final int[] parameterSlots;
+        final int frameSize;
+        Node body;
+        int invocations;
+        int backedges;
+        volatile CompiledProcedure compiled;
+        boolean uncompilable;
+        boolean relative;
+        int[] sharedGlobals = new int[0];
+
+        ProcedureNode(String name, int[] parameterSlots, int frameSize) {
+            this.name = name;
+            this.parameterSlots = parameterSlots;
+            this.frameSize = frameSize;
+        }
+    }
+
+    /**
+     * A sequence of statements. Execution stops early if the user has
+     * pressed Stop.
+     */
+    static final class BlockNode extends Node {
+        final Node[] statements;
+
+        BlockNode(Node[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            for (Node statement : statements) {
+                if (interpreter.isStopped()) return;
+                statement.execute(interpreter);
+            }
+        }
+    }
+
+    /**
+     * The <code>penup</code> command.
+     */
+    static final class PenUpNode extends Node {
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().penup();
+        }
+    }
+
+    /**
+     * The <code>pendown</code> command.
+     */
+    static final class PenDownNode extends Node {
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().pendown();
+        }
+    }
+
+    /**
+     * The <code>home</code> command.
+     */
+    static final class HomeNode extends Node {
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().home();
+        }
+    }
+
+    /**
+     * The <code>forward</code> command.
+     */
+    static final class ForwardNode extends Node {
+        final ExpressionNode distance;
+
+        ForwardNode(ExpressionNode distance) {
+            this.distance = distance;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().forward(distance.evaluate(interpreter));
+        }
+    }
+
+    /**
+     * The <code>left</code> command.
+     */
+    static final class LeftNode extends Node {
+        final ExpressionNode angle;
+
+        LeftNode(ExpressionNode angle) {
+            this.angle = angle;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().left(angle.evaluate(interpreter));
+        }
+    }
+
+    /**
+     * The <code>right</code> command.
+     */
+    static final class RightNode extends Node {
+        final ExpressionNode angle;
+
+        RightNode(ExpressionNode angle) {
+            this.angle = angle;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().right(angle.evaluate(interpreter));
+        }
+    }
+
+    /**
+     * The <code>face</code> command.
+     */
+    static final class FaceNode extends Node {
+        final ExpressionNode angle;
+
+        FaceNode(ExpressionNode angle) {
+            this.angle = angle;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().face(angle.evaluate(interpreter));
+        }
+    }
+
+    /**
+     * The <code>jump</code> command.
+     */
+    static final class JumpNode extends Node {
+        final ExpressionNode x;
+        final ExpressionNode y;
+
+        JumpNode(ExpressionNode x, ExpressionNode y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().setPosition(x.evaluate(interpreter), y.evaluate(interpreter));
+        }
+    }
+
+    /**
+     * The <code>set</code> command at the top level of the program, where
+     * every variable is global.
+     */
+    static final class GlobalSetNode extends Node {
+        final String name;
+        final int slot;
+        final ExpressionNode value;
+
+        GlobalSetNode(String name, int slot, ExpressionNode value) {
+            this.name = name;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.globals[slot] = value.evaluate(interpreter);
+            interpreter.globalDefined[slot] = true;
+        }
+    }
+
+    /**
+     * The <code>set</code> command applied to a procedure parameter.
+     */
+    static final class LocalSetNode extends Node {
+        final String name;
+        final int slot;
+        final ExpressionNode value;
+
+        LocalSetNode(String name, int slot, ExpressionNode value) {
+            this.name = name;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.locals[slot] = value.evaluate(interpreter);
+        }
+    }
+
+    /**
+     * The <code>set</code> command applied, inside a procedure, to a name
+     * that is not a parameter. An existing local is updated first, then
+     * an existing global; otherwise a new local is created.
+     */
+    static final class ScopedSetNode extends Node {
+        final String name;
+        final int localSlot;
+        final int globalSlot;
+        final ExpressionNode value;
+
+        ScopedSetNode(String name, int localSlot, int globalSlot, ExpressionNode value) {
+            this.name = name;
+            this.localSlot = localSlot;
+            this.globalSlot = globalSlot;
+            this.value = value;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            double result = value.evaluate(interpreter);
+            if (!interpreter.localDefined[localSlot] && interpreter.globalDefined[globalSlot]) {
+                interpreter.globals[globalSlot] = result;
+            }
+            else {
+                interpreter.locals[localSlot] = result;
+                interpreter.localDefined[localSlot] = true;
+            }
+        }
+    }
+
+    /**
+     * The <code>repeat</code> command. As in Logo, the count is
+     * re-evaluated before every iteration. A loop whose body only moves,
+     * turns and draws may be marked to run in parallel.
+     */
+    static final class RepeatNode extends Node {
+        final ExpressionNode count;
+        final Node body;
+        final ProcedureNode owner;
+        final boolean parallel;
+
+        RepeatNode(ExpressionNode count, Node body, ProcedureNode owner, boolean parallel) {
+            this.count = count;
+            this.body = body;
+            this.owner = owner;
+            this.parallel = parallel;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            if (parallel) ParallelRepeat.execute(interpreter, this);
+            else iterate(interpreter, 0);
+        }
+
+        /**
+         * Executes the iterations of the loop from the given one on.
+         *
+         * @param interpreter The interpreter running the program.
+         * @param first The number of iterations already done.
+         */
+        void iterate(Interpreter interpreter, int first) {
+            for (int i = first; i < count.evaluate(interpreter); i++) {
+                if (interpreter.isStopped()) return;
+                body.execute(interpreter);
+                if (owner != null && interpreter.isCompiling()) owner.backedges++;
+            }
+        }
+    }
+
+    /**
+     * The <code>while</code> command.
+     */
+    static final class WhileNode extends Node {
+        final ConditionNode condition;
+        final Node body;
+        final ProcedureNode owner;
+
+        WhileNode(ConditionNode condition, Node body, ProcedureNode owner) {
+            this.condition = condition;
+            this.body = body;
+            this.owner = owner;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            while (condition.test(interpreter)) {
+                if (interpreter.isStopped()) return;
+                body.execute(interpreter);
+                if (owner != null && interpreter.isCompiling()) owner.backedges++;
+            }
+        }
+    }
+
+    /**
+     * The <code>if</code> command, with an optional <code>else</code> part.
+     */
+    static final class IfNode extends Node {
+        final ConditionNode condition;
+        final Node thenPart;
+        final Node elsePart;
+
+        IfNode(ConditionNode condition, Node thenPart, Node elsePart) {
+            this.condition = condition;
+            this.thenPart = thenPart;
+            this.elsePart = elsePart;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            if (condition.test(interpreter)) thenPart.execute(interpreter);
+            else if (elsePart != null) elsePart.execute(interpreter);
+        }
+    }
+
+    /**
+     * The <code>do</code> command: a call of a user-defined procedure.
+     * The procedure is linked when the program is compiled.
+     */
+    static final class CallNode extends Node {
+        final ProcedureNode procedure;
+        final ExpressionNode[] arguments;
+
+        CallNode(ProcedureNode procedure, ExpressionNode[] arguments) {
+            this.procedure = procedure;
+            this.arguments = arguments;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.callProcedure(procedure, arguments);
+        }
+    }
+
+    /**
+     * The <code>spawn</code> command: calls a procedure with a new turtle
+     * that runs alongside the one that spawned it.
+     */
+    static final class SpawnNode extends Node {
+        final ProcedureNode procedure;
+        final ExpressionNode[] arguments;
+
+        SpawnNode(ProcedureNode procedure, ExpressionNode[] arguments) {
+            this.procedure = procedure;
+            this.arguments = arguments;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.spawn(procedure, arguments);
+        }
+    }
+
+    /**
+     * The <code>join</code> command: waits for the spawned turtles.
+     */
+    static final class JoinNode extends Node {
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.join();
+        }
+    }
+
+    /**
+     * A statement that can only fail, such as a call of an undefined
+     * procedure. The error is reported when (and if) it is reached.
+     */
+    static final class ErrorNode extends Node {
+        final String message;
+
+        ErrorNode(String message) {
+            this.message = message;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            throw new RuntimeException(message);
+        }
+    }
+
+    /**
+     * A named color command such as <code>red</code>.
+     */
+    static final class ColorNameNode extends Node {
+        final String colorName;
+
+        ColorNameNode(String colorName) {
+            this.colorName = colorName;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            interpreter.getTurtle().color(colorName);
+        }
+    }
+
+    /**
+     * The <code>color</code> command with red, green and blue components.
+     */
+    static final class ColorNode extends Node {
+        final ExpressionNode red;
+        final ExpressionNode green;
+        final ExpressionNode blue;
+
+        ColorNode(ExpressionNode red, ExpressionNode green, ExpressionNode blue) {
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            int r = (int) red.evaluate(interpreter);
+            int g = (int) green.evaluate(interpreter);
+            int b = (int) blue.evaluate(interpreter);
+            if (r > 255 || r < 0 || g > 255 || g < 0 || b > 255 || b < 0)
+                throw new RuntimeException("Input color is out of range!");
+            interpreter.getTurtle().color((r << 16) + (g << 8) + b);
+        }
+    }
+}
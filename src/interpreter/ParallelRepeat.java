@@ -0,0 +1,312 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import interpreter.ExpressionNode.BinaryOpNode;
+import interpreter.ExpressionNode.GetXNode;
+import interpreter.ExpressionNode.GetYNode;
+import interpreter.ExpressionNode.NegateNode;
+import interpreter.Node.BlockNode;
+import interpreter.Node.ColorNameNode;
+import interpreter.Node.ColorNode;
+import interpreter.Node.ErrorNode;
+import interpreter.Node.ForwardNode;
+import interpreter.Node.IfNode;
+import interpreter.Node.LeftNode;
+import interpreter.Node.PenDownNode;
+import interpreter.Node.PenUpNode;
+import interpreter.Node.RepeatNode;
+import interpreter.Node.RightNode;
+
+/**
+ * Runs long <code>repeat</code> loops with rigid bodies on all processors.
+ * <p>
+ * A body is <em>rigid</em> if it only moves, turns, draws and chooses
+ * colors: it sets no variables, calls no procedures, never reads
+ * <code>getX</code> or <code>getY</code>, and never uses <code>home</code>,
+ * <code>jump</code> or <code>face</code>. Every iteration of such a body
+ * then draws the same figure relative to the turtle and moves the turtle by
+ * the same rigid transform, so iteration k starts from the first
+ * iteration's starting pose under the transform applied k times.
+ * <p>
+ * The first iteration is executed normally and recorded. The iterations
+ * that remain are run in waves of about <code>WAVE_COMMANDS</code>
+ * commands, each wave starting where the one before ended, so that only
+ * one wave's commands are held in memory before they reach the canvas.
+ * A wave is divided into chunks, and the starting pose of every chunk is
+ * found by a parallel prefix scan: each chunk composes the transform over
+ * its own length, the chunk transforms are combined in order, and then each
+ * chunk generates its drawing commands from its starting pose. The chunks
+ * run on the common fork/join pool, and their commands reach the canvas in
+ * program order. Poses computed this way agree with sequential execution to
+ * within floating-point rounding.
+ */
+final class ParallelRepeat {
+    /** How many chunks to make for each processor, to balance the load. */
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+    /** About how many commands a wave generates before they are drawn. */
+    private static final int WAVE_COMMANDS = 1 << 16;
+
+    private ParallelRepeat() {
+        // static methods only
+    }
+
+    /**
+     * Tells whether a <code>repeat</code> loop has a rigid body and a count
+     * that the body cannot change.
+     *
+     * @param count The count of the loop.
+     * @param body The body of the loop.
+     * @return <code>true</code> if the loop may be run in parallel.
+     */
+    static boolean isRigid(ExpressionNode count, Node body) {
+        return isFixed(count) && isRigid(body);
+    }
+
+    /**
+     * Tells whether a statement is rigid.
+     *
+     * @param node The statement.
+     * @return <code>true</code> if it only moves, turns, draws and chooses colors.
+     */
+    private static boolean isRigid(Node node) {
+        if (node instanceof BlockNode) {
+            for (Node statement : ((BlockNode) node).statements) {
+                if (!isRigid(statement)) return false;
+            }
+            return true;
+        }
+        if (node instanceof PenUpNode || node instanceof PenDownNode
+                || node instanceof ColorNameNode || node instanceof ErrorNode) {
+            return true;
+        }
+        if (node instanceof ForwardNode) return isFixed(((ForwardNode) node).distance);
+        if (node instanceof LeftNode) return isFixed(((LeftNode) node).angle);
+        if (node instanceof RightNode) return isFixed(((RightNode) node).angle);
+        if (node instanceof ColorNode) {
+            ColorNode color = (ColorNode) node;
+            return isFixed(color.red) && isFixed(color.green) && isFixed(color.blue);
+        }
+        if (node instanceof RepeatNode) {
+            RepeatNode repeat = (RepeatNode) node;
+            return isRigid(repeat.count, repeat.body);
+        }
+        if (node instanceof IfNode) {
+            IfNode choice = (IfNode) node;
+            return isFixed(choice.condition.left) && isFixed(choice.condition.right)
+                    && isRigid(choice.thenPart) && (choice.elsePart == null || isRigid(choice.elsePart));
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether an expression has the same value throughout a rigid
+     * loop: since nothing in the loop sets a variable, only the turtle's
+     * position can change.
+     *
+     * @param expression The expression.
+     * @return <code>true</code> if it reads neither <code>getX</code> nor <code>getY</code>.
+     */
+    private static boolean isFixed(ExpressionNode expression) {
+        if (expression instanceof GetXNode || expression instanceof GetYNode) return false;
+        if (expression instanceof NegateNode) return isFixed(((NegateNode) expression).operand);
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode operation = (BinaryOpNode) expression;
+            return isFixed(operation.left) && isFixed(operation.right);
+        }
+        return true;
+    }
+
+    /**
+     * Executes a rigid <code>repeat</code> loop. Loops with fewer iterations
+     * than the interpreter's threshold, and loops whose body changes the
+     * state of the pen, are executed sequentially.
+     *
+     * @param interpreter The interpreter running the program.
+     * @param loop The loop.
+     */
+    static void execute(Interpreter interpreter, RepeatNode loop) {
+        double count = loop.count.evaluate(interpreter);
+        if (!(count >= interpreter.getParallelRepeatThreshold()) || count > Integer.MAX_VALUE) {
+            loop.iterate(interpreter, 0);
+            return;
+        }
+        int total = (int) Math.ceil(count);
+        if (interpreter.isStopped()) return;
+
+        Turtle turtle = interpreter.getTurtle();
+        double x = turtle.getCanvasX();
+        double y = turtle.getCanvasY();
+        double heading = turtle.getHeading();
+        boolean penDown = turtle.isPenDown();
+        RelativeDrawing step;
+        int start = turtle.startRecording();
+        try {
+            loop.body.execute(interpreter);
+            List<TurtleCommand> recorded = turtle.getRecording();
+            step = new RelativeDrawing(recorded.subList(start, recorded.size()), x, y, heading, turtle);
+        }
+        finally {
+            turtle.stopRecording();
+        }
+        if (loop.owner != null && interpreter.isCompiling()) loop.owner.backedges++;
+        if (step.penDown != penDown) {
+            loop.iterate(interpreter, 1);
+            return;
+        }
+        if (interpreter.isStopped() || total == 1) return;
+
+        x = turtle.getCanvasX();
+        y = turtle.getCanvasY();
+        heading = turtle.getHeading();
+        int wave = step.commands.length == 0 ? total : Math.max(1, WAVE_COMMANDS / step.commands.length);
+        for (int done = 1; done < total && !interpreter.isStopped(); ) {
+            int iterations = Math.min(wave, total - done);
+            Scan scan = new Scan(step, iterations, x, y, heading);
+            for (TurtleCommand[] commands : scan.commands) {
+                turtle.emitAll(Arrays.asList(commands));
+            }
+            if (loop.owner != null && interpreter.isCompiling()) loop.owner.backedges += iterations;
+            x = scan.endX;
+            y = scan.endY;
+            heading = scan.endHeading;
+            done += iterations;
+        }
+        turtle.setPose(x, y, heading, penDown);
+    }
+
+    /**
+     * The parallel prefix scan over the iterations after the first.
+     */
+    private static final class Scan {
+        final RelativeDrawing step;
+        final int[] first;
+        final double[] startX, startY, startHeading;
+        final double[] moveX, moveY, moveHeading;
+        final TurtleCommand[][] commands;
+        double endX, endY, endHeading;
+
+        /**
+         * Computes the commands of the given number of iterations.
+         *
+         * @param step The drawing and transform of one iteration.
+         * @param iterations How many iterations to compute.
+         * @param x The canvas x coordinate at which the first of them starts.
+         * @param y The canvas y coordinate at which the first of them starts.
+         * @param heading The heading with which the first of them starts.
+         */
+        Scan(RelativeDrawing step, int iterations, double x, double y, double heading) {
+            this.step = step;
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int chunks = Math.max(1, Math.min(iterations, CHUNKS_PER_PROCESSOR * pool.getParallelism()));
+            first = new int[chunks + 1];
+            for (int c = 0; c <= chunks; c++) {
+                first[c] = (int) ((long) iterations * c / chunks);
+            }
+            startX = new double[chunks + 1];
+            startY = new double[chunks + 1];
+            startHeading = new double[chunks + 1];
+            moveX = new double[chunks];
+            moveY = new double[chunks];
+            moveHeading = new double[chunks];
+            commands = new TurtleCommand[chunks][];
+
+            // each chunk's transform, then the starting pose of every chunk
+            pool.invoke(new Phase(this, 0, chunks, false));
+            startX[0] = x;
+            startY[0] = y;
+            startHeading[0] = heading;
+            for (int c = 0; c < chunks; c++) {
+                double cos = Turtle.cosine(startHeading[c]);
+                double sin = Turtle.sine(startHeading[c]);
+                startX[c + 1] = startX[c] + moveX[c] * cos - moveY[c] * sin;
+                startY[c + 1] = startY[c] + moveX[c] * sin + moveY[c] * cos;
+                startHeading[c + 1] = Turtle.bringIntoRange(startHeading[c] + moveHeading[c]);
+            }
+            endX = startX[chunks];
+            endY = startY[chunks];
+            endHeading = startHeading[chunks];
+
+            // the commands of every chunk, from its starting pose
+            if (step.commands.length > 0) {
+                pool.invoke(new Phase(this, 0, chunks, true));
+            }
+            else {
+                Arrays.fill(commands, new TurtleCommand[0]);
+            }
+        }
+
+        /**
+         * Composes the transform of one iteration over a chunk.
+         *
+         * @param c The chunk.
+         */
+        void compose(int c) {
+            double x = 0, y = 0, heading = 0;
+            for (int i = first[c]; i < first[c + 1]; i++) {
+                double cos = Turtle.cosine(heading);
+                double sin = Turtle.sine(heading);
+                x += step.endX * cos - step.endY * sin;
+                y += step.endX * sin + step.endY * cos;
+                heading = Turtle.bringIntoRange(heading + step.turn);
+            }
+            moveX[c] = x;
+            moveY[c] = y;
+            moveHeading[c] = heading;
+        }
+
+        /**
+         * Generates the commands of a chunk.
+         *
+         * @param c The chunk.
+         */
+        void draw(int c) {
+            long size = (long) (first[c + 1] - first[c]) * step.commands.length;
+            if (size > Integer.MAX_VALUE) throw new RuntimeException("Too many commands in one repeat");
+            TurtleCommand[] out = new TurtleCommand[(int) size];
+            double x = startX[c], y = startY[c], heading = startHeading[c];
+            int at = 0;
+            for (int i = first[c]; i < first[c + 1]; i++) {
+                double cos = Turtle.cosine(heading);
+                double sin = Turtle.sine(heading);
+                at = step.drawInto(out, at, x, y, cos, sin);
+                x += step.endX * cos - step.endY * sin;
+                y += step.endX * sin + step.endY * cos;
+                heading = Turtle.bringIntoRange(heading + step.turn);
+            }
+            commands[c] = out;
+        }
+    }
+
+    /**
+     * One phase of the scan over a range of chunks, split in halves
+     * until a single chunk remains.
+     */
+    private static final class Phase extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Scan scan;
+        private final int from, to;
+        private final boolean drawing;
+
+        Phase(Scan scan, int from, int to, boolean drawing) {
+            this.scan = scan;
+            this.from = from;
+            this.to = to;
+            this.drawing = drawing;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                if (drawing) scan.draw(from);
+                else scan.compose(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Phase(scan, from, middle, drawing), new Phase(scan, middle, to, drawing));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package interpreter;
+
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
+
+/**
+ * Shows a drawing a few commands at a time, so that the user can watch
+ * the turtle draw, without slowing down the interpreter that makes it.
+ * <p>
+ * The interpreter always runs at full speed and adds its commands to the
+ * canvas; once every frame, this reveals some more of them. The speed
+ * sets how many commands are revealed per frame, from none (speed 0) to
+ * everything at once (speed 100). Pausing only stops the revealing; the
+ * interpreter carries on, and its drawing is waiting when the playback
+ * resumes.
+ */
+final class Playback implements ActionListener {
+    /** The speed at which the drawing is shown as soon as it is made. */
+    static final int INSTANT = 100;
+    /** The refresh rate assumed if the display does not report one. */
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final DrawingArea canvas;
+    private final Timer timer;
+    private int speed = 50;
+    private boolean paused;
+    private boolean running;
+    private int shown;
+
+    /**
+     * Prepares to show drawings on a canvas.
+     *
+     * @param canvas Where the drawings are made.
+     */
+    Playback(DrawingArea canvas) {
+        this.canvas = canvas;
+        timer = new Timer(1000 / refreshRate(), this);
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Returns the refresh rate of the default screen, in frames per
+     * second.
+     */
+    static int refreshRate() {
+        if (GraphicsEnvironment.isHeadless()) return DEFAULT_REFRESH_RATE;
+        DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDisplayMode();
+        int rate = mode.getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+    }
+
+    /**
+     * Returns how many commands are revealed per frame at a speed. The
+     * number doubles every seven steps, from 1 at speed 1 to a little
+     * over 10000 at speed 99.
+     *
+     * @param speed A speed between 1 and 99.
+     * @return The number of commands per frame.
+     */
+    static int commandsPerFrame(int speed) {
+        return (int) Math.pow(2, (speed - 1) / 7.0);
+    }
+
+    /**
+     * Sets how fast the drawing is shown.
+     *
+     * @param speed The speed, from 0 (not at all) to 100 (instantly).
+     */
+    synchronized void setSpeed(int speed) {
+        this.speed = speed;
+        update();
+    }
+
+    /**
+     * Stops showing more of the drawing, until <code>resume</code> is
+     * called.
+     */
+    synchronized void pause() {
+        paused = true;
+        shown = Math.min(shown, canvas.getCommandCount());
+        canvas.setRevealed(shown);
+        update();
+    }
+
+    /**
+     * Carries on showing the drawing after a pause.
+     */
+    synchronized void resume() {
+        paused = false;
+        update();
+    }
+
+    /**
+     * Tells the playback that the interpreter is about to run. What is
+     * already on the canvas stays shown; the new commands are revealed as
+     * they come.
+     */
+    synchronized void start() {
+        running = true;
+        paused = false;
+        shown = speed == INSTANT ? Integer.MAX_VALUE : canvas.getCommandCount();
+        canvas.setRevealed(shown);
+        update();
+    }
+
+    /**
+     * Tells the playback that the interpreter has finished. The rest of
+     * the drawing is still revealed at the current speed, unless it is
+     * to be shown instantly.
+     */
+    synchronized void finish() {
+        running = false;
+        if (speed == INSTANT) revealAll();
+        else update();
+    }
+
+    /**
+     * Shows the whole drawing at once, as when the user stops the run.
+     */
+    synchronized void revealAll() {
+        shown = Integer.MAX_VALUE;
+        canvas.setRevealed(shown);
+        timer.stop();
+    }
+
+    /**
+     * Starts or stops the timer, depending on whether there is anything
+     * to reveal. While the interpreter runs, the timer keeps going even
+     * when the drawing is shown instantly, so that the canvas is repainted
+     * once a frame.
+     */
+    private void update() {
+        if (speed == INSTANT && !paused) {
+            shown = Integer.MAX_VALUE;
+            canvas.setRevealed(shown);
+        }
+        boolean caughtUp = shown >= canvas.getCommandCount();
+        if (paused || speed <= 0 || !running && caughtUp) {
+            timer.stop();
+        }
+        else if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Reveals the commands for one more frame.
+     *
+     * @param event The timer's event.
+     */
+    @Override
+    public synchronized void actionPerformed(ActionEvent event) {
+        int count = canvas.getCommandCount();
+        if (shown > count) shown = count;
+        if (speed == INSTANT) shown = count;
+        else shown += Math.min(commandsPerFrame(speed), count - shown);
+        canvas.setRevealed(shown);
+        if (!running && shown >= count) timer.stop();
+    }
+}
@@ -0,0 +1,26 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Playback.
+ */
+public class PlaybackTest {
+    /**
+     * Test method for {@link interpreter.Playback#commandsPerFrame(int)}.
+     */
+    @Test
+    public void testCommandsPerFrame() {
+        assertEquals(1, Playback.commandsPerFrame(1));
+        assertEquals(2, Playback.commandsPerFrame(8));
+        assertEquals(128, Playback.commandsPerFrame(50));
+        int previous = 0;
+        for (int speed = 1; speed < Playback.INSTANT; speed++) {
+            assertTrue(Playback.commandsPerFrame(speed) >= previous);
+            previous = Playback.commandsPerFrame(speed);
+        }
+        assertTrue(previous > 10000);
+    }
+}
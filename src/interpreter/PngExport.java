@@ -0,0 +1,378 @@
+package interpreter;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a drawing to a PNG file at any scale, without ever holding the
+ * whole image in memory, so that images of poster size (16384 pixels
+ * square and more) can be made from a drawing on the screen.
+ * <p>
+ * The image is drawn a strip of rows at a time, from the display list:
+ * the coordinates are scaled before they are rounded to whole pixels, so
+ * no detail is lost, and lines are drawn as wide as a pixel of the
+ * drawing. The rows of each strip are filtered and deflated on their own,
+ * the strips on all processors, and are written in order as they are
+ * done; every strip but the last is flushed to a byte boundary, so that
+ * together they make one deflate stream, whose checksum is put together
+ * from theirs. Only a few strips are in memory at a time, however large
+ * the image. Before any strip is drawn, the display list is read once to
+ * find the rows that each block of commands draws on; a strip then draws
+ * only the blocks that reach it, letting the Graphics clip the rest of
+ * their lines. What commands other than lines and colors draw is not
+ * known, so a list that has any is drawn whole for every strip.
+ * <p>
+ * At scale 1 the image is the same, pixel for pixel, as the drawing on
+ * the screen.
+ */
+final class PngExport {
+    /** The most pixels in a strip. */
+    static final int STRIP_PIXELS = 1 << 21;
+    /** How many commands make a block, the unit in which strips find their lines. */
+    static final int BLOCK_SIZE = 1 << 12;
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    /** The "up" filter, which stores each byte less the one above it. */
+    private static final byte FILTER_UP = 2;
+    /** The largest prime below 2^16, the modulus of Adler-32. */
+    private static final int ADLER_BASE = 65521;
+
+    private final DisplayList list;
+    private final int end;
+    private final int width;
+    private final int height;
+    private final double scale;
+    private final int stripRows;
+    /** Where each block starts, with the pen color there; null to draw everything. */
+    private DisplayList.Cursor[] blockStarts;
+    /** The first and last rows drawn on by the lines of each block. */
+    private int[] blockTops, blockBottoms;
+
+    /**
+     * The rows on which the lines given to it are drawn.
+     */
+    private static final class RowExtent implements DisplayList.LineSink {
+        private final double scale;
+        int top, bottom;
+
+        RowExtent(double scale) {
+            this.scale = scale;
+        }
+
+        void clear() {
+            top = Integer.MAX_VALUE;
+            bottom = Integer.MIN_VALUE;
+        }
+
+        @Override
+        public void add(double x1, double y1, double x2, double y2, Color color) {
+            int row1 = (int) (y1 * scale), row2 = (int) (y2 * scale);
+            top = Math.min(top, Math.min(row1, row2));
+            bottom = Math.max(bottom, Math.max(row1, row2));
+        }
+    }
+
+    /**
+     * The deflated rows of one strip.
+     */
+    private static final class Strip {
+        final byte[] data;
+        final long adler;
+        final long length;
+
+        Strip(byte[] data, long adler, long length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+
+    private PngExport(DisplayList list, int end, int width, int height, double scale, int stripRows) {
+        this.list = list;
+        this.end = end;
+        this.scale = scale;
+        double scaledWidth = Math.ceil(width * scale), scaledHeight = Math.ceil(height * scale);
+        if (!(scale > 0) || scaledWidth < 1 || scaledHeight < 1 || scaledWidth * 3 + 1 > Integer.MAX_VALUE
+                || scaledHeight > Integer.MAX_VALUE) {
+            throw new RuntimeException("Cannot export a " + width + "x" + height + " drawing at scale " + scale);
+        }
+        this.width = (int) scaledWidth;
+        this.height = (int) scaledHeight;
+        this.stripRows = Math.max(1, Math.min(stripRows, STRIP_PIXELS / this.width));
+    }
+
+    /**
+     * Writes the first commands of a display list to a PNG file.
+     *
+     * @param list The commands.
+     * @param end How many of the commands to draw.
+     * @param width The width of the drawing, in pixels.
+     * @param height The height of the drawing, in pixels.
+     * @param scale How many pixels of the image a pixel of the drawing
+     *        covers.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    static void write(DisplayList list, int end, int width, int height, double scale, Path file)
+            throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            write(list, end, width, height, scale, Integer.MAX_VALUE, out);
+        }
+    }
+
+    /**
+     * Writes the first commands of a display list as a PNG image.
+     *
+     * @param list The commands.
+     * @param end How many of the commands to draw.
+     * @param width The width of the drawing, in pixels.
+     * @param height The height of the drawing, in pixels.
+     * @param scale How many pixels of the image a pixel of the drawing
+     *        covers.
+     * @param stripRows The most rows drawn at a time.
+     * @param out Where to write the image.
+     * @throws IOException If the image cannot be written.
+     */
+    static void write(DisplayList list, int end, int width, int height, double scale, int stripRows,
+                      OutputStream out) throws IOException {
+        new PngExport(list, end, width, height, scale, stripRows).write(out);
+    }
+
+    /**
+     * Draws, encodes and writes the strips, several at a time.
+     */
+    private void write(OutputStream out) throws IOException {
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bits per sample
+        header[9] = 2; // red, green and blue
+        writeChunk(out, "IHDR", header, header.length);
+        // a zlib stream: deflate with a 32K window, no dictionary
+        writeChunk(out, "IDAT", new byte[] { 0x78, (byte) 0x9C }, 2);
+        if (!list.hasOthers()) findBlocks();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<Strip>> pending = new ArrayDeque<Future<Strip>>();
+            long adler = 1;
+            int next = 0;
+            while (next < height || !pending.isEmpty()) {
+                while (next < height && pending.size() <= threads) {
+                    final int top = next;
+                    final int rows = Math.min(stripRows, height - top);
+                    next += rows;
+                    pending.add(workers.submit(new Callable<Strip>() {
+                        @Override
+                        public Strip call() {
+                            return encode(top, rows);
+                        }
+                    }));
+                }
+                Strip strip = take(pending.removeFirst());
+                writeChunk(out, "IDAT", strip.data, strip.data.length);
+                adler = combineAdler(adler, strip.adler, strip.length);
+            }
+            byte[] checksum = new byte[4];
+            putInt(checksum, 0, (int) adler);
+            writeChunk(out, "IDAT", checksum, 4);
+            writeChunk(out, "IEND", new byte[0], 0);
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the commands once, noting where each block starts and the rows
+     * its lines are drawn on, widened by the width of the pen.
+     */
+    private void findBlocks() {
+        int blocks = (end + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockStarts = new DisplayList.Cursor[blocks];
+        blockTops = new int[blocks];
+        blockBottoms = new int[blocks];
+        int pen = (int) Math.ceil(scale) + 1;
+        RowExtent extent = new RowExtent(scale);
+        DisplayList.Cursor cursor = new DisplayList.Cursor();
+        for (int block = 0; block < blocks; block++) {
+            blockStarts[block] = cursor.clone();
+            extent.clear();
+            list.addTo(extent, cursor, Math.min(end, (block + 1) * BLOCK_SIZE));
+            blockTops[block] = extent.top - pen;
+            blockBottoms[block] = extent.bottom + pen;
+        }
+    }
+
+    /**
+     * Draws the commands that reach some rows, a run of blocks at a time.
+     *
+     * @param g The Graphics on which to draw.
+     * @param first The first row.
+     * @param last The last row.
+     */
+    private void drawRows(Graphics2D g, int first, int last) {
+        if (blockStarts == null) {
+            list.draw(g, new DisplayList.Cursor(), end, scale);
+            return;
+        }
+        for (int block = 0; block < blockStarts.length; block++) {
+            if (blockTops[block] > last || blockBottoms[block] < first) continue;
+            int next = block + 1;
+            while (next < blockStarts.length && blockTops[next] <= last && blockBottoms[next] >= first) next++;
+            DisplayList.Cursor cursor = blockStarts[block].clone();
+            g.setColor(cursor.color);
+            list.draw(g, cursor, Math.min(end, next * BLOCK_SIZE), scale);
+            block = next;
+        }
+    }
+
+    /**
+     * Draws a strip of rows, then filters and deflates them.
+     *
+     * @param top The first row.
+     * @param rows The number of rows.
+     * @return The strip.
+     */
+    private Strip encode(int top, int rows) {
+        // the row above the strip is drawn too, for the filter
+        int first = Math.max(0, top - 1);
+        int drawn = top + rows - first;
+        BufferedImage image = new BufferedImage(width, drawn, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, drawn);
+        g.translate(0, -first);
+        g.setColor(Color.BLACK);
+        if (scale > 1) g.setStroke(new BasicStroke((float) scale, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        drawRows(g, first, top + rows - 1);
+        g.dispose();
+
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        byte[] raw = new byte[rows * (1 + 3 * width)];
+        int at = 0;
+        for (int y = top; y < top + rows; y++) {
+            int row = (y - first) * width;
+            int above = y == 0 ? -1 : row - width;
+            raw[at++] = FILTER_UP;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[row + x];
+                int up = above < 0 ? 0 : pixels[above + x];
+                raw[at++] = (byte) ((rgb >> 16) - (up >> 16));
+                raw[at++] = (byte) ((rgb >> 8) - (up >> 8));
+                raw[at++] = (byte) (rgb - up);
+            }
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(raw);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 16 + 64);
+        byte[] buffer = new byte[1 << 16];
+        if (top + rows == height) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        else {
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, count);
+            } while (count == buffer.length);
+        }
+        deflater.end();
+        return new Strip(compressed.toByteArray(), adler.getValue(), raw.length);
+    }
+
+    /**
+     * Waits for a strip to be encoded.
+     */
+    private static Strip take(Future<Strip> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns the Adler-32 checksum of two pieces of data one after the
+     * other, from the checksums of each.
+     *
+     * @param first The checksum of the first piece.
+     * @param second The checksum of the second piece.
+     * @param length The length of the second piece.
+     * @return The checksum of both.
+     */
+    static long combineAdler(long first, long second, long length) {
+        long remainder = length % ADLER_BASE;
+        long sum1 = first & 0xFFFF;
+        long sum2 = remainder * sum1 % ADLER_BASE;
+        sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += (first >>> 16 & 0xFFFF) + (second >>> 16 & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= 2 * ADLER_BASE) sum2 -= 2 * ADLER_BASE;
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * Writes a chunk of a PNG file: its length, type, data and checksum.
+     */
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] bytes = new byte[8];
+        putInt(bytes, 0, length);
+        for (int i = 0; i < 4; i++) {
+            bytes[4 + i] = (byte) type.charAt(i);
+        }
+        out.write(bytes);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 4, 4);
+        crc.update(data, 0, length);
+        putInt(bytes, 0, (int) crc.getValue());
+        out.write(bytes, 0, 4);
+    }
+
+    /**
+     * Stores an integer in four bytes, most significant first.
+     */
+    private static void putInt(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) (value >>> 24);
+        bytes[at + 1] = (byte) (value >>> 16);
+        bytes[at + 2] = (byte) (value >>> 8);
+        bytes[at + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,96 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Tests for the PngExport.
+ */
+public class PngExportTest {
+    /**
+     * Test method for {@link interpreter.PngExport#write(DisplayList, int, int, int, double, int, java.io.OutputStream)}.
+     */
+    @Test
+    public void testPngExport() throws IOException {
+        MemoryRenderTarget target = new MemoryRenderTarget(120, 90);
+        DrawingFixtures.run("repeat 500 {\nred\nforward 30\nright 91\nblue\nforward 20\nleft 37\n}\n", target);
+        target.addLine(0, 0, 119, 89);
+        BufferedImage expected = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = expected.createGraphics();
+        target.paint(g);
+        g.dispose();
+
+        // strips of 7 rows make one image, the same as the screen
+        DisplayList list = target.getDisplayList();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PngExport.write(list, list.size(), 120, 90, 1, 7, bytes);
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(120, actual.getWidth());
+        assertEquals(90, actual.getHeight());
+        for (int x = 0; x < 120; x++) {
+            for (int y = 0; y < 90; y++) {
+                assertEquals(expected.getRGB(x, y) & 0xFFFFFF, actual.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+
+        bytes.reset();
+        PngExport.write(list, list.size(), 120, 90, 2.5, 16, bytes);
+        actual = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(300, actual.getWidth());
+        assertEquals(225, actual.getHeight());
+        // the last line, scaled, in the last color
+        assertEquals(0x0000FF, actual.getRGB(150, 112) & 0xFFFFFF);
+        assertEquals(0x0000FF, actual.getRGB(295, 221) & 0xFFFFFF);
+
+        // a drawing of many blocks, row by row, in thin strips that each
+        // draw only the blocks that reach them, in the color chosen before
+        int[] colors = { 0xFF0000, 0x0000FF, 0x00FF00 };
+        target = new MemoryRenderTarget(120, 90);
+        for (int y = 0; y < 90; y++) {
+            if (y % 30 == 0) target.addCommand(new ColorCommand(colors[y / 30]));
+            for (int x = 0; x < 240; x++) {
+                target.addLine(x / 2.0, y, x / 2.0 + 0.5, y + 0.5);
+            }
+        }
+        g = expected.createGraphics();
+        target.paint(g);
+        g.dispose();
+        list = target.getDisplayList();
+        assertTrue(list.size() > 4 * PngExport.BLOCK_SIZE);
+        bytes.reset();
+        PngExport.write(list, list.size(), 120, 90, 1, 3, bytes);
+        actual = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int x = 0; x < 120; x++) {
+            for (int y = 0; y < 90; y++) {
+                assertEquals(expected.getRGB(x, y) & 0xFFFFFF, actual.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+
+        try {
+            PngExport.write(list, list.size(), 120, 90, 0, 16, bytes);
+            fail();
+        }
+        catch (RuntimeException e) {
+            // a scale must be positive
+        }
+
+        byte[] data = new byte[100000];
+        new Random(3).nextBytes(data);
+        Adler32 first = new Adler32(), second = new Adler32(), both = new Adler32();
+        first.update(data, 0, 30000);
+        second.update(data, 30000, 70000);
+        both.update(data);
+        assertEquals(both.getValue(), PngExport.combineAdler(first.getValue(), second.getValue(), 70000));
+    }
+}
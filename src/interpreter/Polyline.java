@@ -0,0 +1,69 @@
+package interpreter;
+
+import java.awt.Graphics;
+
+/**
+ * Gathers lines that each start where the one before ended into a single
+ * polyline, and draws it with one call of <code>drawPolyline</code>
+ * rather than one <code>drawLine</code> per line. A turtle drawing is
+ * mostly such chains, and most of the cost of drawing a short line is in
+ * setting up the call, not in setting its pixels.
+ * <p>
+ * A polyline sets the same pixels as its lines drawn one at a time. The
+ * chain is broken by a line that starts anywhere else, and must be
+ * flushed before the color of the Graphics is changed or anything else is
+ * drawn on it.
+ */
+final class Polyline {
+    /** The most points drawn in one call. */
+    static final int CAPACITY = 4096;
+
+    private final Graphics g;
+    private final int[] xs = new int[CAPACITY];
+    private final int[] ys = new int[CAPACITY];
+    private int size;
+
+    /**
+     * Prepares to draw on a Graphics.
+     *
+     * @param g The Graphics on which to draw, in its current color.
+     */
+    Polyline(Graphics g) {
+        this.g = g;
+    }
+
+    /**
+     * Adds a line, drawing the chain so far if the line does not continue
+     * it.
+     *
+     * @param x1 The x-coordinate of the start of the line.
+     * @param y1 The y-coordinate of the start of the line.
+     * @param x2 The x-coordinate of the end of the line.
+     * @param y2 The y-coordinate of the end of the line.
+     */
+    void add(int x1, int y1, int x2, int y2) {
+        if (size == 0 || xs[size - 1] != x1 || ys[size - 1] != y1) {
+            flush();
+            xs[0] = x1;
+            ys[0] = y1;
+            size = 1;
+        }
+        else if (size == CAPACITY) {
+            flush();
+            xs[0] = x1;
+            ys[0] = y1;
+            size = 1;
+        }
+        xs[size] = x2;
+        ys[size] = y2;
+        size++;
+    }
+
+    /**
+     * Draws the chain so far, and starts a new one.
+     */
+    void flush() {
+        if (size > 1) g.drawPolyline(xs, ys, size);
+        size = 0;
+    }
+}
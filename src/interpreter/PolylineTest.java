@@ -0,0 +1,68 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Polyline.
+ */
+public class PolylineTest {
+    /**
+     * Test method for {@link interpreter.Polyline}.
+     */
+    @Test
+    public void testPolyline() {
+        Random random = new Random(11);
+        BufferedImage separate = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+        BufferedImage joined = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+        Graphics2D lines = separate.createGraphics();
+        Graphics2D polylines = joined.createGraphics();
+        Polyline polyline = new Polyline(polylines);
+        // chains, each from a random point, that end just before, at and
+        // just after a full polyline, then chains of other lengths
+        int[] chains = { Polyline.CAPACITY - 2, Polyline.CAPACITY - 1, Polyline.CAPACITY,
+                         2 * Polyline.CAPACITY, 1, 2, 37, 500, 3000, 10000 };
+        for (int chain : chains) {
+            int x = random.nextInt(200), y = random.nextInt(150);
+            for (int i = 0; i < chain; i++) {
+                int newX, newY;
+                switch (random.nextInt(8)) {
+                case 0 :
+                    // no length at all
+                    newX = x;
+                    newY = y;
+                    break;
+                case 1 :
+                    // far off the canvas, or back onto it
+                    newX = random.nextInt(2000) - 1000;
+                    newY = random.nextInt(2000) - 1000;
+                    break;
+                default :
+                    newX = Math.max(-50, Math.min(250, x + random.nextInt(21) - 10));
+                    newY = Math.max(-50, Math.min(200, y + random.nextInt(21) - 10));
+                }
+                lines.drawLine(x, y, newX, newY);
+                polyline.add(x, y, newX, newY);
+                x = newX;
+                y = newY;
+            }
+        }
+        polyline.flush();
+        lines.dispose();
+        polylines.dispose();
+        int drawn = 0;
+        for (int i = 0; i < 200; i++) {
+            for (int j = 0; j < 150; j++) {
+                assertEquals(separate.getRGB(i, j), joined.getRGB(i, j));
+                if (separate.getRGB(i, j) != Color.BLACK.getRGB()) drawn++;
+            }
+        }
+        assertTrue(drawn > 1000);
+    }
+}
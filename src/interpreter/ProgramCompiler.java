@@ -0,0 +1,416 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import optimizer.Literal;
+import tokenizer.Token;
+import tokenizer.TokenType;
+import tree.Tree;
+
+import interpreter.ConditionNode.EqualNode;
+import interpreter.ConditionNode.GreaterNode;
+import interpreter.ConditionNode.LessNode;
+import interpreter.ExpressionNode.AddNode;
+import interpreter.ExpressionNode.DivideNode;
+import interpreter.ExpressionNode.GetXNode;
+import interpreter.ExpressionNode.GetYNode;
+import interpreter.ExpressionNode.MultiplyNode;
+import interpreter.ExpressionNode.NegateNode;
+import interpreter.ExpressionNode.NumberNode;
+import interpreter.ExpressionNode.SubtractNode;
+import interpreter.ExpressionNode.GlobalVariableNode;
+import interpreter.ExpressionNode.LocalVariableNode;
+import interpreter.ExpressionNode.ScopedVariableNode;
+import interpreter.Node.BlockNode;
+import interpreter.Node.CallNode;
+import interpreter.Node.ColorNameNode;
+import interpreter.Node.ColorNode;
+import interpreter.Node.ErrorNode;
+import interpreter.Node.FaceNode;
+import interpreter.Node.ForwardNode;
+import interpreter.Node.GlobalSetNode;
+import interpreter.Node.HomeNode;
+import interpreter.Node.IfNode;
+import interpreter.Node.JoinNode;
+import interpreter.Node.JumpNode;
+import interpreter.Node.LeftNode;
+import interpreter.Node.LocalSetNode;
+import interpreter.Node.PenDownNode;
+import interpreter.Node.PenUpNode;
+import interpreter.Node.ProcedureNode;
+import interpreter.Node.ProgramNode;
+import interpreter.Node.RepeatNode;
+import interpreter.Node.RightNode;
+import interpreter.Node.ScopedSetNode;
+import interpreter.Node.SpawnNode;
+import interpreter.Node.WhileNode;
+
+/**
+ * Translates the abstract syntax tree built by the Parser into a tree of
+ * executable Nodes. All the checking that used to be repeated every time a
+ * statement was interpreted (which command is this? does it have the right
+ * number of children? what number does this literal hold?) is done here,
+ * once.
+ * <p>
+ * Variables are resolved to slots at the same time. Every name gets a slot
+ * in the interpreter's global table; inside a procedure, parameters and the
+ * names the procedure sets also get slots in its activation record. Calls
+ * are linked directly to the called procedure.
+ */
+class ProgramCompiler {
+    private static final HashSet<String> definedColor = new HashSet<String>(Arrays.asList("red",
+            "orange", "yellow", "green", "cyan", "blue", "purple", "magenta", "pink", "olive",
+            "black", "gray", "white", "brown", "tan"));
+
+    private Interpreter interpreter;
+    private Map<String, ProcedureNode> procedures;
+    private Map<String, Integer> localSlots;
+    private Set<String> parameters;
+    private ProcedureNode owner;
+
+    /**
+     * Creates a compiler whose programs will run on the given interpreter.
+     *
+     * @param interpreter The interpreter that owns the global variables and
+     *        any procedures defined by earlier programs.
+     */
+    ProgramCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        procedures = new HashMap<String, ProcedureNode>();
+    }
+
+    /**
+     * Compiles a statement; normally this is the root of a whole program.
+     *
+     * @param node The root of the tree to be compiled.
+     * @return The executable form of the tree.
+     */
+    Node compile(Tree<Token> node) {
+        if (node == null) error("Empty statement!");
+        String command = getStringFrom(node);
+
+        if ("program".equals(command)) {
+            if (node.numberOfChildren() != 2) error("Program is incorrect!");
+            Map<String, ProcedureNode> procedures = findAllProcedures(node.child(1));
+            return new ProgramNode(compile(node.child(0)), procedures);
+        }
+        if ("penup".equals(command)) {
+            return new PenUpNode();
+        }
+        if ("pendown".equals(command)) {
+            return new PenDownNode();
+        }
+        if ("forward".equals(command)) {
+            if (node.numberOfChildren() != 1) error("Argument number is wrong in forward command!");
+            return new ForwardNode(compileExpression(node.child(0)));
+        }
+        if ("left".equals(command)) {
+            if (node.numberOfChildren() != 1) error("Argument number is wrong in left command!");
+            return new LeftNode(compileExpression(node.child(0)));
+        }
+        if ("right".equals(command)) {
+            if (node.numberOfChildren() != 1) error("Argument number is wrong in right command!");
+            return new RightNode(compileExpression(node.child(0)));
+        }
+        if ("face".equals(command)) {
+            if (node.numberOfChildren() != 1) error("Argument number is wrong in face command!");
+            return new FaceNode(compileExpression(node.child(0)));
+        }
+        if ("home".equals(command)) {
+            return new HomeNode();
+        }
+        if ("set".equals(command)) {
+            if (node.numberOfChildren() != 2) error("Argument number is wrong in set command!");
+            return compileSet(getStringFrom(node.child(0)), compileExpression(node.child(1)));
+        }
+        if ("jump".equals(command)) {
+            if (node.numberOfChildren() != 2) error("Argument number is wrong in jump command!");
+            return new JumpNode(compileExpression(node.child(0)), compileExpression(node.child(1)));
+        }
+        if ("repeat".equals(command)) {
+            if (node.numberOfChildren() != 2) error("Error occured in interpreting 'repeat' command!");
+            ExpressionNode count = compileExpression(node.child(0));
+            Node body = compile(node.child(1));
+            boolean parallel = interpreter.getParallelRepeatThreshold() > 0
+                               && ParallelRepeat.isRigid(count, body);
+            return new RepeatNode(count, body, owner, parallel);
+        }
+        if ("do".equals(command)) {
+            if (node.numberOfChildren() != 2) error("Error occured in interpreting 'do' command!");
+            Tree<Token> actualParameters = node.child(1);
+            ExpressionNode[] arguments = new ExpressionNode[actualParameters.numberOfChildren()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = compileExpression(actualParameters.child(i));
+            }
+            return compileCall(getStringFrom(node.child(0)), arguments);
+        }
+        if ("spawn".equals(command)) {
+            if (node.numberOfChildren() != 2) error("Error occured in interpreting 'spawn' command!");
+            Tree<Token> actualParameters = node.child(1);
+            ExpressionNode[] arguments = new ExpressionNode[actualParameters.numberOfChildren()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = compileExpression(actualParameters.child(i));
+            }
+            Node call = compileCall(getStringFrom(node.child(0)), arguments);
+            if (!(call instanceof CallNode)) return call;
+            return new SpawnNode(((CallNode) call).procedure, arguments);
+        }
+        if ("join".equals(command)) {
+            return new JoinNode();
+        }
+        if (definedColor.contains(command)) {
+            return new ColorNameNode(command);
+        }
+        if ("color".equals(command)) {
+            if (node.numberOfChildren() != 3) error("Argument number is wrong in color command!");
+            return new ColorNode(compileExpression(node.child(0)),
+                                 compileExpression(node.child(1)),
+                                 compileExpression(node.child(2)));
+        }
+        if ("block".equals(command)) {
+            Node[] statements = new Node[node.numberOfChildren()];
+            for (int i = 0; i < statements.length; i++) {
+                statements[i] = compile(node.child(i));
+            }
+            return new BlockNode(statements);
+        }
+        if ("while".equals(command)) {
+            if (node.numberOfChildren() != 2) error("Argument number is wrong in while command!");
+            return new WhileNode(compileCondition(node.child(0)), compile(node.child(1)), owner);
+        }
+        if ("if".equals(command)) {
+            if (node.numberOfChildren() != 2 && node.numberOfChildren() != 3)
+                error("Argument number is wrong in if command!");
+            Node elsePart = node.numberOfChildren() > 2 ? compile(node.child(2)) : null;
+            return new IfNode(compileCondition(node.child(0)), compile(node.child(1)), elsePart);
+        }
+        error("Unimplemented command:\n" + command);
+        return null;
+    }
+
+    /**
+     * Compiles an arithmetic expression.
+     *
+     * @param node The root of the expression Tree.
+     * @return The executable form of the expression.
+     */
+    ExpressionNode compileExpression(Tree<Token> node) {
+        if (node == null) error("Empty expression!");
+        String value = getStringFrom(node);
+
+        if (node.getValue() instanceof Literal)
+            return new NumberNode(((Literal) node.getValue()).getNumber());
+        if (getTokenType(node) == TokenType.NUMBER)
+            return new NumberNode(Double.parseDouble(value));
+        if (getTokenType(node) == TokenType.NAME)
+            return compileVariable(value);
+        if ("getX".equals(value)) return new GetXNode();
+        if ("getY".equals(value)) return new GetYNode();
+        if (getTokenType(node) == TokenType.SYMBOL) {
+            switch (value) {
+            case "+" :
+                if (node.numberOfChildren() == 1) return compileExpression(node.child(0));
+                if (node.numberOfChildren() != 2) error("Error occured in evaluating '+'");
+                return new AddNode(compileExpression(node.child(0)), compileExpression(node.child(1)));
+            case "-" :
+                if (node.numberOfChildren() == 1) return new NegateNode(compileExpression(node.child(0)));
+                if (node.numberOfChildren() != 2) error("Error occured in evaluating '-'");
+                return new SubtractNode(compileExpression(node.child(0)), compileExpression(node.child(1)));
+            case "*" :
+                if (node.numberOfChildren() != 2) error("Error occured in evaluating '*'");
+                return new MultiplyNode(compileExpression(node.child(0)), compileExpression(node.child(1)));
+            case "/" :
+                if (node.numberOfChildren() != 2) error("Error occured in evaluating '/'");
+                return new DivideNode(compileExpression(node.child(0)), compileExpression(node.child(1)));
+            default :
+            }
+        }
+        error("Can't evaluate the expression!");
+        return null;
+    }
+
+    /**
+     * Compiles a condition.
+     *
+     * @param node The root of the condition Tree.
+     * @return The executable form of the condition.
+     */
+    ConditionNode compileCondition(Tree<Token> node) {
+        if (node == null) error("Empty condition!");
+        if (node.numberOfChildren() != 2) error("Error codition!");
+        ExpressionNode left = compileExpression(node.child(0));
+        ExpressionNode right = compileExpression(node.child(1));
+        switch (getStringFrom(node)) {
+            case "=" :
+                return new EqualNode(left, right);
+            case "<" :
+                return new LessNode(left, right);
+            case ">" :
+                return new GreaterNode(left, right);
+            default :
+                error("Error codition!");
+        }
+        return null;
+    }
+
+    /**
+     * Compiles a reference to a variable.
+     *
+     * @param name The name of the variable.
+     * @return The executable form of the reference.
+     */
+    private ExpressionNode compileVariable(String name) {
+        int globalSlot = interpreter.globalSlot(name);
+        if (localSlots == null || !localSlots.containsKey(name))
+            return new GlobalVariableNode(name, globalSlot);
+        if (parameters.contains(name))
+            return new LocalVariableNode(name, localSlots.get(name));
+        return new ScopedVariableNode(name, localSlots.get(name), globalSlot);
+    }
+
+    /**
+     * Compiles a <code>set</code> command.
+     *
+     * @param name The name of the variable being set.
+     * @param value The new value.
+     * @return The executable form of the command.
+     */
+    private Node compileSet(String name, ExpressionNode value) {
+        int globalSlot = interpreter.globalSlot(name);
+        if (localSlots == null)
+            return new GlobalSetNode(name, globalSlot, value);
+        if (parameters.contains(name))
+            return new LocalSetNode(name, localSlots.get(name), value);
+        return new ScopedSetNode(name, localSlots.get(name), globalSlot, value);
+    }
+
+    /**
+     * Compiles a <code>do</code> command, linking it to the procedure it
+     * calls. Procedures of this program take precedence over procedures
+     * left by an earlier one.
+     *
+     * @param name The name of the procedure.
+     * @param arguments The compiled actual parameters.
+     * @return The executable form of the command.
+     */
+    private Node compileCall(String name, ExpressionNode[] arguments) {
+        ProcedureNode procedure = procedures.get(name);
+        if (procedure == null) procedure = interpreter.getProcedure(name);
+        if (procedure == null)
+            return new ErrorNode("Procedure '" + name + "' not defined!");
+        if (procedure.parameterSlots.length != arguments.length)
+            return new ErrorNode("The number of arguments in calling procedure" + name + " doesn't match");
+        return new CallNode(procedure, arguments);
+    }
+
+    /**
+     * Compiles all the procedures in the parse tree. The headers are
+     * created first, so that a call can be linked to a procedure defined
+     * later in the program.
+     *
+     * @param listOfProcedures The root of the tree of procedures.
+     * @return The procedures, keyed by name.
+     */
+    private Map<String, ProcedureNode> findAllProcedures(Tree<Token> listOfProcedures) {
+        if (listOfProcedures == null) error("Error in defining precedure!");
+        Map<String, Tree<Token>> definitions = new HashMap<String, Tree<Token>>();
+        for (int i = 0; i < listOfProcedures.numberOfChildren(); i++) {
+            Tree<Token> procedure = listOfProcedures.child(i);
+            definitions.put(getStringFrom(procedure.firstChild().firstChild()), procedure);
+        }
+        Map<String, Map<String, Integer>> slotsByProcedure = new HashMap<String, Map<String, Integer>>();
+        for (Map.Entry<String, Tree<Token>> definition : definitions.entrySet()) {
+            Map<String, Integer> slots = new HashMap<String, Integer>();
+            Tree<Token> formalParameters = definition.getValue().child(0).child(1);
+            int[] parameterSlots = new int[formalParameters.numberOfChildren()];
+            for (int j = 0; j < parameterSlots.length; j++) {
+                parameterSlots[j] = slotFor(getStringFrom(formalParameters.child(j)), slots);
+            }
+            findAssignedVariables(definition.getValue().child(1), slots);
+            String name = definition.getKey();
+            procedures.put(name, new ProcedureNode(name, parameterSlots, slots.size()));
+            slotsByProcedure.put(name, slots);
+        }
+        for (Map.Entry<String, Tree<Token>> definition : definitions.entrySet()) {
+            Tree<Token> formalParameters = definition.getValue().child(0).child(1);
+            parameters = new HashSet<String>();
+            for (int j = 0; j < formalParameters.numberOfChildren(); j++) {
+                parameters.add(getStringFrom(formalParameters.child(j)));
+            }
+            localSlots = slotsByProcedure.get(definition.getKey());
+            owner = procedures.get(definition.getKey());
+            owner.body = compile(definition.getValue().child(1));
+        }
+        GeometryCache.analyze(procedures.values());
+        localSlots = null;
+        parameters = null;
+        owner = null;
+        return procedures;
+    }
+
+    /**
+     * Gives a local slot to every variable set anywhere in the given
+     * procedure body.
+     *
+     * @param node The statement to be searched.
+     * @param slots The local slots assigned so far.
+     */
+    private static void findAssignedVariables(Tree<Token> node, Map<String, Integer> slots) {
+        if ("set".equals(getStringFrom(node)) && node.numberOfChildren() == 2) {
+            slotFor(getStringFrom(node.child(0)), slots);
+            return;
+        }
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            findAssignedVariables(node.child(i), slots);
+        }
+    }
+
+    /**
+     * Returns the slot of the named variable, assigning the next free
+     * slot if it has none yet.
+     *
+     * @param name The name of the variable.
+     * @param slots The slots assigned so far.
+     * @return The slot of the variable.
+     */
+    private static int slotFor(String name, Map<String, Integer> slots) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the String in the Token in the given node.
+     *
+     * @param node The Tree<Token> from which to extract the String.
+     * @return The String value in this Tree<Token> node.
+     */
+    private static String getStringFrom(Tree<Token> node) {
+        return node.getValue().getValue();
+    }
+
+    /**
+     * Returns the Type of the Token in the given node.
+     *
+     * @param node The Tree<Token> from which to extract the TokenType.
+     * @return The Type of Token in this Tree<Token> node.
+     */
+    private static TokenType getTokenType(Tree<Token> node) {
+        return node.getValue().getType();
+    }
+
+    /**
+     * Throws a RuntimeException containing a message.
+     * @param string The message to be displayed.
+     */
+    private static void error(String string) {
+        throw new RuntimeException(string);
+    }
+}
@@ -0,0 +1,162 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import parser.Parser;
+import tokenizer.Token;
+import tree.Tree;
+
+/**
+ * Measures how fast drawings are rasterized, on one thread and tile by
+ * tile on all processors (see <code>TileRasterizer</code>). Usage:
+ * <pre>
+ * java interpreter.RasterBenchmark [-c copies] [-r rounds] [-s WIDTHxHEIGHT] source...
+ * </pre>
+ * The sources are found as by <code>BatchRender</code>. The sample
+ * programs draw too little to be worth timing, so each is scaled up: it is
+ * run <code>copies</code> times, each time from a different place on a
+ * large canvas, into one drawing. The drawing is then rasterized both
+ * ways <code>rounds</code> times, and the best times are printed with the
+ * segments rasterized per second, and whether the two images are the
+ * same. The drawing is rasterized tile by tile even on one processor,
+ * where that only costs time, so that the cost of the binning shows.
+ */
+public class RasterBenchmark {
+    /** How far apart the copies of a program are drawn, in pixels. */
+    private static final int SPACING = 300;
+
+    private int width = 2400;
+    private int height = 2400;
+    private int copies = 200;
+    private int rounds = 5;
+
+    /**
+     * Times the programs named on the command line.
+     *
+     * @param args The options and sources, as described above.
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        RasterBenchmark benchmark = new RasterBenchmark();
+        List<String> sources = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-c".equals(args[i])) benchmark.copies = Integer.parseInt(args[++i]);
+                else if ("-r".equals(args[i])) benchmark.rounds = Integer.parseInt(args[++i]);
+                else if ("-s".equals(args[i])) {
+                    String[] size = args[++i].split("x");
+                    benchmark.width = Integer.parseInt(size[0]);
+                    benchmark.height = Integer.parseInt(size[1]);
+                }
+                else sources.add(args[i]);
+            }
+            if (sources.isEmpty()) {
+                System.err.println("Usage: java interpreter.RasterBenchmark [-c copies] [-r rounds] "
+                                   + "[-s WIDTHxHEIGHT] source...");
+                System.exit(2);
+            }
+            benchmark.run(BatchRender.findPrograms(sources), System.out);
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Times each program, and prints a table of the results.
+     *
+     * @param programs The program files.
+     * @param out Where to print the table.
+     * @throws IOException If a program cannot be read.
+     */
+    void run(List<Path> programs, PrintStream out) throws IOException {
+        String format = "%-30s %10s %10s %10s %10s %10s %8s  %s%n";
+        out.printf(format, "file", "segments", "serial ms", "tiled ms", "serial M/s", "tiled M/s", "speedup",
+                   "same");
+        for (Path program : programs) {
+            MemoryRenderTarget target = draw(program);
+            if (target == null) {
+                out.printf(format, program, "", "", "", "", "", "", "not a program");
+                continue;
+            }
+            int segments = target.getLineCount();
+            BufferedImage serial = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            BufferedImage tiled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            long serialNanos = Long.MAX_VALUE, tiledNanos = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                Graphics2D g = serial.createGraphics();
+                target.paint(g);
+                g.dispose();
+                serialNanos = Math.min(serialNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                g = tiled.createGraphics();
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.dispose();
+                DisplayList list = target.getDisplayList();
+                TileRasterizer.draw(list, tiled, Color.BLACK, new DisplayList.Cursor(), list.size());
+                tiledNanos = Math.min(tiledNanos, System.nanoTime() - start);
+            }
+            out.printf(format, program, segments, String.format("%.1f", serialNanos / 1e6),
+                       String.format("%.1f", tiledNanos / 1e6), String.format("%.1f", segments * 1e3 / serialNanos),
+                       String.format("%.1f", segments * 1e3 / tiledNanos),
+                       String.format("%.2f", (double) serialNanos / tiledNanos), sameImage(serial, tiled));
+            target.clear();
+        }
+    }
+
+    /**
+     * Runs copies of a program, spread over the canvas, into one drawing.
+     *
+     * @param program The program file.
+     * @return The drawing, or <code>null</code> if the file is not a program.
+     * @throws IOException If the file cannot be read.
+     */
+    private MemoryRenderTarget draw(Path program) throws IOException {
+        String text = new String(Files.readAllBytes(program), StandardCharsets.UTF_8);
+        Parser parser = new Parser(text + '\n');
+        if (!parser.isProgram()) return null;
+        Tree<Token> ast = parser.stack.peek();
+        MemoryRenderTarget target = new MemoryRenderTarget(width, height);
+        Interpreter interpreter = new Interpreter(target);
+        int columns = Math.max(1, width / SPACING);
+        int rows = Math.max(1, height / SPACING);
+        for (int copy = 0; copy < copies; copy++) {
+            interpreter.initialize();
+            int place = copy % (columns * rows);
+            interpreter.getTurtle().setPosition((place % columns - (columns - 1) / 2.0) * SPACING,
+                                                (place / columns - (rows - 1) / 2.0) * SPACING);
+            interpreter.interpret(ast);
+        }
+        return target;
+    }
+
+    /**
+     * Tells whether two images are the same, pixel for pixel.
+     */
+    private static boolean sameImage(BufferedImage a, BufferedImage b) {
+        for (int x = 0; x < a.getWidth(); x++) {
+            for (int y = 0; y < a.getHeight(); y++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) return false;
+            }
+        }
+        return true;
+    }
+}
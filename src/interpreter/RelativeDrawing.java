@@ -0,0 +1,141 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+ * Commands that the turtle drew, kept in the turtle's frame of reference
+ * at the time it started drawing them (origin at its position, x axis
+ * along its heading), together with how the drawing moved and turned the
+ * turtle. Such a drawing can be reproduced from any other starting pose by
+ * rotating and translating it.
+ * <p>
+ * Lines are kept as pairs of points; other commands are kept as they are,
+ * with a null marking the place of each line.
+ */
+final class RelativeDrawing {
+    /** Approximate fixed cost of one drawing, in bytes. */
+    private static final int DRAWING_BYTES = 128;
+
+    final TurtleCommand[] commands;
+    final double[] lines;
+    /** Where the drawing left the turtle, in the starting frame. */
+    final double endX;
+    final double endY;
+    /** How many degrees the drawing turned the turtle to the right. */
+    final double turn;
+    /** Whether the drawing left the pen down. */
+    final boolean penDown;
+    /** The approximate memory used by the drawing. */
+    final long bytes;
+
+    /**
+     * Converts recorded commands into a relative drawing.
+     *
+     * @param recorded The commands, in canvas coordinates.
+     * @param x The canvas x coordinate at which the turtle started.
+     * @param y The canvas y coordinate at which the turtle started.
+     * @param heading The heading with which the turtle started.
+     * @param turtle The turtle, now in the pose the drawing left it in.
+     */
+    RelativeDrawing(List<TurtleCommand> recorded, double x, double y, double heading, Turtle turtle) {
+        double cos = Turtle.cosine(heading);
+        double sin = Turtle.sine(heading);
+        commands = new TurtleCommand[recorded.size()];
+        int lineCount = 0;
+        for (TurtleCommand command : recorded) {
+            if (command instanceof DrawLineCommand) lineCount++;
+        }
+        lines = new double[4 * lineCount];
+        int i = 0, j = 0;
+        for (TurtleCommand command : recorded) {
+            if (command instanceof DrawLineCommand) {
+                DrawLineCommand line = (DrawLineCommand) command;
+                j = toLocal(line.x1 - x, line.y1 - y, cos, sin, j);
+                j = toLocal(line.x2 - x, line.y2 - y, cos, sin, j);
+                i++;
+            }
+            else {
+                commands[i++] = command;
+            }
+        }
+        double dx = turtle.getCanvasX() - x;
+        double dy = turtle.getCanvasY() - y;
+        endX = dx * cos + dy * sin;
+        endY = dy * cos - dx * sin;
+        turn = turtle.getHeading() - heading;
+        penDown = turtle.isPenDown();
+        bytes = DRAWING_BYTES + 8L * commands.length + 8L * lines.length;
+    }
+
+    /**
+     * Stores a point, given relative to the start of the drawing, in
+     * the turtle's frame of reference.
+     */
+    private int toLocal(double dx, double dy, double cos, double sin, int j) {
+        lines[j++] = dx * cos + dy * sin;
+        lines[j++] = dy * cos - dx * sin;
+        return j;
+    }
+
+    /**
+     * Draws this drawing relative to the turtle's current pose, and
+     * moves the turtle as the drawing did.
+     *
+     * @param turtle The turtle.
+     */
+    void replay(Turtle turtle) {
+        double x = turtle.getCanvasX();
+        double y = turtle.getCanvasY();
+        double heading = turtle.getHeading();
+        double cos = Turtle.cosine(heading);
+        double sin = Turtle.sine(heading);
+        int j = 0;
+        for (TurtleCommand command : commands) {
+            if (command == null) {
+                turtle.emit(line(x, y, cos, sin, j));
+                j += 4;
+            }
+            else {
+                turtle.emit(command);
+            }
+        }
+        turtle.setPose(x + endX * cos - endY * sin, y + endX * sin + endY * cos,
+                       heading + turn, penDown);
+    }
+
+    /**
+     * Places the commands of this drawing, as drawn from the given pose,
+     * in an array.
+     *
+     * @param out The array to be filled.
+     * @param at The index at which the first command goes.
+     * @param x The canvas x coordinate of the starting pose.
+     * @param y The canvas y coordinate of the starting pose.
+     * @param cos The cosine of the starting heading.
+     * @param sin The sine of the starting heading.
+     * @return The index after the last command placed.
+     */
+    int drawInto(TurtleCommand[] out, int at, double x, double y, double cos, double sin) {
+        int j = 0;
+        for (TurtleCommand command : commands) {
+            if (command == null) {
+                out[at++] = line(x, y, cos, sin, j);
+                j += 4;
+            }
+            else {
+                out[at++] = command;
+            }
+        }
+        return at;
+    }
+
+    /**
+     * Returns one of the lines, as drawn from the given pose.
+     */
+    private DrawLineCommand line(double x, double y, double cos, double sin, int j) {
+        return new DrawLineCommand(x + lines[j] * cos - lines[j + 1] * sin,
+                                   y + lines[j] * sin + lines[j + 1] * cos,
+                                   x + lines[j + 2] * cos - lines[j + 3] * sin,
+                                   y + lines[j + 2] * sin + lines[j + 3] * cos);
+    }
+}
@@ -0,0 +1,90 @@
+package interpreter;
+
+import java.util.Collection;
+
+/**
+ * Whatever the turtle draws on: it remembers the drawing commands the
+ * turtle issues, and knows the size of the drawing in pixels. The Swing
+ * <code>DrawingArea</code> is one render target; a
+ * <code>MemoryRenderTarget</code>, which needs no display, is another.
+ * <p>
+ * The turtle works in its own logical coordinates, and only asks the
+ * target for its size when it is initialized.
+ */
+public interface RenderTarget {
+
+    /**
+     * Returns the width of the drawing.
+     *
+     * @return The width, in pixels.
+     */
+    int getCanvasWidth();
+
+    /**
+     * Returns the height of the drawing.
+     *
+     * @return The height, in pixels.
+     */
+    int getCanvasHeight();
+
+    /**
+     * Forgets all the commands drawn so far.
+     */
+    void clear();
+
+    /**
+     * Adds a command to the drawing.
+     *
+     * @param turtleCommand The command to be remembered.
+     */
+    void addCommand(TurtleCommand turtleCommand);
+
+    /**
+     * Adds several commands at once, in order, to the drawing.
+     *
+     * @param commands The commands to be remembered.
+     */
+    void addCommands(Collection<TurtleCommand> commands);
+
+    /**
+     * Adds a line to the drawing, just as adding a
+     * <code>DrawLineCommand</code> would, but without making one.
+     *
+     * @param x1 The x-coordinate of the start of the line.
+     * @param y1 The y-coordinate of the start of the line.
+     * @param x2 The x-coordinate of the end of the line.
+     * @param y2 The y-coordinate of the end of the line.
+     */
+    void addLine(double x1, double y1, double x2, double y2);
+
+    /**
+     * Returns how many commands the drawing holds.
+     *
+     * @return The number of commands added since the drawing was cleared.
+     */
+    int getCommandCount();
+
+    /**
+     * Forgets the commands added after the first few.
+     *
+     * @param count How many commands to keep.
+     */
+    void truncate(int count);
+
+    /**
+     * Takes note of where the turtle is and which way it faces. The
+     * turtle calls this after every move or turn, so it must be cheap:
+     * anything shown for it is worked out when the drawing is painted.
+     *
+     * @param x The x-coordinate of the turtle on the canvas.
+     * @param y The y-coordinate of the turtle on the canvas.
+     * @param headingX The x-component of the unit vector the turtle faces.
+     * @param headingY The y-component of the unit vector the turtle faces.
+     */
+    void setTurtlePose(double x, double y, double headingX, double headingY);
+
+    /**
+     * Asks for the drawing to be shown again, if it is being shown.
+     */
+    void repaint();
+}
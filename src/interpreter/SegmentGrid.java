@@ -0,0 +1,272 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A spatial index over the lines of a drawing: a uniform grid of square
+ * cells laid over the canvas, each listing the lines that pass through
+ * it. Lines beyond the canvas are put in the cells along its edges. To
+ * draw part of the drawing, only the lines listed in the cells under
+ * that part are visited, in the order they were drawn, so that lines of
+ * different colors still overlap as they did, and lines that follow on
+ * from each other are drawn together as polylines.
+ * <p>
+ * Each line is kept once, with its color, as floats; that is precise to
+ * a small fraction of a pixel even when the drawing is much enlarged.
+ * <p>
+ * An index may be given a tolerance, to hold a simplified drawing for
+ * when it is not enlarged enough for its finest detail to be seen. A
+ * path of lines in one color is then merged into longer lines for as
+ * long as every point of the path stays within about the tolerance of
+ * the merged line (see <code>Sleeve</code>). A piece of path that
+ * never goes further than the tolerance from where it starts is kept as
+ * a dot, unless a dot of the same color was already kept in the same
+ * small square with nothing of another color kept since. A fractal of
+ * millions of lines each much shorter than a pixel is thus kept, and
+ * drawn, as about as many lines as it covers pixels.
+ */
+final class SegmentGrid implements DisplayList.LineSink {
+    /** The size of a cell, in canvas pixels. */
+    static final int CELL_SIZE = 16;
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final double tolerance;
+    private final int columns;
+    private final int rows;
+    private final int[][] cells;
+    private final int[] cellSizes;
+    private final List<float[]> coordinates = new ArrayList<float[]>();
+    private final List<int[]> colors = new ArrayList<int[]>();
+    private int count;
+    private long[] visible = new long[0];
+
+    // the path being merged, from its start to its last point
+    private boolean merging;
+    private int mergeColor;
+    private final Sleeve sleeve;
+    private final Set<Long> dots = new HashSet<Long>();
+    private int lastColor;
+
+    /**
+     * Creates an empty index over a canvas, keeping every line as it is.
+     *
+     * @param width The width of the canvas, in pixels.
+     * @param height The height of the canvas, in pixels.
+     */
+    SegmentGrid(int width, int height) {
+        this(width, height, 0);
+    }
+
+    /**
+     * Creates an empty index over a canvas, simplifying the lines to the
+     * given tolerance.
+     *
+     * @param width The width of the canvas, in pixels.
+     * @param height The height of the canvas, in pixels.
+     * @param tolerance How far, in canvas pixels, a merged line may stray
+     *        from the lines it stands for; 0 keeps every line.
+     */
+    SegmentGrid(int width, int height, double tolerance) {
+        this.tolerance = tolerance;
+        sleeve = new Sleeve(tolerance);
+        columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+        rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+        cells = new int[columns * rows][];
+        cellSizes = new int[columns * rows];
+    }
+
+    /**
+     * Returns the number of lines in the index, not counting the one still
+     * being merged.
+     *
+     * @return The number of lines.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Adds a line to the index.
+     *
+     * @param x1 The x-coordinate of the start of the line.
+     * @param y1 The y-coordinate of the start of the line.
+     * @param x2 The x-coordinate of the end of the line.
+     * @param y2 The y-coordinate of the end of the line.
+     * @param color The color of the line.
+     */
+    @Override
+    public void add(double x1, double y1, double x2, double y2, Color color) {
+        if (tolerance == 0) {
+            store(x1, y1, x2, y2, color.getRGB());
+            return;
+        }
+        int rgb = color.getRGB();
+        if (merging && (rgb != mergeColor || x1 != sleeve.endX || y1 != sleeve.endY)) flush();
+        if (!merging) begin(x1, y1, rgb);
+        if (!sleeve.extend(x2, y2)) {
+            flush();
+            begin(x1, y1, rgb);
+            sleeve.extend(x2, y2);
+        }
+    }
+
+    /**
+     * Draws the lines that can be seen through a viewport.
+     *
+     * @param g The graphics on which to draw.
+     * @param left The canvas x-coordinate of the left edge of the viewport.
+     * @param top The canvas y-coordinate of the top edge of the viewport.
+     * @param zoom How many screen pixels a canvas pixel covers.
+     * @param width The width of the viewport, in screen pixels.
+     * @param height The height of the viewport, in screen pixels.
+     */
+    void draw(Graphics g, double left, double top, double zoom, int width, int height) {
+        double right = left + width / zoom;
+        double bottom = top + height / zoom;
+        if (visible.length < (count + 63) >> 6) visible = new long[(count + 63) >> 6];
+        int first = Integer.MAX_VALUE, last = -1;
+        for (int row = row(top); row <= row(bottom); row++) {
+            for (int column = column(left); column <= column(right); column++) {
+                int cell = row * columns + column;
+                int[] lines = cells[cell];
+                for (int i = 0; i < cellSizes[cell]; i++) {
+                    int line = lines[i];
+                    visible[line >> 6] |= 1L << line;
+                    if (line < first) first = line;
+                    if (line > last) last = line;
+                }
+            }
+        }
+        int rgb = 0;
+        Color color = null;
+        Polyline polyline = new Polyline(g);
+        for (int word = first >> 6; word <= last >> 6 && last >= 0; word++) {
+            long bits = visible[word];
+            visible[word] = 0;
+            while (bits != 0) {
+                int line = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                float[] xy = coordinates.get(line >> CHUNK_BITS);
+                int at = 4 * (line & CHUNK_MASK);
+                float x1 = xy[at], y1 = xy[at + 1], x2 = xy[at + 2], y2 = xy[at + 3];
+                if (Math.max(x1, x2) < left || Math.min(x1, x2) > right
+                        || Math.max(y1, y2) < top || Math.min(y1, y2) > bottom) {
+                    continue;
+                }
+                int lineColor = colors.get(line >> CHUNK_BITS)[line & CHUNK_MASK];
+                if (color == null || lineColor != rgb) {
+                    polyline.flush();
+                    rgb = lineColor;
+                    color = new Color(rgb, true);
+                    g.setColor(color);
+                }
+                polyline.add((int) ((x1 - left) * zoom), (int) ((y1 - top) * zoom),
+                             (int) ((x2 - left) * zoom), (int) ((y2 - top) * zoom));
+            }
+        }
+        polyline.flush();
+        Sleeve s = sleeve;
+        if (merging && Math.max(s.startX, s.endX) >= left && Math.min(s.startX, s.endX) <= right
+                && Math.max(s.startY, s.endY) >= top && Math.min(s.startY, s.endY) <= bottom) {
+            g.setColor(new Color(mergeColor, true));
+            g.drawLine((int) (((float) s.startX - left) * zoom), (int) (((float) s.startY - top) * zoom),
+                       (int) (((float) s.endX - left) * zoom), (int) (((float) s.endY - top) * zoom));
+        }
+    }
+
+    // ------------------------ private helper methods
+
+    /**
+     * Keeps a line, and lists it in the cells it passes through.
+     */
+    private void store(double x1, double y1, double x2, double y2, int rgb) {
+        int chunk = count >> CHUNK_BITS;
+        if (chunk == colors.size()) {
+            coordinates.add(new float[4 * CHUNK_SIZE]);
+            colors.add(new int[CHUNK_SIZE]);
+        }
+        int offset = count & CHUNK_MASK;
+        float[] xy = coordinates.get(chunk);
+        xy[4 * offset] = (float) x1;
+        xy[4 * offset + 1] = (float) y1;
+        xy[4 * offset + 2] = (float) x2;
+        xy[4 * offset + 3] = (float) y2;
+        colors.get(chunk)[offset] = rgb;
+
+        int left = column(Math.min(x1, x2)), right = column(Math.max(x1, x2));
+        int top = row(Math.min(y1, y2)), bottom = row(Math.max(y1, y2));
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                if (left != right && top != bottom && !crosses(x1, y1, x2, y2, column, row)) continue;
+                int cell = row * columns + column;
+                int[] lines = cells[cell];
+                if (lines == null) lines = cells[cell] = new int[4];
+                else if (cellSizes[cell] == lines.length) lines = cells[cell] = Arrays.copyOf(lines, 2 * lines.length);
+                lines[cellSizes[cell]++] = count;
+            }
+        }
+        count++;
+    }
+
+    /**
+     * Starts merging a path at a point.
+     */
+    private void begin(double x, double y, int rgb) {
+        merging = true;
+        mergeColor = rgb;
+        sleeve.begin(x, y);
+    }
+
+    /**
+     * Keeps the path being merged as one line, or drops it if it is a dot
+     * already drawn.
+     */
+    private void flush() {
+        if (!merging) return;
+        merging = false;
+        if (mergeColor != lastColor) {
+            dots.clear();
+            lastColor = mergeColor;
+        }
+        if (sleeve.farthest <= tolerance) {
+            long column = (long) Math.floor(sleeve.startX / (2 * tolerance));
+            long row = (long) Math.floor(sleeve.startY / (2 * tolerance));
+            if (!dots.add((column << 32) ^ (row & 0xFFFFFFFFL))) return;
+        }
+        store(sleeve.startX, sleeve.startY, sleeve.endX, sleeve.endY, mergeColor);
+    }
+
+    private int column(double x) {
+        return (int) Math.max(0, Math.min(columns - 1, Math.floor(x / CELL_SIZE)));
+    }
+
+    private int row(double y) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor(y / CELL_SIZE)));
+    }
+
+    /**
+     * Tells whether a line passes through a cell, by checking that the
+     * corners of the cell are not all on the same side of it. A cell on
+     * the edge of the grid also holds what lies beyond it, so it is
+     * always crossed.
+     */
+    private boolean crosses(double x1, double y1, double x2, double y2, int column, int row) {
+        if (column == 0 || row == 0 || column == columns - 1 || row == rows - 1) return true;
+        double dx = x2 - x1, dy = y2 - y1;
+        double cellLeft = column * CELL_SIZE, cellTop = row * CELL_SIZE;
+        double a = dx * (cellTop - y1) - dy * (cellLeft - x1);
+        double b = dx * (cellTop - y1) - dy * (cellLeft + CELL_SIZE - x1);
+        double c = dx * (cellTop + CELL_SIZE - y1) - dy * (cellLeft - x1);
+        double d = dx * (cellTop + CELL_SIZE - y1) - dy * (cellLeft + CELL_SIZE - x1);
+        return !(a > 0 && b > 0 && c > 0 && d > 0 || a < 0 && b < 0 && c < 0 && d < 0);
+    }
+}
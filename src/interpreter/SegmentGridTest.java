@@ -0,0 +1,110 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+import static interpreter.DrawingFixtures.isDrawn;
+import static interpreter.DrawingFixtures.isDrawnNear;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * Tests for the SegmentGrid and its levels of detail.
+ */
+public class SegmentGridTest {
+    /**
+     * Test method for {@link interpreter.SegmentGrid} and
+     * {@link interpreter.DrawingArea#setViewport(double, double, double)}.
+     */
+    @Test
+    public void testLevelOfDetail() {
+        MemoryRenderTarget target = new MemoryRenderTarget(160, 120);
+        DrawingFixtures.run("repeat 3 {\ndo koch 7 60\nright 120\n}\n"
+            + "def koch n s {\nif n > 0 {\ndo koch n - 1 s / 3\nleft 60\ndo koch n - 1 s / 3\n"
+            + "right 120\ndo koch n - 1 s / 3\nleft 60\ndo koch n - 1 s / 3\n}\nelse {\nforward s\n}\n}\n", target);
+        assertEquals(0, Viewport.detailLevel(1));
+        assertEquals(1, Viewport.detailLevel(1.5));
+        assertEquals(-1, Viewport.detailLevel(0.5));
+        assertEquals(-Viewport.ZOOMED_OUT_LEVELS, Viewport.detailLevel(Viewport.MIN_ZOOM));
+        assertEquals(Viewport.DETAIL_LEVELS - 1, Viewport.detailLevel(Viewport.MAX_ZOOM));
+
+        // the lines, each a few hundredths of a pixel long, merge into far fewer
+        SegmentGrid full = new SegmentGrid(160, 120);
+        SegmentGrid simplified = new SegmentGrid(160, 120, 0.125);
+        for (TurtleCommand command : target.getCommands()) {
+            if (command instanceof DrawLineCommand) {
+                DrawLineCommand line = (DrawLineCommand) command;
+                full.add(line.x1, line.y1, line.x2, line.y2, Color.BLACK);
+                simplified.add(line.x1, line.y1, line.x2, line.y2, Color.BLACK);
+            }
+        }
+        assertEquals(3 * 16384, full.size());
+        assertTrue(simplified.size() < full.size() / 20);
+
+        // and look the same, to within a pixel, as every line drawn
+        DrawingArea canvas = new DrawingArea();
+        canvas.setSize(160, 120);
+        canvas.addCommands(target.getCommands());
+        canvas.setTurtlePose(-100, -100, 1, 0);
+        canvas.setViewport(70, 40, 1.5);
+        BufferedImage actual = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = actual.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+        BufferedImage expected = new BufferedImage(160, 120, BufferedImage.TYPE_INT_RGB);
+        g = expected.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 160, 120);
+        full.draw(g, 70, 40, 1.5, 160, 120);
+        g.dispose();
+        // (what is drawn on the border may have its neighbour beyond it)
+        int drawn = 0;
+        for (int x = 1; x < 159; x++) {
+            for (int y = 1; y < 119; y++) {
+                if (isDrawn(actual, x, y)) drawn++;
+                assertTrue(!isDrawn(actual, x, y) || isDrawnNear(expected, x, y));
+                assertTrue(!isDrawn(expected, x, y) || isDrawnNear(actual, x, y));
+            }
+        }
+        assertTrue(drawn > 500);
+
+        // shrunk, it fits in the top left quarter
+        canvas.setViewport(0, 0, 0.5);
+        g = actual.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+        drawn = 0;
+        for (int x = 0; x < 160; x++) {
+            for (int y = 0; y < 120; y++) {
+                if (isDrawn(actual, x, y)) {
+                    drawn++;
+                    assertTrue(x <= 80 && y <= 60);
+                }
+            }
+        }
+        assertTrue(drawn > 100);
+
+        // at its own size, it is every line exactly, whatever was shown
+        // before and however often the image is drawn again
+        canvas.setViewport(0, 0, 1);
+        g = expected.createGraphics();
+        target.paint(g);
+        g.dispose();
+        canvas.setViewport(0, 0, 0.75);
+        canvas.paint(actual.createGraphics());
+        canvas.setViewport(0, 0, 1);
+        canvas.setSize(161, 120);
+        canvas.paint(new BufferedImage(161, 120, BufferedImage.TYPE_INT_RGB).createGraphics());
+        canvas.setSize(160, 120);
+        g = actual.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+        for (int x = 0; x < 160; x++) {
+            for (int y = 0; y < 120; y++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
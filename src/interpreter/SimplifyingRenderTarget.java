@@ -0,0 +1,257 @@
+package interpreter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A render target that simplifies the drawing on its way to another one.
+ * Put between an interpreter and its canvas, it cuts the memory and the
+ * painting time of drawings that trace the same lines over and over, or
+ * that make curves of many tiny, nearly straight steps.
+ * <p>
+ * Lines that follow on from each other are merged for as long as the
+ * merged line stays within a tolerance of every point of the path (see
+ * <code>Sleeve</code>), so the last line of a path reaches the canvas
+ * only when the path ends: when the pen color changes, the turtle jumps,
+ * or the count of commands is asked for. A line that was already drawn,
+ * either way round, since the pen color last changed, to within a
+ * millionth of a pixel, is dropped, and so is a change to the color
+ * already in use. Only the lines drawn most recently are remembered, so
+ * that a long drawing does not fill the memory with them. Nothing is
+ * reordered, and nothing drawn in another color can be covered
+ * differently, so the drawing looks the same; but since the ends of every
+ * line are rounded down to whole pixels when it is drawn, a merged line
+ * may set pixels a pixel away from those the short lines did.
+ * <p>
+ * Commands added to the canvas other than through this target, or
+ * removed from it, are noticed, and the lines already drawn forgotten.
+ */
+public class SimplifyingRenderTarget implements RenderTarget {
+    /** The tolerance used unless another is given, in pixels. */
+    public static final double DEFAULT_TOLERANCE = 1.0 / 64;
+    /** How close two lines must be to count as the same, in pixels. */
+    private static final double DUPLICATE_TOLERANCE = 1e-6;
+    /** How many of the lines drawn most recently are remembered. */
+    static final int REMEMBERED_LINES = 1 << 16;
+
+    private final RenderTarget target;
+    private final Sleeve sleeve;
+    private boolean merging;
+    private Integer color;
+    private final Set<Segment> drawn = Collections.newSetFromMap(new LinkedHashMap<Segment, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Segment, Boolean> eldest) {
+            return size() > REMEMBERED_LINES;
+        }
+    });
+    private int expectedCount = -1;
+    private long received;
+    private long forwarded;
+
+    /**
+     * A line as it is remembered, its ends rounded to
+     * <code>DUPLICATE_TOLERANCE</code> and put in order, so that a line
+     * drawn back the way it came is the same.
+     */
+    private static final class Segment {
+        private final long x1, y1, x2, y2;
+
+        Segment(double x1, double y1, double x2, double y2) {
+            long startX = Math.round(x1 / DUPLICATE_TOLERANCE);
+            long startY = Math.round(y1 / DUPLICATE_TOLERANCE);
+            long endX = Math.round(x2 / DUPLICATE_TOLERANCE);
+            long endY = Math.round(y2 / DUPLICATE_TOLERANCE);
+            boolean reversed = startX > endX || startX == endX && startY > endY;
+            this.x1 = reversed ? endX : startX;
+            this.y1 = reversed ? endY : startY;
+            this.x2 = reversed ? startX : endX;
+            this.y2 = reversed ? startY : endY;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Segment)) return false;
+            Segment that = (Segment) other;
+            return x1 == that.x1 && y1 == that.y1 && x2 == that.x2 && y2 == that.y2;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = x1;
+            hash = 31 * hash + y1;
+            hash = 31 * hash + x2;
+            hash = 31 * hash + y2;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /**
+     * Simplifies drawings for a target, to the default tolerance.
+     *
+     * @param target Where the simplified drawing goes.
+     */
+    public SimplifyingRenderTarget(RenderTarget target) {
+        this(target, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Simplifies drawings for a target.
+     *
+     * @param target Where the simplified drawing goes.
+     * @param tolerance How far, in pixels, a merged line may stray from
+     *        the lines it stands for.
+     */
+    public SimplifyingRenderTarget(RenderTarget target, double tolerance) {
+        this.target = target;
+        sleeve = new Sleeve(tolerance);
+    }
+
+    /**
+     * Returns how many of the commands added to this target did not reach
+     * the canvas, because they were merged or dropped.
+     *
+     * @return The number of commands removed.
+     */
+    public synchronized long getRemovedCount() {
+        flush();
+        return received - forwarded;
+    }
+
+    @Override
+    public int getCanvasWidth() {
+        return target.getCanvasWidth();
+    }
+
+    @Override
+    public int getCanvasHeight() {
+        return target.getCanvasHeight();
+    }
+
+    @Override
+    public synchronized void clear() {
+        merging = false;
+        forget();
+        target.clear();
+    }
+
+    @Override
+    public synchronized void addCommand(TurtleCommand turtleCommand) {
+        if (turtleCommand instanceof DrawLineCommand) {
+            DrawLineCommand line = (DrawLineCommand) turtleCommand;
+            addLine(line.x1, line.y1, line.x2, line.y2);
+            return;
+        }
+        received++;
+        flush();
+        checkTarget();
+        if (turtleCommand instanceof ColorCommand) {
+            int rgb = ((ColorCommand) turtleCommand).color.getRGB();
+            if (color != null && color == rgb) return;
+            drawn.clear();
+            color = rgb;
+        }
+        else {
+            // it may draw over anything
+            drawn.clear();
+        }
+        forward(turtleCommand);
+    }
+
+    @Override
+    public synchronized void addCommands(Collection<TurtleCommand> commands) {
+        for (TurtleCommand command : commands) {
+            addCommand(command);
+        }
+    }
+
+    @Override
+    public synchronized void addLine(double x1, double y1, double x2, double y2) {
+        received++;
+        if (merging && (x1 != sleeve.endX || y1 != sleeve.endY)) flush();
+        if (!merging) {
+            sleeve.begin(x1, y1);
+            merging = true;
+        }
+        if (!sleeve.extend(x2, y2)) {
+            flush();
+            sleeve.begin(x1, y1);
+            merging = true;
+            sleeve.extend(x2, y2);
+        }
+    }
+
+    @Override
+    public synchronized int getCommandCount() {
+        flush();
+        return target.getCommandCount();
+    }
+
+    @Override
+    public synchronized void truncate(int count) {
+        flush();
+        forget();
+        target.truncate(count);
+    }
+
+    @Override
+    public void setTurtlePose(double x, double y, double headingX, double headingY) {
+        // called after every move, so it neither waits nor ends a path
+        target.setTurtlePose(x, y, headingX, headingY);
+    }
+
+    @Override
+    public synchronized void repaint() {
+        flush();
+        target.repaint();
+    }
+
+    // ------------------------ private helper methods
+
+    /**
+     * Sends the path being merged to the target as one line, unless the
+     * same line was already drawn.
+     */
+    private void flush() {
+        if (!merging) return;
+        merging = false;
+        checkTarget();
+        if (!drawn.add(new Segment(sleeve.startX, sleeve.startY, sleeve.endX, sleeve.endY))) return;
+        forwarded++;
+        target.addLine(sleeve.startX, sleeve.startY, sleeve.endX, sleeve.endY);
+        expectedCount++;
+    }
+
+    /**
+     * Sends a command to the target.
+     */
+    private void forward(TurtleCommand command) {
+        forwarded++;
+        target.addCommand(command);
+        expectedCount++;
+    }
+
+    /**
+     * Forgets what was drawn if the target was changed by someone else.
+     */
+    private void checkTarget() {
+        int count = target.getCommandCount();
+        if (count != expectedCount) {
+            forget();
+            expectedCount = count;
+        }
+    }
+
+    /**
+     * Forgets the lines drawn and the pen color.
+     */
+    private void forget() {
+        drawn.clear();
+        color = null;
+        expectedCount = -1;
+    }
+}
@@ -0,0 +1,79 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+import static interpreter.DrawingFixtures.isDrawn;
+import static interpreter.DrawingFixtures.isDrawnNear;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the SimplifyingRenderTarget.
+ */
+public class SimplifyingRenderTargetTest {
+    /**
+     * Test method for {@link interpreter.SimplifyingRenderTarget}.
+     */
+    @Test
+    public void testSimplifyingRenderTarget() {
+        String program = "repeat 5 {\nred\nrepeat 360 {\nforward 0.5\nright 1\n}\n}\n"
+                         + "blue\nrepeat 3 {\nrepeat 50 {\nforward 1\n}\nright 120\n}\nblue\n";
+        MemoryRenderTarget plain = new MemoryRenderTarget(200, 150);
+        DrawingFixtures.run(program, plain);
+        MemoryRenderTarget target = new MemoryRenderTarget(200, 150);
+        SimplifyingRenderTarget simplifier = new SimplifyingRenderTarget(target);
+        DrawingFixtures.run(program, simplifier);
+
+        // the circle is drawn once, each side of the triangle as one line
+        assertEquals(5 * 360 + 150, plain.getLineCount());
+        assertTrue(target.getLineCount() < 360);
+        assertEquals(plain.getCommandCount() - target.getCommandCount(), simplifier.getRemovedCount());
+        List<TurtleCommand> commands = target.getCommands();
+        DrawLineCommand side = (DrawLineCommand) commands.get(commands.size() - 3);
+        assertEquals(50, Math.hypot(side.x2 - side.x1, side.y2 - side.y1), 1e-9);
+        assertTrue(commands.get(commands.size() - 4) instanceof ColorCommand);
+
+        BufferedImage expected = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = expected.createGraphics();
+        plain.paint(g);
+        g.dispose();
+        BufferedImage actual = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+        g = actual.createGraphics();
+        target.paint(g);
+        g.dispose();
+        for (int x = 1; x < 199; x++) {
+            for (int y = 1; y < 149; y++) {
+                assertTrue(!isDrawn(actual, x, y) || isDrawnNear(expected, x, y));
+                assertTrue(!isDrawn(expected, x, y) || isDrawnNear(actual, x, y));
+            }
+        }
+
+        // what is cleared behind its back is drawn again
+        int count = target.getCommandCount();
+        simplifier.addLine(10, 10, 20, 20);
+        simplifier.addLine(30, 30, 40, 40);
+        simplifier.addLine(10, 10, 20, 20);
+        assertEquals(count + 2, simplifier.getCommandCount());
+        // going back the way it came draws nothing new
+        simplifier.addLine(20, 20, 10, 10);
+        assertEquals(count + 2, simplifier.getCommandCount());
+        target.clear();
+        simplifier.addLine(10, 10, 20, 20);
+        assertEquals(1, simplifier.getCommandCount());
+
+        // a line is forgotten once enough others are drawn after it
+        for (int i = 1; i < SimplifyingRenderTarget.REMEMBERED_LINES; i++) {
+            simplifier.addLine(i, 0, i, 1);
+        }
+        simplifier.addLine(10, 10, 20, 20);
+        assertEquals(SimplifyingRenderTarget.REMEMBERED_LINES, simplifier.getCommandCount());
+        simplifier.addLine(0, 2, 0, 3);
+        simplifier.addLine(20, 20, 10, 10);
+        assertEquals(SimplifyingRenderTarget.REMEMBERED_LINES + 1, simplifier.getCommandCount());
+        simplifier.addLine(1, 0, 1, 1);
+        assertEquals(SimplifyingRenderTarget.REMEMBERED_LINES + 2, simplifier.getCommandCount());
+    }
+}
@@ -0,0 +1,81 @@
+package interpreter;
+
+/**
+ * Merges a path into a single line for as long as every point of the path
+ * stays within about a tolerance of that line. Each point further than
+ * the tolerance from the start limits the directions the line can take
+ * from the start to those passing near it; the path is merged while some
+ * direction is left. A point that falls well short of the furthest one so
+ * far is refused, since it would be left off the end of the line.
+ * <p>
+ * The start and end of the merged line, and how far the path has gone
+ * from its start, can be read from the fields.
+ */
+final class Sleeve {
+    final double tolerance;
+    double startX, startY, endX, endY;
+    /** The furthest any point of the path is from its start. */
+    double farthest;
+    private boolean aimed;
+    private double aim, low, high;
+
+    /**
+     * Creates a sleeve of the given tolerance.
+     *
+     * @param tolerance How far the path may stray from the merged line.
+     */
+    Sleeve(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Starts a new path at a point.
+     *
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     */
+    void begin(double x, double y) {
+        startX = endX = x;
+        startY = endY = y;
+        farthest = 0;
+        aimed = false;
+    }
+
+    /**
+     * Adds a point to the path, if the merged line can still pass within
+     * the tolerance of every point of the path.
+     *
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     * @return Whether the point was added.
+     */
+    boolean extend(double x, double y) {
+        double dx = x - startX, dy = y - startY;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance < farthest - tolerance) return false;
+        if (distance > tolerance) {
+            double direction = Math.atan2(dy, dx);
+            double spread = Math.asin(tolerance / distance);
+            if (!aimed) {
+                aim = direction;
+                low = -spread;
+                high = spread;
+                aimed = true;
+            }
+            else {
+                double offset = direction - aim;
+                if (offset > Math.PI) offset -= 2 * Math.PI;
+                else if (offset < -Math.PI) offset += 2 * Math.PI;
+                double newLow = Math.max(low, offset - spread);
+                double newHigh = Math.min(high, offset + spread);
+                if (newLow > newHigh) return false;
+                low = newLow;
+                high = newHigh;
+            }
+        }
+        endX = x;
+        endY = y;
+        farthest = Math.max(farthest, distance);
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+package interpreter;
+
+import java.util.concurrent.RecursiveAction;
+
+import interpreter.ExpressionNode.NumberNode;
+import interpreter.Node.CallNode;
+import interpreter.Node.ProcedureNode;
+
+/**
+ * A procedure started by a <code>spawn</code> command, running with its
+ * own turtle on a worker of the common fork/join pool.
+ * <p>
+ * The spawned procedure has its own interpreter, whose turtle starts in
+ * the pose of the turtle that spawned it and whose global variables are a
+ * copy of the spawner's at the time of the spawn; what it draws and the
+ * variables it sets are private to it. When the spawner joins it, the
+ * display list it drew is added to the spawner's drawing. Since display
+ * lists are joined in the order the turtles were spawned, the finished
+ * drawing does not depend on how the workers were scheduled.
+ */
+final class SpawnedTurtle extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Interpreter interpreter;
+    private final Node call;
+    private RuntimeException failure;
+
+    /**
+     * Prepares a spawned call; it does not start until it is forked.
+     *
+     * @param interpreter The interpreter for the spawned turtle.
+     * @param procedure The procedure to be called.
+     * @param arguments The values of the actual parameters.
+     */
+    SpawnedTurtle(Interpreter interpreter, ProcedureNode procedure, double[] arguments) {
+        this.interpreter = interpreter;
+        ExpressionNode[] values = new ExpressionNode[arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new NumberNode(arguments[i]);
+        }
+        call = new CallNode(procedure, values);
+    }
+
+    @Override
+    protected void compute() {
+        try {
+            interpreter.execute(call);
+        }
+        catch (RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Waits for the spawned procedure to finish.
+     *
+     * @return What the spawned turtle drew.
+     * @throws RuntimeException The error that stopped the procedure, if any.
+     */
+    DisplayList finish() {
+        join();
+        if (failure != null) throw failure;
+        return interpreter.getTurtle().getDisplayList();
+    }
+}
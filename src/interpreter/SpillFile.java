@@ -0,0 +1,123 @@
+package interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A temporary file, mapped into memory a segment at a time, from which a
+ * display list takes the space for its chunks when it is too large to
+ * keep on the heap. The pages are written back to the file by the
+ * operating system as it needs the memory, so a drawing is limited by
+ * the disk rather than by the heap.
+ * <p>
+ * Where the system allows it, the file is unlinked as soon as it is
+ * opened, so that its space is given back once the file is closed or its
+ * mappings are collected, even if the program dies. Otherwise it is
+ * deleted when it is closed, which its display list does when it is
+ * cleared or dropped. The file never shrinks; a display list that is
+ * truncated uses the space it no longer needs again.
+ */
+final class SpillFile {
+    /** The size of each mapped segment of the file. */
+    static final int SEGMENT_SIZE = 64 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private MappedByteBuffer segment;
+    private long mapped;
+    private long used;
+
+    /**
+     * Creates an empty spill file.
+     *
+     * @param directory The directory in which to create the file.
+     */
+    SpillFile(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            path = Files.createTempFile(directory, "logo-", ".spill");
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                       StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Cannot create a spill file in " + directory + ": " + e.getMessage());
+        }
+        try {
+            Files.delete(path);
+        }
+        catch (IOException e) {
+            // an open file cannot be deleted here; it is deleted on close
+        }
+    }
+
+    /**
+     * Returns the file.
+     *
+     * @return The path of the file, which may already be deleted.
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns how much space has been taken from the file.
+     *
+     * @return The number of bytes allocated so far.
+     */
+    long getUsed() {
+        return used;
+    }
+
+    /**
+     * Takes space from the file, mapping another segment if there is not
+     * enough left in the current one.
+     *
+     * @param bytes The number of bytes, no more than a segment.
+     * @return A buffer, in the platform's byte order, over the space, or
+     *         on the heap if the file has been closed.
+     */
+    ByteBuffer allocate(int bytes) {
+        MappedByteBuffer current = segment;
+        if (current == null || current.remaining() < bytes) {
+            try {
+                current = channel.map(FileChannel.MapMode.READ_WRITE, mapped, SEGMENT_SIZE);
+            }
+            catch (ClosedChannelException e) {
+                return ByteBuffer.allocate(bytes).order(ByteOrder.nativeOrder());
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Cannot extend the spill file " + path + ": " + e.getMessage());
+            }
+            segment = current;
+            mapped += SEGMENT_SIZE;
+        }
+        ByteBuffer chunk = current.slice();
+        chunk.limit(bytes);
+        current.position(current.position() + bytes);
+        used += bytes;
+        return chunk.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Closes and deletes the file. Its buffers must no longer be read,
+     * though writing to them does no harm; the space is given back when
+     * they are collected.
+     */
+    void close() {
+        segment = null;
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package interpreter;
+
+import java.util.Arrays;
+
+import interpreter.Node.BlockNode;
+import interpreter.Node.CallNode;
+import interpreter.Node.IfNode;
+import interpreter.Node.ProcedureNode;
+import interpreter.Node.ProgramNode;
+import interpreter.Node.RepeatNode;
+import interpreter.Node.WhileNode;
+
+/**
+ * Executes compiled Nodes without recursing on the Java stack. Blocks,
+ * loops and procedure calls that are in progress are kept on a growable
+ * continuation stack, and Logo activation records come from the
+ * interpreter's pool, so the depth of Logo recursion is limited by a memory
+ * budget rather than by the size of the thread stack. Both stacks are
+ * reused from one run to the next.
+ * <p>
+ * A <code>do</code> that is the last thing its procedure does is a tail
+ * call: it reuses the caller's activation record and continuation instead
+ * of pushing new ones, so tail recursion runs in constant space.
+ * Expressions are still evaluated recursively, since they cannot call
+ * procedures.
+ */
+class StackMachine {
+    private static final int BLOCK = 0, REPEAT = 1, WHILE = 2, RETURN = 3;
+
+    /** Approximate cost of one continuation, in bytes. */
+    private static final int CONTINUATION_BYTES = 16;
+    /** Approximate fixed cost of one activation record, in bytes. */
+    private static final int FRAME_BYTES = 64;
+
+    private final Interpreter interpreter;
+    private int[] kinds = new int[64];
+    private Object[] nodes = new Object[64];
+    private int[] counters = new int[64];
+    private int top;
+    private double[] arguments = new double[8];
+    private long bytesInUse;
+    private long budget;
+
+    /**
+     * Creates a stack machine for the given interpreter.
+     *
+     * @param interpreter The interpreter that owns the turtle and variables.
+     */
+    StackMachine(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Executes a statement (normally a whole program) to completion.
+     *
+     * @param node The statement to be executed.
+     * @param budget The most memory, in bytes, that Logo calls may use.
+     */
+    void run(Node node, long budget) {
+        this.budget = budget;
+        int baseDepth = interpreter.getDepth();
+        top = 0;
+        bytesInUse = 0;
+        try {
+            begin(node);
+            while (top > 0) {
+                step();
+            }
+        }
+        finally {
+            while (interpreter.getDepth() > baseDepth) {
+                interpreter.popFrame();
+            }
+            Arrays.fill(nodes, 0, top, null);
+            top = 0;
+        }
+    }
+
+    /**
+     * Starts a statement. Simple statements are executed at once; compound
+     * statements push a continuation that <code>step</code> will advance.
+     * A loop marked to run in parallel calls no procedures, so it too is
+     * executed at once.
+     *
+     * @param node The statement to be started.
+     */
+    private void begin(Node node) {
+        if (node instanceof BlockNode) {
+            push(BLOCK, node);
+        }
+        else if (node instanceof RepeatNode && !((RepeatNode) node).parallel) {
+            push(REPEAT, node);
+        }
+        else if (node instanceof WhileNode) {
+            push(WHILE, node);
+        }
+        else if (node instanceof IfNode) {
+            IfNode choice = (IfNode) node;
+            if (choice.condition.test(interpreter)) begin(choice.thenPart);
+            else if (choice.elsePart != null) begin(choice.elsePart);
+        }
+        else if (node instanceof CallNode) {
+            call((CallNode) node);
+        }
+        else if (node instanceof ProgramNode) {
+            ProgramNode program = (ProgramNode) node;
+            interpreter.defineProcedures(program.procedures);
+            begin(program.main);
+        }
+        else {
+            node.execute(interpreter);
+        }
+    }
+
+    /**
+     * Advances the continuation on top of the stack by one step.
+     */
+    private void step() {
+        int i = top - 1;
+        if (interpreter.isStopped()) {
+            pop();
+            return;
+        }
+        switch (kinds[i]) {
+        case BLOCK :
+            Node[] statements = ((BlockNode) nodes[i]).statements;
+            int next = counters[i]++;
+            if (next + 1 >= statements.length) pop();
+            if (next < statements.length) begin(statements[next]);
+            break;
+        case REPEAT :
+            RepeatNode repeat = (RepeatNode) nodes[i];
+            if (counters[i] < repeat.count.evaluate(interpreter)) {
+                counters[i]++;
+                begin(repeat.body);
+            }
+            else {
+                pop();
+            }
+            break;
+        case WHILE :
+            WhileNode loop = (WhileNode) nodes[i];
+            if (loop.condition.test(interpreter)) {
+                begin(loop.body);
+            }
+            else {
+                pop();
+            }
+            break;
+        default :
+            bytesInUse -= frameBytes((ProcedureNode) nodes[i]);
+            pop();
+            interpreter.popFrame();
+        }
+    }
+
+    /**
+     * Calls a procedure. If nothing remains to be done in the calling
+     * procedure, its activation record is reused.
+     *
+     * @param call The <code>do</code> statement.
+     */
+    private void call(CallNode call) {
+        ProcedureNode procedure = call.procedure;
+        int[] parameterSlots = procedure.parameterSlots;
+        if (top > 0 && kinds[top - 1] == RETURN) {
+            if (arguments.length < parameterSlots.length) {
+                arguments = new double[parameterSlots.length];
+            }
+            for (int i = 0; i < parameterSlots.length; i++) {
+                arguments[i] = call.arguments[i].evaluate(interpreter);
+            }
+            bytesInUse -= frameBytes((ProcedureNode) nodes[top - 1]);
+            reserve(frameBytes(procedure));
+            double[] frame = interpreter.reuseFrame(procedure);
+            for (int i = 0; i < parameterSlots.length; i++) {
+                frame[parameterSlots[i]] = arguments[i];
+            }
+            nodes[top - 1] = procedure;
+        }
+        else {
+            reserve(frameBytes(procedure));
+            double[] frame = interpreter.enterFrame(procedure);
+            for (int i = 0; i < parameterSlots.length; i++) {
+                frame[parameterSlots[i]] = call.arguments[i].evaluate(interpreter);
+            }
+            push(RETURN, procedure);
+            interpreter.pushFrame(procedure);
+        }
+        begin(procedure.body);
+    }
+
+    /**
+     * Pushes a continuation.
+     *
+     * @param kind What sort of continuation it is.
+     * @param node The block, loop or procedure it continues.
+     */
+    private void push(int kind, Object node) {
+        if (top == kinds.length) {
+            kinds = Arrays.copyOf(kinds, 2 * top);
+            nodes = Arrays.copyOf(nodes, 2 * top);
+            counters = Arrays.copyOf(counters, 2 * top);
+        }
+        reserve(CONTINUATION_BYTES);
+        kinds[top] = kind;
+        nodes[top] = node;
+        counters[top] = 0;
+        top++;
+    }
+
+    /**
+     * Pops the top continuation.
+     */
+    private void pop() {
+        top--;
+        nodes[top] = null;
+        bytesInUse -= CONTINUATION_BYTES;
+    }
+
+    /**
+     * Accounts for memory about to be used, failing if the budget would
+     * be exceeded.
+     *
+     * @param bytes The number of bytes needed.
+     */
+    private void reserve(long bytes) {
+        bytesInUse += bytes;
+        if (bytesInUse > budget)
+            throw new RuntimeException("Recursion too deep: the Logo stack budget of "
+                                       + budget + " bytes is used up!");
+    }
+
+    /**
+     * Returns the approximate size of an activation record.
+     *
+     * @param procedure The procedure the record belongs to.
+     * @return Its size in bytes.
+     */
+    private static long frameBytes(ProcedureNode procedure) {
+        return FRAME_BYTES + 9L * procedure.frameSize;
+    }
+}
@@ -0,0 +1,186 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws a display list on an image on all processors.
+ * <p>
+ * The image is divided into square tiles. The lines are read from the
+ * list in order and put in a bin for each tile their bounding box
+ * touches, with the color they are drawn in; then every tile draws the
+ * lines of its bin, clipped to the tile, on the common fork/join pool,
+ * as polylines where they follow on from each other.
+ * The tiles do not overlap, and the lines of each tile are drawn in
+ * order, so the image is the same, pixel for pixel, as one drawn with
+ * <code>DisplayList.draw</code>. To keep the bins small, a long list is
+ * binned and drawn a batch of commands at a time.
+ * <p>
+ * What commands other than lines and colors do to the Graphics is not
+ * known, so a list that has any is drawn on one thread.
+ */
+final class TileRasterizer {
+    /** The size of a tile, in pixels. */
+    static final int TILE_SIZE = 128;
+    /** The number of commands below which it is not worth using threads. */
+    static final int PARALLEL_THRESHOLD = 1 << 15;
+    /** How many commands are binned before the tiles are drawn. */
+    private static final int BATCH_SIZE = 1 << 20;
+
+    private TileRasterizer() {
+        // static methods only
+    }
+
+    /**
+     * Tells whether it is worth drawing some commands tile by tile: there
+     * must be enough of them, and more than one processor.
+     *
+     * @param commands The number of commands.
+     * @return <code>true</code> if they should be drawn tile by tile.
+     */
+    static boolean isWorthwhile(int commands) {
+        return commands >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * Draws the commands from a cursor up to a given command on an image,
+     * and moves the cursor there.
+     *
+     * @param list The commands.
+     * @param image The image on which to draw.
+     * @param color The pen color before the commands.
+     * @param cursor Where to start; moved to where drawing stopped.
+     * @param end The number of commands after which to stop.
+     * @return The pen color after the commands.
+     */
+    static Color draw(DisplayList list, BufferedImage image, Color color, DisplayList.Cursor cursor, int end) {
+        end = Math.min(end, list.size());
+        if (list.hasOthers()) {
+            Graphics2D g = image.createGraphics();
+            g.setColor(color);
+            list.draw(g, cursor, end);
+            color = g.getColor();
+            g.dispose();
+            return color;
+        }
+        Bins bins = new Bins(image.getWidth(), image.getHeight());
+        cursor.color = color;
+        while (cursor.index < end) {
+            bins.clear();
+            list.addTo(bins, cursor, Math.min(end, cursor.index + BATCH_SIZE));
+            ForkJoinPool.commonPool().invoke(new Tiles(bins, image, 0, bins.entries.length));
+        }
+        return cursor.color;
+    }
+
+    /**
+     * The lines of a batch, sorted into the tiles they may be drawn in.
+     * Each line is kept as the integer coordinates it is drawn at and its
+     * color.
+     */
+    private static final class Bins implements DisplayList.LineSink {
+        private static final int FIELDS = 5;
+        final int columns;
+        final int rows;
+        final int width;
+        final int height;
+        final int[][] entries;
+        final int[] sizes;
+
+        Bins(int width, int height) {
+            this.width = width;
+            this.height = height;
+            columns = Math.max(1, (width + TILE_SIZE - 1) / TILE_SIZE);
+            rows = Math.max(1, (height + TILE_SIZE - 1) / TILE_SIZE);
+            entries = new int[columns * rows][];
+            sizes = new int[columns * rows];
+        }
+
+        void clear() {
+            Arrays.fill(sizes, 0);
+        }
+
+        @Override
+        public void add(double x1, double y1, double x2, double y2, Color color) {
+            int ix1 = (int) x1, iy1 = (int) y1, ix2 = (int) x2, iy2 = (int) y2;
+            int left = Math.min(ix1, ix2), right = Math.max(ix1, ix2);
+            int top = Math.min(iy1, iy2), bottom = Math.max(iy1, iy2);
+            if (right < 0 || bottom < 0 || left >= width || top >= height) return;
+            int firstColumn = Math.max(0, left) / TILE_SIZE, lastColumn = Math.min(width - 1, right) / TILE_SIZE;
+            int firstRow = Math.max(0, top) / TILE_SIZE, lastRow = Math.min(height - 1, bottom) / TILE_SIZE;
+            int rgb = color.getRGB();
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int tile = row * columns + column;
+                    int[] bin = entries[tile];
+                    int at = sizes[tile];
+                    if (bin == null) bin = entries[tile] = new int[FIELDS * 64];
+                    else if (at == bin.length) bin = entries[tile] = Arrays.copyOf(bin, 2 * bin.length);
+                    bin[at] = ix1;
+                    bin[at + 1] = iy1;
+                    bin[at + 2] = ix2;
+                    bin[at + 3] = iy2;
+                    bin[at + 4] = rgb;
+                    sizes[tile] = at + FIELDS;
+                }
+            }
+        }
+
+        /**
+         * Draws the lines of one tile.
+         *
+         * @param image The image on which to draw.
+         * @param tile The tile.
+         */
+        void draw(BufferedImage image, int tile) {
+            int[] bin = entries[tile];
+            int size = sizes[tile];
+            if (size == 0) return;
+            Graphics2D g = image.createGraphics();
+            g.clipRect(tile % columns * TILE_SIZE, tile / columns * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            Polyline polyline = new Polyline(g);
+            int rgb = ~bin[4];
+            for (int at = 0; at < size; at += FIELDS) {
+                if (bin[at + 4] != rgb) {
+                    polyline.flush();
+                    rgb = bin[at + 4];
+                    g.setColor(new Color(rgb, true));
+                }
+                polyline.add(bin[at], bin[at + 1], bin[at + 2], bin[at + 3]);
+            }
+            polyline.flush();
+            g.dispose();
+        }
+    }
+
+    /**
+     * Draws a range of tiles, split in halves until a single tile remains.
+     */
+    private static final class Tiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Bins bins;
+        private final BufferedImage image;
+        private final int from, to;
+
+        Tiles(Bins bins, BufferedImage image, int from, int to) {
+            this.bins = bins;
+            this.image = image;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                bins.draw(image, from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Tiles(bins, image, from, middle), new Tiles(bins, image, middle, to));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the TileRasterizer.
+ */
+public class TileRasterizerTest {
+    /**
+     * Test method for {@link interpreter.TileRasterizer#draw(DisplayList, BufferedImage, Color, DisplayList.Cursor, int)}.
+     */
+    @Test
+    public void testTileRasterizer() {
+        MemoryRenderTarget target = new MemoryRenderTarget(300, 200);
+        Random random = new Random(7);
+        double x = 150, y = 100;
+        for (int i = 0; i < 2 * TileRasterizer.PARALLEL_THRESHOLD; i++) {
+            if (i % 97 == 0) target.addCommand(new ColorCommand(random.nextInt(1 << 24)));
+            double length = i % 10 == 0 ? 400 : 3;
+            double newX = x + length * random.nextGaussian(), newY = y + length * random.nextGaussian();
+            target.addLine(x, y, newX, newY);
+            x = Math.abs(newX) > 500 ? 150 : newX;
+            y = Math.abs(newY) > 500 ? 100 : newY;
+        }
+        BufferedImage serial = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = serial.createGraphics();
+        target.paint(g);
+        g.dispose();
+        BufferedImage tiled = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        g = tiled.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 300, 200);
+        g.dispose();
+        DisplayList list = target.getDisplayList();
+        DisplayList.Cursor cursor = new DisplayList.Cursor();
+        Color color = TileRasterizer.draw(list, tiled, Color.BLACK, cursor, list.size() / 2);
+        TileRasterizer.draw(list, tiled, color, cursor, list.size());
+        for (int i = 0; i < 300; i++) {
+            for (int j = 0; j < 200; j++) {
+                assertEquals(serial.getRGB(i, j), tiled.getRGB(i, j));
+            }
+        }
+
+        // a drawing area drawing it all at once leaves its pen as it was,
+        // whether or not it uses tiles
+        DrawingArea canvas = new DrawingArea();
+        canvas.setSize(300, 200);
+        canvas.addCommands(target.getCommands());
+        canvas.paint(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB).createGraphics());
+        canvas.addLine(0, 0, 299, 199);
+        target.addLine(0, 0, 299, 199);
+        canvas.setTurtlePose(-100, -100, 1, 0);
+        BufferedImage shown = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        g = shown.createGraphics();
+        canvas.paint(g);
+        g.dispose();
+        g = serial.createGraphics();
+        target.paint(g);
+        g.dispose();
+        for (int i = 0; i < 300; i++) {
+            for (int j = 0; j < 200; j++) {
+                assertEquals(serial.getRGB(i, j), shown.getRGB(i, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * The drawing commands of a finished run, with enough saved rasters to
+ * show quickly how the drawing looked after any number of commands.
+ * <p>
+ * While the timeline is built, the drawing is rasterized once, and a copy
+ * of the raster (with the pen color in effect) is kept at evenly spaced
+ * offsets; as many are kept as fit in a memory budget, so that the longer
+ * the run, the more memory goes to making it quick to seek. To show a
+ * step, the nearest earlier snapshot is found by binary search and only
+ * the commands between it and the step are drawn. The last step shown is
+ * kept too, so that scrubbing forward only draws the commands passed
+ * over.
+ * <p>
+ * A timeline only reads the commands it was built for, so it may be built
+ * from a display list that is still being added to, without copying it.
+ */
+final class Timeline {
+    /** The fewest commands between snapshots. */
+    static final int MIN_INTERVAL = 4096;
+
+    private final DisplayList commands;
+    private final int length;
+    private final int width;
+    private final int height;
+    private final int[] offsets;
+    private final BufferedImage[] rasters;
+    private final Color[] colors;
+    private final DisplayList.Cursor[] cursors;
+    private BufferedImage frame;
+    private Graphics2D frameGraphics;
+    private DisplayList.Cursor frameCursor;
+
+    /**
+     * Builds the timeline of the first commands of a drawing, keeping
+     * snapshots in an eighth of the heap.
+     *
+     * @param commands The commands of the drawing, in order; the first
+     *        <code>length</code> of them must not change afterwards.
+     * @param length The number of commands in the timeline.
+     * @param width The width of the drawing, in pixels.
+     * @param height The height of the drawing, in pixels.
+     */
+    Timeline(DisplayList commands, int length, int width, int height) {
+        this(commands, length, width, height, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * Builds the timeline of the first commands of a drawing.
+     *
+     * @param commands The commands of the drawing, in order; the first
+     *        <code>length</code> of them must not change afterwards.
+     * @param length The number of commands in the timeline.
+     * @param width The width of the drawing, in pixels.
+     * @param height The height of the drawing, in pixels.
+     * @param budget The most memory, in bytes, that the snapshots may
+     *        use; there is always at least one.
+     */
+    Timeline(DisplayList commands, int length, int width, int height, long budget) {
+        this.commands = commands;
+        this.length = length = Math.min(length, commands.size());
+        this.width = Math.max(1, width);
+        this.height = Math.max(1, height);
+        long snapshots = Math.max(1, Math.min(budget / (4L * this.width * this.height), 1 + length / MIN_INTERVAL));
+        int interval = (int) Math.max(MIN_INTERVAL, (length + snapshots - 1) / snapshots);
+        int count = (int) Math.min(snapshots, 1 + length / interval);
+        offsets = new int[count];
+        rasters = new BufferedImage[count];
+        colors = new Color[count];
+        cursors = new DisplayList.Cursor[count];
+
+        BufferedImage image = blank();
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        DisplayList.Cursor cursor = new DisplayList.Cursor();
+        for (int i = 0; i < count; i++) {
+            int offset = i * interval;
+            commands.draw(g, cursor, offset);
+            offsets[i] = offset;
+            rasters[i] = copy(image);
+            colors[i] = g.getColor();
+            cursors[i] = cursor.clone();
+        }
+        g.dispose();
+    }
+
+    /**
+     * Returns the number of commands in the drawing; the steps run from 0
+     * (nothing drawn) to this number (everything drawn).
+     *
+     * @return The number of commands.
+     */
+    int size() {
+        return length;
+    }
+
+    /**
+     * Returns the drawing as it was after the given number of commands.
+     * The image returned is reused by the next call.
+     *
+     * @param step The number of commands drawn.
+     * @return The drawing.
+     */
+    BufferedImage imageAt(int step) {
+        step = Math.max(0, Math.min(step, length));
+        int i = Arrays.binarySearch(offsets, step);
+        if (i < 0) i = -i - 2;
+        if (frame == null || frameCursor.index > step || frameCursor.index < offsets[i]) {
+            if (frame == null) {
+                frame = blank();
+                frameGraphics = frame.createGraphics();
+            }
+            frameGraphics.drawImage(rasters[i], 0, 0, null);
+            frameGraphics.setColor(colors[i]);
+            frameCursor = cursors[i].clone();
+        }
+        commands.draw(frameGraphics, frameCursor, step);
+        return frame;
+    }
+
+    /**
+     * Returns a new white image of the size of the drawing.
+     */
+    private BufferedImage blank() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Returns a copy of an image.
+     */
+    private BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.copyData(copy.getRaster());
+        return copy;
+    }
+}
@@ -0,0 +1,47 @@
+package interpreter;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Timeline.
+ */
+public class TimelineTest {
+    /**
+     * Test method for {@link interpreter.Timeline#imageAt(int)}.
+     */
+    @Test
+    public void testTimeline() {
+        MemoryRenderTarget target = new MemoryRenderTarget(120, 90);
+        DrawingFixtures.run("repeat 3000 {\nred\nforward 30\nright 91\nblue\nforward 20\nleft 37\n}\n", target);
+        List<TurtleCommand> drawn = target.getCommands();
+        DisplayList list = new DisplayList();
+        for (TurtleCommand command : drawn) {
+            list.add(command);
+        }
+        // room for three snapshots; what is added afterwards is not shown
+        Timeline timeline = new Timeline(list, 12000, 120, 90, 3 * 4 * 120 * 90);
+        list.addLine(0, 0, 119, 89);
+        assertEquals(12000, timeline.size());
+        int[] steps = { 12000, 5000, 5003, 4096, 0, 11999, 7, 9000, 8999 };
+        for (int step : steps) {
+            MemoryRenderTarget prefix = new MemoryRenderTarget(120, 90);
+            prefix.addCommands(drawn.subList(0, step));
+            BufferedImage expected = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = expected.createGraphics();
+            prefix.paint(g);
+            g.dispose();
+            BufferedImage actual = timeline.imageAt(step);
+            for (int x = 0; x < 120; x++) {
+                for (int y = 0; y < 90; y++) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+                }
+            }
+        }
+    }
+}
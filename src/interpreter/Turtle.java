@@ -1,40 +1,81 @@
 package interpreter;
 
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Turtle class which indicate the state of the turtle on screen.
+ * <p>
+ * The turtle keeps the unit vector of its heading, and only works it out
+ * again when it turns, so moving costs no trigonometry. After every move
+ * or turn it hands the canvas its pose, just four numbers; the canvas
+ * works out the triangle that shows the turtle only when it paints.
  * 
  * @author David Matuszek
  * @author Xiaolu Xu
  * @version March 30, 2009
  */
 public class Turtle {
-    private DrawingArea canvas;
+    private static final double[] RIGHT_ANGLE_COSINES = { 1, 0, -1, 0 };
+    private RenderTarget canvas;
+    private int width;
+    private int height;
     private double x;
     private double y;
     private double degrees;
+    private double headingX;
+    private double headingY;
     private boolean penIsDown;
-    private int paintDelay;
-    private boolean paused;
+    private ArrayList<TurtleCommand> recorded = new ArrayList<TurtleCommand>();
+    private int recorders;
+    private DisplayList displayList;
+    private TurtleCommand currentColor;
     
     /**
      * Creates a Turtle in the center of the specified DrawingCanvas,
      * facing right.
      * 
-     * @param canvas The DrawingCanvas for this turtle.
+     * @param canvas The render target for this turtle.
      */
-    public Turtle(DrawingArea canvas) {
+    public Turtle(RenderTarget canvas) {
         this.canvas = canvas;
         initialize();
     }
 
+    /**
+     * Creates a Turtle for a spawned procedure, in the same pose and with
+     * the same pen as the given turtle. The new turtle draws nothing on the
+     * canvas; its commands are kept in its own display list, on the heap,
+     * which begins by choosing the pen color of the given turtle.
+     * 
+     * @param parent The turtle that spawned this one.
+     */
+    Turtle(Turtle parent) {
+        canvas = parent.canvas;
+        width = parent.width;
+        height = parent.height;
+        x = parent.x;
+        y = parent.y;
+        degrees = parent.degrees;
+        headingX = parent.headingX;
+        headingY = parent.headingY;
+        penIsDown = parent.penIsDown;
+        displayList = new DisplayList();
+        emit(parent.getColor());
+    }
+
     /**
      * Make sure this turtle (and its associated canvas)
-     * is in a known initial state.
+     * is in a known initial state. The size of the canvas is taken
+     * now, and the turtle's coordinates are relative to it until the
+     * turtle is next initialized.
      */
     public void initialize() {
+        width = canvas.getCanvasWidth();
+        height = canvas.getCanvasHeight();
         penIsDown = true;
-        paintDelay = 0;
-        paused = false;
+        currentColor = null;
         home();
     }
     
@@ -45,9 +86,9 @@ public class Turtle {
      * @param newY y coordinates
      */
     public void setPosition(double newX, double newY) {
-        x = newX + canvas.getWidth() / 2.0;
-        y = canvas.getHeight() / 2.0 - newY;
-        finish();
+        x = newX + width / 2.0;
+        y = height / 2.0 - newY;
+        tellCanvasWhereIAm();
     }
     
     /**
@@ -56,7 +97,7 @@ public class Turtle {
      * @return x coordinate of the turtle. 
      */
     public double getX() {
-        return x - canvas.getWidth() / 2.0;
+        return x - width / 2.0;
     }
     
     /**
@@ -65,7 +106,7 @@ public class Turtle {
      * @return y coordinate of the turtle. 
      */
     public double getY() {
-        return canvas.getHeight() / 2.0 - y;
+        return height / 2.0 - y;
     }
     
     /**
@@ -75,14 +116,16 @@ public class Turtle {
      */
     public void forward(double distance) {
         // Compute this Turtle's new location
-        double newX = x + computeDeltaX(distance, degrees);
-        double newY = y + computeDeltaY(distance, degrees);
+        double newX = x + distance * headingX;
+        double newY = y + distance * headingY;
         if (penIsDown) {
-            canvas.addCommand(new DrawLineCommand(x, y, newX, newY));
+            if (recorders > 0) emit(new DrawLineCommand(x, y, newX, newY));
+            else if (displayList != null) displayList.addLine(x, y, newX, newY);
+            else canvas.addLine(x, y, newX, newY);
         }
         x = newX;
         y = newY;
-        finish();
+        tellCanvasWhereIAm();
     }
     
     /**
@@ -91,8 +134,7 @@ public class Turtle {
      * @param angle The number of degrees to turn to the right.
      */
     public void right(double angle) {
-        degrees = bringIntoRange(degrees + angle);
-        finish();
+        setHeading(bringIntoRange(degrees + angle));
     }
 
     /**
@@ -101,8 +143,7 @@ public class Turtle {
      * @param angle The number of degrees to turn to the left.
      */
     public void left(double angle) {
-        degrees = bringIntoRange(degrees - angle);
-        finish();
+        setHeading(bringIntoRange(degrees - angle));
     }
     
     /**
@@ -110,31 +151,54 @@ public class Turtle {
      * @param degrees the new degrees turtle faces.
      */
     public void face(double degrees) {
-        this.degrees = bringIntoRange(-degrees);
-        finish();
+        setHeading(bringIntoRange(-degrees));
     }
     
     /**
      * Given a number of degrees, adjust the number to be in
-     * the range 0 to 360.
+     * the range 0 to 360. However large the number, this takes
+     * a single remainder.
      * @param oldDegrees Some number of degrees.
      * @return An equivalent number of degrees.
      */
-    private static double bringIntoRange(double oldDegrees) {
-        double newDegrees = oldDegrees;
-        while (newDegrees < 0) newDegrees += 360;
-        while (newDegrees > 360) newDegrees -= 360;
-        return newDegrees;
+    static double bringIntoRange(double oldDegrees) {
+        if (oldDegrees >= 0 && oldDegrees <= 360) return oldDegrees;
+        double newDegrees = oldDegrees % 360;
+        return newDegrees < 0 ? newDegrees + 360 : newDegrees;
+    }
+
+    /**
+     * Returns the cosine of an angle in degrees. Multiples of 90 degrees
+     * give exactly 0, 1 or -1, so that a turtle turning by right angles
+     * does not drift.
+     * 
+     * @param degrees The angle, in degrees.
+     * @return Its cosine.
+     */
+    static double cosine(double degrees) {
+        if (degrees % 90 == 0) return RIGHT_ANGLE_COSINES[(int) (degrees / 90 % 4 + 4) % 4];
+        return Math.cos(Math.toRadians(degrees));
+    }
+
+    /**
+     * Returns the sine of an angle in degrees, exactly for multiples of
+     * 90 degrees (see <code>cosine</code>).
+     * 
+     * @param degrees The angle, in degrees.
+     * @return Its sine.
+     */
+    static double sine(double degrees) {
+        if (degrees % 90 == 0) return RIGHT_ANGLE_COSINES[(int) (degrees / 90 % 4 + 3) % 4];
+        return Math.sin(Math.toRadians(degrees));
     }
     
     /**
      * Moves this Turtle to the center of the drawing area, facing right.
      */
     public void home() {
-        x = canvas.getWidth() / 2.0;
-        y = canvas.getHeight() / 2.0;
-        degrees = 0;
-        finish();
+        x = width / 2.0;
+        y = height / 2.0;
+        setHeading(0);
     }
     
     /**
@@ -157,7 +221,7 @@ public class Turtle {
      * @param colorName The name of the color to use.
      */
     public void color(String colorName) {
-        canvas.addCommand(new ColorCommand(colorName));
+        emit(new ColorCommand(colorName));
     }
     
     /**
@@ -165,95 +229,193 @@ public class Turtle {
      * @param number The numeric value of the color.
      */
     public void color(int number) {
-        canvas.addCommand(new ColorCommand(number));
+        emit(new ColorCommand(number));
     }
     
     /**
-     * Tells this turtle how log to pause between turtle operations.
+     * Returns the x coordinate of the turtle on the canvas.
      * 
-     * @param ms The number of milliseconds (1/1000s of a second)
-     * to pause.
+     * @return The canvas x coordinate.
      */
-    public void setPaintDelay(int ms) {
-        paintDelay = ms;
+    double getCanvasX() {
+        return x;
     }
 
-    
-// ------------------------ private helper methods
-    
     /**
-     * Computes how much to move to add to this Turtle's x-coordinate,
-     * in order to displace the Turtle by (approximately) <code>distance</code>
-     * pixels in direction <code>degrees</code>.
+     * Returns the y coordinate of the turtle on the canvas (down is positive).
      * 
-     * @param distance The distance to move.
-     * @param degrees The direction in which to move.
-     * @return The amount to be added to the x-coordinate.
+     * @return The canvas y coordinate.
      */
-    private static double computeDeltaX(double distance, double degrees) {
-        double radians = Math.toRadians(degrees);
-        return distance * Math.cos(radians);
+    double getCanvasY() {
+        return y;
     }
-    
+
     /**
-     * Computes how much to move to add to this Turtle's y-coordinate,
-     * in order to displace the Turtle by (approximately) <code>distance</code>
-     * pixels in direction <code>degrees</code>.
+     * Returns the direction the turtle faces, in degrees clockwise from
+     * the right, between 0 and 360.
      * 
-     * @param distance The distance to move.
-     * @param degrees The direction in which to move.
-     * @return The amount to be added to the y-coordinate.
+     * @return The heading.
      */
-    private static double computeDeltaY(double distance, double degrees) {
-        double radians = Math.toRadians(degrees);
-        return distance * Math.sin(radians);
+    double getHeading() {
+        return degrees;
     }
-    
+
     /**
-     * Updates the drawing area. This method should be called
-     * at the conclusion of every Turtle command.
+     * Tells whether the pen is down.
+     * 
+     * @return <code>true</code> if moving the turtle draws a line.
      */
-    private void finish() {
-        tellCanvasWhereIAm();
-        do {
-            try { Thread.sleep(paintDelay); }
-            catch (InterruptedException e) {}
-        } while (paused || paintDelay >= 10000);
+    boolean isPenDown() {
+        return penIsDown;
     }
-    
+
+    /**
+     * Puts the turtle in the given pose, without drawing anything.
+     * 
+     * @param canvasX The canvas x coordinate.
+     * @param canvasY The canvas y coordinate.
+     * @param heading The heading, in degrees clockwise from the right.
+     * @param penDown Whether the pen is down.
+     */
+    void setPose(double canvasX, double canvasY, double heading, boolean penDown) {
+        x = canvasX;
+        y = canvasY;
+        setHeading(bringIntoRange(heading));
+        penIsDown = penDown;
+    }
+
+    /**
+     * Sends a drawing command to the canvas, exactly as if the turtle
+     * had issued it itself.
+     * 
+     * @param command The command to be drawn.
+     */
+    void emit(TurtleCommand command) {
+        if (displayList != null) displayList.add(command);
+        else canvas.addCommand(command);
+        if (recorders > 0) recorded.add(command);
+        if (command instanceof ColorCommand) currentColor = command;
+    }
+
+    /**
+     * Sends several drawing commands to the canvas at once, exactly as if
+     * the turtle had issued them itself.
+     * 
+     * @param commands The commands to be drawn, in order.
+     */
+    void emitAll(List<TurtleCommand> commands) {
+        if (displayList != null) {
+            for (TurtleCommand command : commands) {
+                displayList.add(command);
+            }
+        }
+        else {
+            canvas.addCommands(commands);
+        }
+        if (recorders > 0) recorded.addAll(commands);
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            if (commands.get(i) instanceof ColorCommand) {
+                currentColor = commands.get(i);
+                break;
+            }
+        }
+    }
+
     /**
-     * If the parameter is true, causes the turtle to stop whatever
-     * it is doing and wait for another call of this method with
-     * the parameter false.
+     * Sends the commands of a display list to the canvas, exactly as if
+     * the turtle had issued them itself. Unless they are being recorded,
+     * no object is made for any line.
      * 
-     * @param paused Whether the turtle should be paused.
+     * @param commands The commands to be drawn, in order.
      */
-    public void setPaused(boolean paused) {
-        this.paused = paused;
+    void emitAll(DisplayList commands) {
+        if (recorders > 0) {
+            emitAll(commands.toCommands(0, commands.size()));
+            return;
+        }
+        Color color = displayList != null ? displayList.addAll(commands, commands.size()) : commands.addTo(canvas);
+        if (color != null) currentColor = new ColorCommand(color.getRGB() & 0xFFFFFF);
     }
 
     /**
-     * Sets the turtle speed. 
-     * @param oldSpeed A value from 0 (stopped) to 100 (full speed).
+     * Returns the command that chose this turtle's current pen color.
+     * 
+     * @return The last color command drawn, or a black one if there was none.
      */
-    public void setSpeed(int oldSpeed) {
-        int speed = Math.min(Math.max(oldSpeed, 0), 100);
-        paintDelay = 10000 - 100 * speed;
+    TurtleCommand getColor() {
+        return currentColor != null ? currentColor : new ColorCommand(0);
+    }
+
+    /**
+     * Makes the given command the one that chose this turtle's pen color,
+     * without drawing it; used to restore the state of an earlier moment.
+     * 
+     * @param color A color command drawn earlier.
+     */
+    void setColor(TurtleCommand color) {
+        currentColor = color;
+    }
+
+    /**
+     * Returns the commands drawn by a spawned turtle.
+     * 
+     * @return The display list, or <code>null</code> if this turtle draws
+     *         directly on the canvas.
+     */
+    DisplayList getDisplayList() {
+        return displayList;
+    }
+
+    /**
+     * Starts remembering the commands this turtle sends to the canvas.
+     * Recordings may be nested; each one is identified by the position at
+     * which it started.
+     * 
+     * @return The position of the first command of the new recording.
+     */
+    int startRecording() {
+        recorders++;
+        return recorded.size();
+    }
+
+    /**
+     * Returns the commands recorded so far, by all recordings in progress.
+     * 
+     * @return The recorded commands, in the order they were drawn.
+     */
+    List<TurtleCommand> getRecording() {
+        return recorded;
+    }
+
+    /**
+     * Ends the most recently started recording. When no recording is left
+     * in progress, the remembered commands are discarded.
+     */
+    void stopRecording() {
+        if (--recorders == 0) recorded.clear();
+    }
+    
+// ------------------------ private helper methods
+    
+    /**
+     * Turns the turtle to face the given heading, and works out the unit
+     * vector in that direction.
+     * 
+     * @param newDegrees The heading, between 0 and 360.
+     */
+    private void setHeading(double newDegrees) {
+        degrees = newDegrees;
+        headingX = cosine(newDegrees);
+        headingY = sine(newDegrees);
+        tellCanvasWhereIAm();
     }
     
     /**
-     * Computes the coordinates of the points of a triangle to represent
-     * the current position and direction of this Turtle. The triangle
-     * points are sent to the DrawingCanvas but do <i>not</i> go into
-     * the DrawingCanvas's list of commands.
-     */
-    private void tellCanvasWhereIAm() {
-        int x1 = (int) (x + computeDeltaX(12, degrees));
-        int y1 = (int) (y + computeDeltaY(12, degrees));
-        int x2 = (int) (x + computeDeltaX(6, degrees - 135));
-        int y2 = (int) (y + computeDeltaY(6, degrees - 135));
-        int x3 = (int) (x + computeDeltaX(6, degrees + 135));
-        int y3 = (int) (y + computeDeltaY(6, degrees + 135));
-        canvas.setTurtleData(x1, y1, x2, y2, x3, y3);
+     * Tells the canvas where this Turtle is and which way it faces. This
+     * does <i>not</i> go into the canvas's list of commands, and a spawned
+     * turtle, which is not shown, tells it nothing.
+     */
+    void tellCanvasWhereIAm() {
+        if (displayList == null) canvas.setTurtlePose(x, y, headingX, headingY);
     }
 }
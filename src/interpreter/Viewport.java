@@ -0,0 +1,165 @@
+package interpreter;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * The part of a drawing shown on a panel that has been enlarged, shrunk
+ * or moved, with the spatial indexes it is drawn from (see
+ * <code>SegmentGrid</code>), so that only the lines in view are visited.
+ * <p>
+ * The index is kept at several levels of detail, each simplified just
+ * enough not to show at the zooms it is used for: a level serves zooms up
+ * to a power of two, and its lines stray from the drawing by no more than
+ * a quarter of a screen pixel there. Level 0 serves zooms from a half up
+ * to 1; the levels below it, the drawing shrunk further. The level for
+ * the current zoom is built when it is first needed; only it and the
+ * levels next to it are kept.
+ * <p>
+ * A viewport is not thread-safe; its panel uses it under its own lock.
+ */
+final class Viewport {
+    /** The largest enlargement of the drawing. */
+    static final double MAX_ZOOM = 1000;
+    /** The most the drawing is shrunk. */
+    static final double MIN_ZOOM = 1.0 / 16;
+    /** The number of levels of detail from 0 up, enough for zooms up to 1024. */
+    static final int DETAIL_LEVELS = 11;
+    /** The number of levels of detail below 0, enough for zooms down to 1/16. */
+    static final int ZOOMED_OUT_LEVELS = 4;
+    /** How far, in screen pixels, a simplified line may stray. */
+    private static final double DETAIL_TOLERANCE = 0.25;
+
+    private double left;
+    private double top;
+    private double zoom = 1;
+    private final SegmentGrid[] levels = new SegmentGrid[ZOOMED_OUT_LEVELS + DETAIL_LEVELS];
+    private final DisplayList.Cursor[] indexed = new DisplayList.Cursor[ZOOMED_OUT_LEVELS + DETAIL_LEVELS];
+
+    /**
+     * Returns the level of detail to draw at a zoom: the smallest level
+     * whose largest zoom, a power of two, is at least the given one.
+     *
+     * @param zoom How many screen pixels a canvas pixel covers.
+     * @return The level, from <code>-ZOOMED_OUT_LEVELS</code> to
+     *         <code>DETAIL_LEVELS - 1</code>.
+     */
+    static int detailLevel(double zoom) {
+        int level = -ZOOMED_OUT_LEVELS;
+        while (level < DETAIL_LEVELS - 1 && Math.scalb(1.0, level) < zoom) level++;
+        return level;
+    }
+
+    /**
+     * Tells whether the drawing is shown at its own size, from its corner.
+     *
+     * @return True unless the drawing has been enlarged, shrunk or moved.
+     */
+    boolean isOwnSize() {
+        return zoom == 1 && left == 0 && top == 0;
+    }
+
+    /**
+     * Sets which part of the drawing is shown.
+     *
+     * @param left The canvas x-coordinate shown at the left edge.
+     * @param top The canvas y-coordinate shown at the top edge.
+     * @param zoom How many screen pixels a canvas pixel covers, limited
+     *        to <code>MIN_ZOOM</code> to <code>MAX_ZOOM</code>.
+     */
+    void set(double left, double top, double zoom) {
+        this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+        this.left = left;
+        this.top = top;
+    }
+
+    /**
+     * Moves the drawing on the screen.
+     *
+     * @param dx How far to move it right, in screen pixels.
+     * @param dy How far to move it down, in screen pixels.
+     */
+    void pan(int dx, int dy) {
+        set(left - dx / zoom, top - dy / zoom, zoom);
+    }
+
+    /**
+     * Enlarges or shrinks the drawing, keeping the point under the given
+     * screen position where it is. Coming back to its own size shows it
+     * whole.
+     *
+     * @param x The screen x-coordinate of the fixed point.
+     * @param y The screen y-coordinate of the fixed point.
+     * @param factor How much to enlarge the drawing.
+     */
+    void zoomAt(int x, int y, double factor) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        if (Math.abs(newZoom - 1) < 1e-9) set(0, 0, 1);
+        else set(left + x / zoom - x / newZoom, top + y / zoom - y / newZoom, newZoom);
+    }
+
+    /**
+     * Draws the part of the drawing in view, from the index for the
+     * current zoom, after adding to the index some of what is new.
+     *
+     * @param g The Graphics on which to draw.
+     * @param commands The commands.
+     * @param shown How many commands to show.
+     * @param width The width of the panel.
+     * @param height The height of the panel.
+     * @param budget The most commands to add to the index.
+     * @return Where indexing stopped; short of <code>shown</code> if the
+     *         budget ran out.
+     */
+    DisplayList.Cursor paint(Graphics g, DisplayList commands, int shown, int width, int height, int budget) {
+        int level = detailLevel(zoom);
+        int slot = ZOOMED_OUT_LEVELS + level;
+        for (int i = 0; i < levels.length; i++) {
+            if (Math.abs(i - slot) > 1) levels[i] = null;
+        }
+        if (levels[slot] == null || shown < indexed[slot].index) {
+            levels[slot] = new SegmentGrid(width, height, DETAIL_TOLERANCE / Math.scalb(1.0, level));
+            indexed[slot] = new DisplayList.Cursor();
+        }
+        DisplayList.Cursor cursor = indexed[slot];
+        commands.addTo(levels[slot], cursor, Math.min(shown, cursor.index + budget));
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        levels[slot].draw(g, left, top, zoom, width, height);
+        return cursor;
+    }
+
+    /**
+     * Drops the indexes of commands beyond the first few.
+     *
+     * @param count How many commands are kept.
+     */
+    void truncate(int count) {
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] != null && count < indexed[i].index) levels[i] = null;
+        }
+    }
+
+    /**
+     * Drops every index.
+     */
+    void clear() {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = null;
+        }
+    }
+
+    /**
+     * Returns where a canvas x-coordinate is on the screen.
+     */
+    int screenX(double x) {
+        return (int) ((x - left) * zoom);
+    }
+
+    /**
+     * Returns where a canvas y-coordinate is on the screen.
+     */
+    int screenY(double y) {
+        return (int) ((y - top) * zoom);
+    }
+}
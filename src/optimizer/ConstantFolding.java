@@ -0,0 +1,72 @@
+package optimizer;
+
+import java.util.List;
+
+import tokenizer.Token;
+import tree.Tree;
+
+/**
+ * Replaces arithmetic on numeric literals by its result, so that, for
+ * example, <code>360 / 4</code> is computed once rather than every time it
+ * is evaluated. Operations are folded bottom up, exactly as the interpreter
+ * would evaluate them; a division by a literal zero is left alone, so that
+ * it is still reported when (and if) it is reached.
+ */
+public class ConstantFolding extends Pass {
+
+    /**
+     * Creates the pass, named <code>folding</code>.
+     */
+    public ConstantFolding() {
+        super("folding");
+    }
+
+    @Override
+    public Tree<Token> apply(Tree<Token> tree, List<String> changes) {
+        fold(tree, changes);
+        return tree;
+    }
+
+    /**
+     * Folds the constant operations in a subtree.
+     *
+     * @param node The root of the subtree.
+     * @param changes The list of changes made.
+     */
+    private void fold(Tree<Token> node, List<String> changes) {
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            fold(node.child(i), changes);
+        }
+        if (!isArithmetic(node)) return;
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            if (!isNumber(node.child(i))) return;
+        }
+        String operator = node.getValue().getValue();
+        double left = numberIn(node.child(0));
+        double result;
+        if (node.numberOfChildren() == 1) {
+            result = "-".equals(operator) ? -left : left;
+        }
+        else {
+            double right = numberIn(node.child(1));
+            switch (operator) {
+            case "+" :
+                result = left + right;
+                break;
+            case "-" :
+                result = left - right;
+                break;
+            case "*" :
+                result = left * right;
+                break;
+            default :
+                if (right == 0.0) return;
+                result = left / right;
+            }
+        }
+        String before = describe(node);
+        boolean negation = node.numberOfChildren() == 1;
+        replace(node, new Literal(result));
+        changes.add("folded " + before + (negation ? " into a literal" : " to " + describe(node)));
+    }
+}
@@ -0,0 +1,105 @@
+package optimizer;
+
+import java.util.List;
+
+import tokenizer.Token;
+import tree.Tree;
+
+/**
+ * Removes code that a constant condition makes unreachable. An
+ * <code>if</code> whose condition compares two literals is replaced by the
+ * statements of the branch that would be taken, and a <code>while</code>
+ * whose condition is false, or a <code>repeat</code> whose count is a
+ * literal no greater than zero, is removed. This pass should follow
+ * constant folding, which turns constant expressions into literals.
+ */
+public class DeadBranchElimination extends Pass {
+
+    /**
+     * Creates the pass, named <code>branches</code>.
+     */
+    public DeadBranchElimination() {
+        super("branches");
+    }
+
+    @Override
+    public Tree<Token> apply(Tree<Token> tree, List<String> changes) {
+        eliminate(tree, changes);
+        return tree;
+    }
+
+    /**
+     * Removes the dead statements from the blocks in a subtree.
+     *
+     * @param node The root of the subtree.
+     * @param changes The list of changes made.
+     */
+    private void eliminate(Tree<Token> node, List<String> changes) {
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            eliminate(node.child(i), changes);
+        }
+        if (!isBlock(node)) return;
+        int i = 0;
+        while (i < node.numberOfChildren()) {
+            Tree<Token> statement = node.child(i);
+            if (isKeyword(statement, "if") && (statement.numberOfChildren() == 2
+                    || statement.numberOfChildren() == 3) && isConstant(statement.child(0))) {
+                boolean taken = test(statement.child(0));
+                if (taken || statement.numberOfChildren() == 3)
+                    changes.add("replaced if " + describe(statement.child(0)) + " by its "
+                                + (taken ? "then" : "else") + " part");
+                else
+                    changes.add("removed if " + describe(statement.child(0)));
+                node.removeChild(i);
+                if (taken || statement.numberOfChildren() == 3) {
+                    Tree<Token> branch = statement.child(taken ? 1 : 2);
+                    while (!branch.isLeaf()) {
+                        node.addChild(i++, branch.removeChild(0));
+                    }
+                }
+            }
+            else if (isKeyword(statement, "while") && statement.numberOfChildren() == 2
+                    && isConstant(statement.child(0)) && !test(statement.child(0))) {
+                changes.add("removed while " + describe(statement.child(0)));
+                node.removeChild(i);
+            }
+            else if (isKeyword(statement, "repeat") && statement.numberOfChildren() == 2
+                    && isNumber(statement.child(0)) && !(0 < numberIn(statement.child(0)))) {
+                changes.add("removed repeat " + describe(statement.child(0)));
+                node.removeChild(i);
+            }
+            else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a condition compares two literals.
+     *
+     * @param condition The condition.
+     * @return <code>true</code> if its value is known.
+     */
+    private static boolean isConstant(Tree<Token> condition) {
+        return isComparison(condition) && isNumber(condition.child(0)) && isNumber(condition.child(1));
+    }
+
+    /**
+     * Evaluates a constant condition.
+     *
+     * @param condition A condition for which <code>isConstant</code> is true.
+     * @return The value of the condition.
+     */
+    private static boolean test(Tree<Token> condition) {
+        double left = numberIn(condition.child(0));
+        double right = numberIn(condition.child(1));
+        switch (condition.getValue().getValue()) {
+        case "=" :
+            return left == right;
+        case "<" :
+            return left < right;
+        default :
+            return left > right;
+        }
+    }
+}
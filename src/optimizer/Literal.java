@@ -0,0 +1,60 @@
+package optimizer;
+
+import tokenizer.Token;
+import tokenizer.TokenType;
+
+/**
+ * A NUMBER token whose value has already been converted to a double, so
+ * that later stages need not parse its text again.
+ */
+public class Literal extends Token {
+    private final double number;
+
+    /**
+     * Creates a literal for a number computed by the optimizer.
+     *
+     * @param number The value of the literal.
+     */
+    public Literal(double number) {
+        super(TokenType.NUMBER, format(number));
+        this.number = number;
+    }
+
+    /**
+     * Creates a literal from the text of a NUMBER token.
+     *
+     * @param text The text of the number, as written in the program.
+     */
+    public Literal(String text) {
+        super(TokenType.NUMBER, text);
+        this.number = Double.parseDouble(text);
+    }
+
+    /**
+     * Returns the value of this literal.
+     *
+     * @return The number.
+     */
+    public double getNumber() {
+        return number;
+    }
+
+    /**
+     * Writes a number without a useless fractional part.
+     *
+     * @param number The number.
+     * @return Its text, such as <code>90</code> or <code>2.5</code>.
+     */
+    static String format(double number) {
+        if (number == Math.rint(number) && Math.abs(number) < 1e15 && !isNegativeZero(number))
+            return Long.toString((long) number);
+        return Double.toString(number);
+    }
+
+    /**
+     * Tells whether a number is -0.0, which must keep its sign.
+     */
+    private static boolean isNegativeZero(double number) {
+        return number == 0 && 1 / number < 0;
+    }
+}
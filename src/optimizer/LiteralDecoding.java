@@ -0,0 +1,46 @@
+package optimizer;
+
+import java.util.List;
+
+import tokenizer.Token;
+import tree.Tree;
+
+/**
+ * Converts the text of every numeric literal to a double once, replacing
+ * each NUMBER token by a <code>Literal</code>.
+ */
+public class LiteralDecoding extends Pass {
+
+    /**
+     * Creates the pass, named <code>literals</code>.
+     */
+    public LiteralDecoding() {
+        super("literals");
+    }
+
+    @Override
+    public Tree<Token> apply(Tree<Token> tree, List<String> changes) {
+        int decoded = decode(tree);
+        if (decoded > 0) changes.add("decoded " + decoded + " numeric literals");
+        return tree;
+    }
+
+    /**
+     * Decodes the literals in a subtree.
+     *
+     * @param node The root of the subtree.
+     * @return The number of literals decoded.
+     */
+    private int decode(Tree<Token> node) {
+        if (isNumber(node)) {
+            if (node.getValue() instanceof Literal) return 0;
+            node.setValue(new Literal(node.getValue().getValue()));
+            return 1;
+        }
+        int decoded = 0;
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            decoded += decode(node.child(i));
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,254 @@
+package optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tokenizer.Token;
+import tokenizer.TokenType;
+import tree.Tree;
+
+/**
+ * Moves arithmetic that gives the same result on every iteration of a
+ * <code>repeat</code> or <code>while</code> loop out of the loop. The value
+ * is computed once, by a <code>set</code> of a new variable placed just
+ * before the loop, and the loop reads the variable instead.
+ * <p>
+ * An expression is invariant if it uses no <code>getX</code> or
+ * <code>getY</code> and no variable that the loop sets. If the loop calls
+ * a procedure, which could set any global, only procedure parameters count
+ * as unchanged. Since the hoisted expression is evaluated even if the loop
+ * would not have reached it, it must also be unable to fail: it may only
+ * use parameters, which are always defined, and divide by nonzero
+ * literals. The exception is the count of a <code>repeat</code>, which is
+ * evaluated before anything else in the loop anyway, so an invariant count
+ * is always hoisted.
+ * <p>
+ * New variables are named <code>$1</code>, <code>$2</code>, ... at the top
+ * level and <code>p$1</code>, <code>p$2</code>, ... in procedure
+ * <code>p</code>. No Logo name contains a <code>$</code>, so they cannot
+ * clash with the program's own variables, and a procedure's new variables
+ * can never refer to globals.
+ */
+public class LoopInvariantHoisting extends Pass {
+    private Map<String, Integer> counters;
+    private List<String> changes;
+
+    /**
+     * Creates the pass, named <code>hoisting</code>.
+     */
+    public LoopInvariantHoisting() {
+        super("hoisting");
+    }
+
+    @Override
+    public Tree<Token> apply(Tree<Token> tree, List<String> changes) {
+        this.changes = changes;
+        counters = new HashMap<String, Integer>();
+        hoistIn(tree, null, "$");
+        this.changes = null;
+        return tree;
+    }
+
+    /**
+     * Hoists invariant expressions out of every loop in a subtree, inner
+     * loops first.
+     *
+     * @param node The root of the subtree.
+     * @param parameters The parameters of the enclosing procedure, or
+     *        <code>null</code> at the top level.
+     * @param prefix The prefix for the names of new variables.
+     */
+    private void hoistIn(Tree<Token> node, Set<String> parameters, String prefix) {
+        if (isKeyword(node, "def") && node.numberOfChildren() == 2
+                && node.child(0).numberOfChildren() == 2) {
+            Tree<Token> header = node.child(0);
+            Set<String> formals = new HashSet<String>();
+            for (int i = 0; i < header.child(1).numberOfChildren(); i++) {
+                formals.add(header.child(1).child(i).getValue().getValue());
+            }
+            hoistIn(node.child(1), formals, header.child(0).getValue().getValue() + "$");
+            return;
+        }
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            hoistIn(node.child(i), parameters, prefix);
+        }
+        if (!isBlock(node)) return;
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            Tree<Token> statement = node.child(i);
+            if ((isKeyword(statement, "repeat") || isKeyword(statement, "while"))
+                    && statement.numberOfChildren() == 2) {
+                Loop loop = new Loop(statement, parameters, prefix);
+                for (Tree<Token> set : loop.hoist()) {
+                    node.addChild(i++, set);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name for the next new variable.
+     *
+     * @param prefix The prefix for the name.
+     * @return A name not used before in this run of the pass.
+     */
+    private String newVariable(String prefix) {
+        Integer count = counters.get(prefix);
+        count = count == null ? 1 : count + 1;
+        counters.put(prefix, count);
+        return prefix + count;
+    }
+
+    /**
+     * A loop being examined, with what is known about its body.
+     */
+    private class Loop {
+        private final Tree<Token> statement;
+        private final Set<String> parameters;
+        private final String prefix;
+        private final Set<String> assigned = new HashSet<String>();
+        private final boolean calls;
+        private final Map<String, String> hoisted = new HashMap<String, String>();
+        private final List<Tree<Token>> sets = new ArrayList<Tree<Token>>();
+
+        Loop(Tree<Token> statement, Set<String> parameters, String prefix) {
+            this.statement = statement;
+            this.parameters = parameters;
+            this.prefix = prefix;
+            calls = scan(statement.child(1));
+        }
+
+        /**
+         * Replaces the invariant expressions in the loop by new variables.
+         *
+         * @return The <code>set</code> statements that compute them.
+         */
+        List<Tree<Token>> hoist() {
+            Tree<Token> control = statement.child(0);
+            if (isKeyword(statement, "repeat") && isArithmetic(control) && isInvariant(control)) {
+                replaceByVariable(control);
+            }
+            else {
+                hoistFrom(control);
+            }
+            hoistFrom(statement.child(1));
+            return sets;
+        }
+
+        /**
+         * Finds the variables set in a subtree, and tells whether it calls
+         * a procedure.
+         *
+         * @param node The root of the subtree.
+         * @return <code>true</code> if the subtree contains a <code>do</code>.
+         */
+        private boolean scan(Tree<Token> node) {
+            if (isKeyword(node, "set") && node.numberOfChildren() == 2) {
+                assigned.add(node.child(0).getValue().getValue());
+            }
+            boolean found = isKeyword(node, "do");
+            for (int i = 0; i < node.numberOfChildren(); i++) {
+                found |= scan(node.child(i));
+            }
+            return found;
+        }
+
+        /**
+         * Hoists the largest safe invariant expressions below a node.
+         *
+         * @param node The root of the subtree.
+         */
+        private void hoistFrom(Tree<Token> node) {
+            for (int i = 0; i < node.numberOfChildren(); i++) {
+                Tree<Token> child = node.child(i);
+                if (isArithmetic(child) && isInvariant(child) && cannotFail(child)) {
+                    replaceByVariable(child);
+                }
+                else {
+                    hoistFrom(child);
+                }
+            }
+        }
+
+        /**
+         * Moves an expression into a new <code>set</code> statement and puts
+         * the new variable in its place. Equal expressions share a variable.
+         *
+         * @param expression The expression.
+         */
+        @SuppressWarnings("unchecked")
+        private void replaceByVariable(Tree<Token> expression) {
+            String text = describe(expression);
+            String name = hoisted.get(text);
+            if (name == null) {
+                name = newVariable(prefix);
+                hoisted.put(text, name);
+                Tree<Token> copy = copy(expression);
+                sets.add(new Tree<Token>(new Token(TokenType.KEYWORD, "set"),
+                                         new Tree<Token>(new Token(TokenType.NAME, name)), copy));
+                changes.add("hoisted " + text + " out of " + statement.getValue().getValue()
+                            + " as " + name);
+            }
+            replace(expression, new Token(TokenType.NAME, name));
+        }
+
+        /**
+         * Tells whether an expression has the same value on every iteration.
+         *
+         * @param node The root of the expression.
+         * @return <code>true</code> if the expression is invariant.
+         */
+        private boolean isInvariant(Tree<Token> node) {
+            if (isNumber(node)) return true;
+            if (node.getValue().getType() == TokenType.NAME) {
+                String name = node.getValue().getValue();
+                return !assigned.contains(name)
+                        && (!calls || parameters != null && parameters.contains(name));
+            }
+            if (!isArithmetic(node)) return false;
+            for (int i = 0; i < node.numberOfChildren(); i++) {
+                if (!isInvariant(node.child(i))) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Tells whether evaluating an expression can never throw an
+         * exception.
+         *
+         * @param node The root of the expression.
+         * @return <code>true</code> if the expression cannot fail.
+         */
+        private boolean cannotFail(Tree<Token> node) {
+            if (isNumber(node)) return true;
+            if (node.getValue().getType() == TokenType.NAME)
+                return parameters != null && parameters.contains(node.getValue().getValue());
+            if (!isArithmetic(node)) return false;
+            if ("/".equals(node.getValue().getValue())
+                    && !(isNumber(node.child(1)) && numberIn(node.child(1)) != 0.0))
+                return false;
+            for (int i = 0; i < node.numberOfChildren(); i++) {
+                if (!cannotFail(node.child(i))) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Copies a subtree.
+     *
+     * @param node The root of the subtree.
+     * @return An equal subtree sharing no nodes with the original.
+     */
+    @SuppressWarnings("unchecked")
+    static Tree<Token> copy(Tree<Token> node) {
+        Tree<Token> copy = new Tree<Token>(node.getValue());
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            copy.addChild(copy(node.child(i)));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,128 @@
+package optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tokenizer.Token;
+import tree.Tree;
+
+/**
+ * Improves a parsed program before it is run, by passing its abstract
+ * syntax tree through a sequence of Passes. The standard pipeline decodes
+ * literals, folds constant arithmetic, removes branches that constant
+ * conditions make dead, and hoists loop-invariant arithmetic out of loops.
+ * Each pass can be switched off by name, and every change made by the
+ * last call of <code>optimize</code> is reported, pass by pass.
+ * <p>
+ * The tree given to <code>optimize</code> is copied first, so the parser's
+ * tree can be run again unchanged.
+ */
+public class Optimizer {
+    private List<Pass> passes = new ArrayList<Pass>();
+    private Set<String> disabled = new HashSet<String>();
+    private Map<String, List<String>> changes = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * Creates an Optimizer with the standard passes, all switched on.
+     */
+    public Optimizer() {
+        add(new LiteralDecoding());
+        add(new ConstantFolding());
+        add(new DeadBranchElimination());
+        add(new LoopInvariantHoisting());
+    }
+
+    /**
+     * Adds a pass to the end of the pipeline.
+     *
+     * @param pass The pass to be added.
+     */
+    public void add(Pass pass) {
+        passes.add(pass);
+    }
+
+    /**
+     * Returns the names of the passes, in the order they are run.
+     *
+     * @return The names of all passes, switched on or not.
+     */
+    public List<String> getPassNames() {
+        List<String> names = new ArrayList<String>();
+        for (Pass pass : passes) names.add(pass.getName());
+        return names;
+    }
+
+    /**
+     * Switches a pass on or off.
+     *
+     * @param name The name of the pass.
+     * @param enabled Whether the pass should be run.
+     */
+    public void setEnabled(String name, boolean enabled) {
+        if (enabled) disabled.remove(name);
+        else disabled.add(name);
+    }
+
+    /**
+     * Tells whether a pass is switched on.
+     *
+     * @param name The name of the pass.
+     * @return <code>true</code> unless the pass has been switched off.
+     */
+    public boolean isEnabled(String name) {
+        return !disabled.contains(name);
+    }
+
+    /**
+     * Runs a copy of a tree through every pass that is switched on.
+     *
+     * @param tree The root of the tree; normally a whole program.
+     * @return The root of the optimized copy.
+     */
+    public Tree<Token> optimize(Tree<Token> tree) {
+        changes.clear();
+        if (tree == null) return null;
+        Tree<Token> result = LoopInvariantHoisting.copy(tree);
+        for (Pass pass : passes) {
+            if (!isEnabled(pass.getName())) continue;
+            List<String> made = new ArrayList<String>();
+            result = pass.apply(result, made);
+            changes.put(pass.getName(), made);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the changes a pass made during the last optimization.
+     *
+     * @param name The name of the pass.
+     * @return A description of each change, in the order made; empty if
+     *         the pass made none or was not run.
+     */
+    public List<String> getChanges(String name) {
+        List<String> made = changes.get(name);
+        if (made == null) return Collections.emptyList();
+        return Collections.unmodifiableList(made);
+    }
+
+    /**
+     * Returns a description of all the changes made during the last
+     * optimization, one per line, each preceded by the name of its pass.
+     *
+     * @return The report.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : changes.entrySet()) {
+            for (String change : entry.getValue()) {
+                report.append(entry.getKey()).append(": ").append(change).append('\n');
+            }
+        }
+        return report.toString();
+    }
+}
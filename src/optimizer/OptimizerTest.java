@@ -0,0 +1,161 @@
+package optimizer;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import parser.Parser;
+import tokenizer.Token;
+import tree.Tree;
+
+/**
+ * Tests for the Optimizer and its standard passes.
+ */
+public class OptimizerTest {
+    private Optimizer optimizer;
+
+    /**
+     * Creates an Optimizer with the standard passes.
+     */
+    @Before
+    public void setUp() {
+        optimizer = new Optimizer();
+    }
+
+    /**
+     * Test method for {@link optimizer.Optimizer#optimize(tree.Tree)}.
+     */
+    @Test
+    public void testLiteralDecoding() {
+        Tree<Token> program = optimize("forward 12.5\n");
+        Token literal = main(program).child(0).child(0).getValue();
+        assertTrue(literal instanceof Literal);
+        assertEquals(12.5, ((Literal) literal).getNumber(), 0.0);
+        assertEquals(Arrays.asList("decoded 1 numeric literals"), optimizer.getChanges("literals"));
+    }
+
+    /**
+     * Test method for {@link optimizer.Optimizer#optimize(tree.Tree)}.
+     */
+    @Test
+    public void testConstantFolding() {
+        Tree<Token> program = optimize("forward (100 * 2 + 4) / 8\nleft -36\nset a 1 / 0\nset b a * 2\n");
+        assertEquals("25.5", describe(main(program).child(0).child(0)));
+        assertEquals("-36", describe(main(program).child(1).child(0)));
+        assertEquals("1 / 0", describe(main(program).child(2).child(1)));
+        assertEquals("a * 2", describe(main(program).child(3).child(1)));
+        assertEquals(Arrays.asList("folded 100 * 2 to 200", "folded 200 + 4 to 204",
+                                   "folded 204 / 8 to 25.5", "folded -36 into a literal"),
+                     optimizer.getChanges("folding"));
+    }
+
+    /**
+     * Test method for {@link optimizer.Optimizer#optimize(tree.Tree)}.
+     */
+    @Test
+    public void testDeadBranchElimination() {
+        Tree<Token> program = optimize("if 2 > 1 {\nforward 1\nleft 2\n}\nelse {\nright 3\n}\n"
+                                       + "if 1 = 2 {\nforward 4\n}\nwhile 3 < 1 {\nforward 5\n}\n"
+                                       + "repeat 1 - 1 {\nforward 6\n}\nif 1 < 2 * 3 {\npenup\n}\n");
+        Tree<Token> main = main(program);
+        assertEquals(3, main.numberOfChildren());
+        assertEquals("forward", main.child(0).getValue().getValue());
+        assertEquals("left", main.child(1).getValue().getValue());
+        assertEquals("penup", main.child(2).getValue().getValue());
+        assertEquals(5, optimizer.getChanges("branches").size());
+
+        optimizer.setEnabled("folding", false);
+        main = main(optimize("if 1 < 2 * 3 {\npenup\n}\n"));
+        assertEquals("if", main.child(0).getValue().getValue());
+        assertTrue(optimizer.getChanges("folding").isEmpty());
+    }
+
+    /**
+     * Test method for {@link optimizer.Optimizer#optimize(tree.Tree)}.
+     */
+    @Test
+    public void testLoopInvariantHoisting() {
+        Tree<Token> program = optimize("do star 5 100\ndef star n size {\nset k 0\n"
+                                       + "repeat 360 / n {\nforward size / 2\nright 720 / n\n"
+                                       + "set k k + size / 2\n}\n}\n");
+        Tree<Token> body = program.child(1).child(0).child(1);
+        assertEquals(4, body.numberOfChildren());
+        assertEquals("set", body.child(1).getValue().getValue());
+        assertEquals("star$1", body.child(1).child(0).getValue().getValue());
+        assertEquals("360 / n", describe(body.child(1).child(1)));
+        assertEquals("size / 2", describe(body.child(2).child(1)));
+        Tree<Token> loop = body.child(3).child(1);
+        assertEquals("star$2", describe(loop.child(0).child(0)));
+        assertEquals("720 / n", describe(loop.child(1).child(0)));
+        assertEquals("k + star$2", describe(loop.child(2).child(1)));
+        assertEquals(2, optimizer.getChanges("hoisting").size());
+    }
+
+    /**
+     * Test method for {@link optimizer.Optimizer#optimize(tree.Tree)}.
+     */
+    @Test
+    public void testHoistingIsSafe() {
+        // nothing is hoisted from a loop that sets g or calls a procedure that could,
+        // and m / a could fail if a were 0
+        String text = "set g 4\nwhile g < 10 {\nforward g * 2\nset g g + 1\n}\n"
+                      + "repeat g {\ndo p 1\nforward g * 2\n}\n"
+                      + "def p a {\nset m 0\nwhile m < 3 {\nforward m / a\nforward a / 2\nset m m + 1\n}\n}\n";
+        Tree<Token> parsed = parse(text);
+        Tree<Token> program = optimizer.optimize(parsed);
+        assertEquals(Arrays.asList("hoisted a / 2 out of while as p$1"), optimizer.getChanges("hoisting"));
+        assertEquals("g * 2", describe(main(program).child(1).child(1).child(0).child(0)));
+
+        // the original tree is left alone
+        assertEquals(parse(text), parsed);
+        optimizer.setEnabled("hoisting", false);
+        optimizer.optimize(parsed);
+        assertTrue(optimizer.getChanges("hoisting").isEmpty());
+        assertFalse(optimizer.isEnabled("hoisting"));
+    }
+
+    /**
+     * Parses a program.
+     *
+     * @param text The text of the program.
+     * @return The abstract syntax tree.
+     */
+    private Tree<Token> parse(String text) {
+        Parser parser = new Parser(text);
+        assertTrue(parser.isProgram());
+        return parser.stack.peek();
+    }
+
+    /**
+     * Parses and optimizes a program.
+     *
+     * @param text The text of the program.
+     * @return The optimized tree.
+     */
+    private Tree<Token> optimize(String text) {
+        return optimizer.optimize(parse(text));
+    }
+
+    /**
+     * Returns the main block of a program.
+     *
+     * @param program The program tree.
+     * @return The block of top-level commands.
+     */
+    private static Tree<Token> main(Tree<Token> program) {
+        return program.child(0);
+    }
+
+    /**
+     * Describes an expression in infix notation.
+     *
+     * @param expression The expression tree.
+     * @return Its text.
+     */
+    private static String describe(Tree<Token> expression) {
+        return Pass.describe(expression);
+    }
+}
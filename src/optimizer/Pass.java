@@ -0,0 +1,159 @@
+package optimizer;
+
+import java.util.List;
+
+import tokenizer.Token;
+import tokenizer.TokenType;
+import tree.Tree;
+
+/**
+ * One step of the Optimizer: a rewrite of the abstract syntax tree that
+ * leaves the meaning of the program unchanged. A pass may change the tree
+ * in place or build a new one, and describes each change it makes.
+ */
+public abstract class Pass {
+    private final String name;
+
+    /**
+     * Creates a pass.
+     *
+     * @param name The name by which the pass is switched on and off.
+     */
+    protected Pass(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of this pass.
+     *
+     * @return The name of the pass.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Rewrites a tree.
+     *
+     * @param tree The root of the tree; normally a whole program.
+     * @param changes The list to which a description of each change is added.
+     * @return The root of the rewritten tree.
+     */
+    public abstract Tree<Token> apply(Tree<Token> tree, List<String> changes);
+
+// ------------------------ helper methods for passes
+
+    /**
+     * Tells whether a node is the given keyword.
+     *
+     * @param node The node to be tested.
+     * @param keyword The keyword.
+     * @return <code>true</code> if the node holds that keyword.
+     */
+    static boolean isKeyword(Tree<Token> node, String keyword) {
+        return node.getValue().getType() == TokenType.KEYWORD
+                && keyword.equals(node.getValue().getValue());
+    }
+
+    /**
+     * Tells whether a node is a block of statements. The parser makes
+     * these, with the name <code>block</code>, for the main program and
+     * for the bodies of procedures and compound commands.
+     *
+     * @param node The node to be tested.
+     * @return <code>true</code> if the node is a block.
+     */
+    static boolean isBlock(Tree<Token> node) {
+        return node.getValue().getType() == TokenType.NAME
+                && "block".equals(node.getValue().getValue());
+    }
+
+    /**
+     * Tells whether a node is a numeric literal.
+     *
+     * @param node The node to be tested.
+     * @return <code>true</code> if the node holds a number.
+     */
+    static boolean isNumber(Tree<Token> node) {
+        return node.getValue().getType() == TokenType.NUMBER;
+    }
+
+    /**
+     * Returns the value of a numeric literal.
+     *
+     * @param node A node for which <code>isNumber</code> is true.
+     * @return The value of the literal.
+     */
+    static double numberIn(Tree<Token> node) {
+        Token token = node.getValue();
+        if (token instanceof Literal) return ((Literal) token).getNumber();
+        return Double.parseDouble(token.getValue());
+    }
+
+    /**
+     * Tells whether a node is an arithmetic operator: <code>+</code>,
+     * <code>-</code>, <code>*</code> or <code>/</code>, with one or two
+     * operands.
+     *
+     * @param node The node to be tested.
+     * @return <code>true</code> if the node is an arithmetic operation.
+     */
+    static boolean isArithmetic(Tree<Token> node) {
+        if (node.getValue().getType() != TokenType.SYMBOL) return false;
+        String operator = node.getValue().getValue();
+        int operands = node.numberOfChildren();
+        if ("+".equals(operator) || "-".equals(operator))
+            return operands == 1 || operands == 2;
+        if ("*".equals(operator) || "/".equals(operator))
+            return operands == 2;
+        return false;
+    }
+
+    /**
+     * Tells whether a node is a comparison with two operands.
+     *
+     * @param node The node to be tested.
+     * @return <code>true</code> if the node is a condition.
+     */
+    static boolean isComparison(Tree<Token> node) {
+        if (node.getValue().getType() != TokenType.SYMBOL || node.numberOfChildren() != 2)
+            return false;
+        String comparator = node.getValue().getValue();
+        return "=".equals(comparator) || "<".equals(comparator) || ">".equals(comparator);
+    }
+
+    /**
+     * Makes a node hold a different value and no children.
+     *
+     * @param node The node to be changed.
+     * @param token Its new value.
+     */
+    static void replace(Tree<Token> node, Token token) {
+        node.setValue(token);
+        while (!node.isLeaf()) node.removeChild(0);
+    }
+
+    /**
+     * Describes an expression or condition in the usual infix notation.
+     *
+     * @param node The root of the expression.
+     * @return The text of the expression.
+     */
+    static String describe(Tree<Token> node) {
+        String value = node.getValue().getValue();
+        if (node.numberOfChildren() == 1)
+            return value + operand(node.child(0));
+        if (node.numberOfChildren() == 2)
+            return operand(node.child(0)) + " " + value + " " + operand(node.child(1));
+        if (isNumber(node)) return Literal.format(numberIn(node));
+        return value;
+    }
+
+    /**
+     * Describes an operand, in parentheses if it is itself an operation.
+     */
+    private static String operand(Tree<Token> node) {
+        if (node.isLeaf()) return describe(node);
+        return "(" + describe(node) + ")";
+    }
+}
@@ -22,7 +22,7 @@ public class Parser {
         	"home", "jump", "set", "repeat", "while", "if", "else", "do", "forward", "left",
         	"right", "face", "red", "orange", "yellow", "green", "cyan", "blue", "purple",
         	"magenta", "pink", "olive", "black", "gray", "white", "brown", "tan", "color", "def", 
-        	"getX", "getY"));
+        	"getX", "getY", "spawn", "join"));
   
     
     /**
@@ -84,6 +84,8 @@ public class Parser {
     	if (isWhile()) return true;
     	if (isIf()) return true;
     	if (isDo()) return true;
+    	if (isSpawn()) return true;
+    	if (isJoin()) return true;
     	if (!isColor()) return false; 
     	if (!isEOL()) error("Expect newline!");
     	return true;
@@ -328,6 +330,34 @@ public class Parser {
     	return true;
     }
     
+    /**
+     * Tries to parse a spawn command, which has the same form as a
+     * do command.
+     *
+     * @return true if a spawn command is parsed.
+     */
+    public boolean isSpawn() {
+    	if (!isKeyword("spawn")) return false;
+    	if (!isName()) error("No name found after 'spawn'!");
+    	Tree<Token> root = new Tree<Token>(makeOneToken("list"));
+    	while (isExpression()) root.addChild(stack.pop());
+    	stack.push(root);
+    	if (!isEOL()) error("No newline found after 'spawn'!");
+    	makeTree(3, 2, 1);
+    	return true;
+    }
+    
+    /**
+     * Tries to parse a join command.
+     *
+     * @return true if a join command is parsed.
+     */
+    public boolean isJoin() {
+    	if (!isKeyword("join")) return false;
+    	if (!isEOL()) error("No newline found after 'join'!");
+    	return true;
+    }
+    
     /**
      * Tries to parse an &lt;expression&gt;.
      * <pre>&lt;expression&gt; ::= [ &lt;add_operator&gt; ] &lt;term&gt; { &lt;add_operator&gt; &lt;unsignedTerm&gt; }</pre>
@@ -27,7 +27,7 @@ public class ParserTest {
         	"home", "jump", "set", "repeat", "while", "if", "else", "do", "forward", "left",
         	"right", "face", "red", "orange", "yellow", "green", "cyan", "blue", "purple",
         	"magenta", "pink", "olive", "black", "gray", "white", "brown", "tan", "color", "def", 
-        	"getX", "getY"));
+        	"getX", "getY", "spawn", "join"));
 
     /**
      * @throws java.lang.Exception if an error occurs.
@@ -299,6 +299,25 @@ public class ParserTest {
         unconsumedTokensShouldBe("#");
     }
     
+    /**
+     * Test method for {@link parser.Parser#isSpawn()}.
+     */
+    @Test
+    public void testIsSpawn() {        
+        use("spawn foo 1 2\n");
+        assertTrue(parser.isSpawn());
+        assertStackTop(tree("spawn(foo list(1 2))"));
+        
+        use("join\n");
+        assertTrue(parser.isJoin());
+        assertStackTop(tree("join"));
+
+        use("do foo\n");
+        assertFalse(parser.isSpawn());
+        assertFalse(parser.isJoin());
+        unconsumedTokensShouldBe("do foo\n");
+    }
+    
     /**
      * Test method for {@link parser.Parser#isBlock()}.
      */